@@ -0,0 +1,89 @@
+package hudson.plugins.cmake;
+
+import hudson.EnvVars;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Inputs shaped like those of a real build: the environment of a build on
+ * a busy node and the arguments of a job with many cache entries.
+ */
+final class BenchmarkInputs {
+
+    private BenchmarkInputs() {
+    }
+
+    /**
+     * @return an environment with the usual build variables and
+     *         <tt>variables</tt> more, like those set by SCM, node and tool
+     *         installer plugins
+     */
+    static EnvVars environment(int variables) {
+        EnvVars envs = new EnvVars();
+        envs.put("WORKSPACE", "/var/lib/hudson/workspace/project");
+        envs.put("BUILD_NUMBER", "1234");
+        envs.put("BUILD_TAG", "hudson-project-1234");
+        envs.put("JOB_NAME", "project");
+        envs.put("NODE_NAME", "linux-x86_64-07");
+        envs.put("SVN_REVISION", "98765");
+        envs.put("HOME", "/var/lib/hudson");
+        envs.put("PATH", "/opt/cmake/bin:/opt/gcc/bin:/usr/local/bin:/usr/bin:/bin");
+        for (int i = 0; i < variables; i++) {
+            envs.put("TOOL_" + i + "_HOME", "/opt/tools/tool-" + i + "/" + (i % 7) + ".0." + (i % 13));
+        }
+        return envs;
+    }
+
+    /**
+     * @return cmake arguments of at least <tt>length</tt> characters with
+     *         <tt>-D</tt> definitions, some quoted, some referring to variables
+     */
+    static String cmakeArgs(int length) {
+        StringBuilder args = new StringBuilder(length + 100);
+        for (int i = 0; args.length() < length; i++) {
+            switch (i % 4) {
+                case 0:
+                    args.append("-DWITH_FEATURE_").append(i).append("=ON ");
+                    break;
+                case 1:
+                    args.append("-DTOOL_").append(i).append("_ROOT=${TOOL_").append(i).append("_HOME} ");
+                    break;
+                case 2:
+                    args.append("\"-DEXTRA_FLAGS_").append(i).append("=-O2 -g -Wall -Wextra\" ");
+                    break;
+                default:
+                    args.append("-DOUTPUT_").append(i).append("=$WORKSPACE/out/$BUILD_NUMBER/").append(i).append(' ');
+                    break;
+            }
+        }
+        return args.toString();
+    }
+
+    /**
+     * Creates a directory tree like a build tree, with <tt>fanOut</tt>
+     * directories and files in each directory down to <tt>depth</tt>.
+     *
+     * @return the number of files created
+     */
+    static int createTree(File dir, int depth, int fanOut) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Unable to create " + dir);
+        }
+        int files = 0;
+        for (int i = 0; i < fanOut; i++) {
+            FileOutputStream out = new FileOutputStream(new File(dir, "object" + i + ".o"));
+            try {
+                out.write(new byte[256]);
+            } finally {
+                out.close();
+            }
+            files++;
+            if (depth > 1) {
+                files += createTree(new File(dir, "dir" + i), depth - 1, fanOut);
+            }
+        }
+        return files;
+    }
+}
@@ -0,0 +1,62 @@
+package hudson.plugins.cmake;
+
+import hudson.EnvVars;
+import hudson.util.ArgumentListBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Assembly of the configure command by {@link CmakeLauncher#configureArgs},
+ * the part of {@link CmakeLauncher#launchCmake} before the process is started.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CmakeArgsBenchmark {
+
+    @Param({"1024", "4096", "16384"})
+    public int argsLength;
+
+    private EnvVars envs;
+    private String cmakeArgs;
+    private Map<String, String> definitions;
+
+    @Setup
+    public void setUp() {
+        envs = BenchmarkInputs.environment(300);
+        cmakeArgs = BenchmarkInputs.cmakeArgs(argsLength);
+        definitions = new LinkedHashMap<String, String>();
+        definitions.put("CMAKE_EXPORT_COMPILE_COMMANDS", "ON");
+        definitions.put("CMAKE_CXX_COMPILER_LAUNCHER", "ccache");
+    }
+
+    @Benchmark
+    public List<String> tokenize() {
+        return new ArgumentListBuilder().addTokenized(cmakeArgs).toList();
+    }
+
+    @Benchmark
+    public List<String> assembleConfigureCommand() {
+        final String expanded = EnvVarReplacer.replace(cmakeArgs, envs);
+        return CmakeLauncher.configureArgs("/opt/cmake/bin/cmake", "Unix Makefiles",
+                "/var/lib/hudson/workspace/project/preload.cmake", "/var/lib/hudson/workspace/project/src",
+                "/var/lib/hudson/workspace/project/install", "RelWithDebInfo", definitions, expanded).toList();
+    }
+}
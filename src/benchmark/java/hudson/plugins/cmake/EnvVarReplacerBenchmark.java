@@ -0,0 +1,81 @@
+package hudson.plugins.cmake;
+
+import hudson.EnvVars;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Expansion of the variables in the paths and arguments of a build step,
+ * done several times per build.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EnvVarReplacerBenchmark {
+
+    @Param({"100", "500"})
+    public int variables;
+
+    @Param({"1024", "8192"})
+    public int argsLength;
+
+    private EnvVars envs;
+    private String path;
+    private String cmakeArgs;
+
+    @Setup
+    public void setUp() {
+        envs = BenchmarkInputs.environment(variables);
+        path = "${WORKSPACE}/build/$NODE_NAME/${BUILD_NUMBER}";
+        cmakeArgs = BenchmarkInputs.cmakeArgs(argsLength);
+    }
+
+    @Benchmark
+    public String replacePath() {
+        return EnvVarReplacer.replace(path, envs);
+    }
+
+    @Benchmark
+    public String replaceArgs() {
+        return EnvVarReplacer.replace(cmakeArgs, envs);
+    }
+
+    /**
+     * The replacement used before templates, for comparison: one regex
+     * replace over the whole string per variable.
+     */
+    @Benchmark
+    public String replaceArgsWithReplaceAll() {
+        return replaceAll(cmakeArgs, envs);
+    }
+
+    private static String replaceAll(String stringContainingEnvVars, Map<String, String> envVars) {
+        for (Map.Entry<String, String> entry : envVars.entrySet()) {
+            stringContainingEnvVars = stringContainingEnvVars.replaceAll("\\$" + entry.getKey(), entry.getValue());
+        }
+        return stringContainingEnvVars;
+    }
+
+    /**
+     * The first build after a change of the job, which finds no compiled template.
+     */
+    @Benchmark
+    public String compileAndReplaceArgs() {
+        return EnvVarTemplate.compile(cmakeArgs).expand(envs);
+    }
+}
@@ -0,0 +1,100 @@
+package hudson.plugins.cmake;
+
+import hudson.EnvVars;
+import hudson.FilePath;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Preparation of the build and install directories with
+ * {@link CmakeBuilderImpl#preparePath}, on a local temporary directory.
+ */
+@State(Scope.Thread)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+public class PreparePathBenchmark {
+
+    @Param({"4", "6"})
+    public int depth;
+
+    @Param({"4"})
+    public int fanOut;
+
+    private final CmakeBuilderImpl builderImpl = new CmakeBuilderImpl();
+    private EnvVars envs;
+    private File root;
+    private FilePath workSpace;
+
+    @Setup(Level.Trial)
+    public void setUpWorkspace() throws IOException {
+        root = File.createTempFile("cmakebuilder-bench", "");
+        if (!root.delete() || !root.mkdirs()) {
+            throw new IOException("Unable to create " + root);
+        }
+        workSpace = new FilePath(root);
+        envs = BenchmarkInputs.environment(300);
+        BenchmarkInputs.createTree(new File(root, "existing"), depth, fanOut);
+    }
+
+    /**
+     * A build tree created anew before each wipe.
+     */
+    @State(Scope.Thread)
+    public static class BuildTree {
+        @Setup(Level.Invocation)
+        public void setUp(PreparePathBenchmark benchmark) throws IOException {
+            BenchmarkInputs.createTree(new File(benchmark.root, "build"), benchmark.depth, benchmark.fanOut);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException, InterruptedException {
+        TrashReaper.deleteRecursive(root, false);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @Warmup(iterations = 5, time = 1)
+    @Measurement(iterations = 5, time = 1)
+    public String checkPathExists() throws IOException, InterruptedException {
+        return builderImpl.preparePath(workSpace, envs, "existing",
+                CmakeBuilderImpl.PreparePathOptions.CHECK_PATH_EXISTS);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @Warmup(iterations = 5, time = 1)
+    @Measurement(iterations = 5, time = 1)
+    public String createIfNotExisting() throws IOException, InterruptedException {
+        return builderImpl.preparePath(workSpace, envs, "${JOB_NAME}/install/$BUILD_NUMBER",
+                CmakeBuilderImpl.PreparePathOptions.CREATE_IF_NOT_EXISTING);
+    }
+
+    /**
+     * Wipes a build tree the way a clean build does: renamed away at once,
+     * deleted in the background.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = 5)
+    @Measurement(iterations = 20)
+    public String createNewIfExists(BuildTree tree) throws IOException, InterruptedException {
+        return builderImpl.preparePath(workSpace, envs, "build",
+                CmakeBuilderImpl.PreparePathOptions.CREATE_NEW_IF_EXISTS);
+    }
+}
@@ -0,0 +1,237 @@
+package hudson.plugins.cmake;
+
+import hudson.model.Node;
+import hudson.model.TaskListener;
+import hudson.remoting.Callable;
+import hudson.remoting.VirtualChannel;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A set of cmake options that make compiling and linking faster, chosen
+ * per job instead of copied into the cmake arguments of each one:
+ * <ul>
+ * <li>{@link #LINK}: link with mold or lld, whichever the node has and
+ * the compiler accepts in <tt>-fuse-ld</tt>;</li>
+ * <li>{@link #UNITY}: in addition, compile the sources of a target in
+ * batches of {@link #UNITY_BATCH_SIZE} (unity build).</li>
+ * </ul>
+ * Options the cmake version does not support are left out. The fast
+ * linkers found for a compiler on a node are remembered for
+ * {@link #LINKER_TTL_MILLIS}.
+ */
+public final class AccelerationProfile {
+
+    public static final String NONE = "";
+    public static final String LINK = "link";
+    public static final String UNITY = "unity";
+
+    static final int UNITY_BATCH_SIZE = 16;
+
+    static final String MOLD = "mold";
+    static final String LLD = "lld";
+
+    /** Fast linkers by preference, and the executable the compiler driver looks for. */
+    private static final String[][] LINKERS = { { MOLD, "mold" }, { LLD, "ld.lld" } };
+
+    static final long LINKER_TTL_MILLIS = 60 * 60 * 1000L;
+
+    private static final Map<String, Linker> LINKER_CACHE = new ConcurrentHashMap<String, Linker>();
+
+    private final String profile;
+    private final String linker;
+    private final boolean unity;
+    private final CmakeVersion cmakeVersion;
+
+    AccelerationProfile(String profile, String linker, boolean unity, CmakeVersion cmakeVersion) {
+        this.profile = profile;
+        this.linker = linker;
+        this.unity = unity;
+        this.cmakeVersion = cmakeVersion;
+    }
+
+    /**
+     * Works out the options of the requested profile for a build on the node.
+     *
+     * @param generator the generator of the build; only Makefile and Ninja builds link
+     *                  through the compiler driver, which can be told to use another linker
+     * @param envs the environment of the build
+     * @return the profile, or <tt>null</tt> if there is nothing to apply
+     */
+    public static AccelerationProfile select(String requested, Node node, CmakeVersion cmakeVersion,
+            String generator, Map<String, String> envs, TaskListener listener)
+            throws IOException, InterruptedException {
+        if (requested == null || requested.equals(NONE)) {
+            return null;
+        }
+        boolean unity = UNITY.equals(requested);
+        if (unity && cmakeVersion.isKnown() && !cmakeVersion.isAtLeast(3, 16)) {
+            listener.getLogger().println("Acceleration: unity builds need cmake 3.16 or newer");
+            unity = false;
+        }
+        String linker = null;
+        if (CmakeGenerator.isMakefiles(generator) || CmakeGenerator.isNinja(generator)) {
+            final String compiler = linkCompiler(envs);
+            linker = detectLinker(node, compiler, envs.get("PATH"));
+            if (linker == null) {
+                listener.getLogger().println("Acceleration: neither mold nor lld found on the node that "
+                        + compiler + " can link with");
+            }
+        }
+        if (linker == null && !unity) {
+            return null;
+        }
+        return new AccelerationProfile(requested, linker, unity, cmakeVersion);
+    }
+
+    /**
+     * @return the compiler driver that links the C++ targets of the build
+     */
+    static String linkCompiler(Map<String, String> envs) {
+        final String cxx = envs.get("CXX");
+        if (cxx == null || cxx.trim().length() == 0) {
+            return "c++";
+        }
+        return cxx.trim().split("\\s+")[0];
+    }
+
+    /**
+     * @param compiler the compiler driver that links, which has to accept <tt>-fuse-ld</tt> for the linker
+     * @return {@link #MOLD} or {@link #LLD}, or <tt>null</tt> if the node has neither the compiler can use
+     */
+    static String detectLinker(Node node, String compiler, String searchPath)
+            throws IOException, InterruptedException {
+        final String key = node.getNodeName() + '\0' + compiler + '\0' + searchPath;
+        final Linker cached = LINKER_CACHE.get(key);
+        if (cached != null && System.currentTimeMillis() - cached.detected < LINKER_TTL_MILLIS) {
+            return cached.name;
+        }
+        VirtualChannel channel = node.getChannel();
+        if (channel == null) {
+            throw new IOException("Node " + node.getDisplayName() + " is offline");
+        }
+        RemoteCallCounter.increment();
+        final String name = channel.call(new DetectLinker(compiler, searchPath));
+        LINKER_CACHE.put(key, new Linker(name, System.currentTimeMillis()));
+        return name;
+    }
+
+    public String getLinker() {
+        return linker;
+    }
+
+    public boolean isUnity() {
+        return unity;
+    }
+
+    /**
+     * Adds the options of the profile to the cache entries of the configure.
+     *
+     * @param envs the environment of the build, for the linker flags cmake would take from <tt>LDFLAGS</tt>
+     */
+    public void addDefinitions(Map<String, String> definitions, Map<String, String> envs) {
+        if (linker != null) {
+            if (cmakeVersion.isAtLeast(3, 29)) {
+                definitions.put("CMAKE_LINKER_TYPE", linker.toUpperCase(Locale.ENGLISH));
+            } else {
+                final String ldflags = envs.get("LDFLAGS");
+                final String flags = (ldflags != null ? ldflags.trim() + " " : "") + "-fuse-ld=" + linker;
+                for (String kind : new String[] { "EXE", "SHARED", "MODULE" }) {
+                    definitions.put("CMAKE_" + kind + "_LINKER_FLAGS", flags.trim());
+                }
+            }
+        }
+        if (unity) {
+            definitions.put("CMAKE_UNITY_BUILD", "ON");
+            definitions.put("CMAKE_UNITY_BUILD_BATCH_SIZE", Integer.toString(UNITY_BATCH_SIZE));
+        }
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder text = new StringBuilder(profile).append(" (");
+        if (linker != null) {
+            text.append(linker).append(" linker");
+        }
+        if (unity) {
+            text.append(linker != null ? ", " : "")
+                    .append("unity build, batch size ").append(UNITY_BATCH_SIZE);
+        }
+        return text.append(')').toString();
+    }
+
+    /** A detection of the fast linkers of a node. */
+    private static final class Linker {
+        final String name;
+        final long detected;
+
+        Linker(String name, long detected) {
+            this.name = name;
+            this.detected = detected;
+        }
+    }
+
+    private static final class DetectLinker implements Callable<String, IOException> {
+        private static final long serialVersionUID = 1L;
+
+        private final String compiler;
+        private final String searchPath;
+
+        DetectLinker(String compiler, String searchPath) {
+            this.compiler = compiler;
+            this.searchPath = searchPath;
+        }
+
+        public String call() {
+            if (File.pathSeparatorChar == ';') {
+                return null;
+            }
+            final File driver = CmakeVersionCache.resolve(compiler, searchPath);
+            if (driver == null) {
+                return null;
+            }
+            for (String[] linker : LINKERS) {
+                if (CmakeVersionCache.resolve(linker[1], searchPath) != null && accepts(driver, linker[0])) {
+                    return linker[0];
+                }
+            }
+            return null;
+        }
+
+        /**
+         * GCC only takes <tt>-fuse-ld=mold</tt> from 12.1 and <tt>-fuse-ld=lld</tt> from 9 on,
+         * so ask the driver to run the linker for its version.
+         */
+        private boolean accepts(File driver, String linker) {
+            try {
+                ProcessBuilder pb = new ProcessBuilder(driver.getPath(), "-fuse-ld=" + linker, "-Wl,--version")
+                        .redirectErrorStream(true);
+                if (searchPath != null) {
+                    pb.environment().put("PATH", searchPath);
+                }
+                Process process = pb.start();
+                process.getOutputStream().close();
+                InputStream in = process.getInputStream();
+                try {
+                    byte[] buf = new byte[1024];
+                    while (in.read(buf) >= 0) {
+                        // the version is not needed, only whether the driver accepted the linker
+                    }
+                } finally {
+                    in.close();
+                }
+                return process.waitFor() == 0;
+            } catch (IOException e) {
+                return false;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+    }
+}
@@ -0,0 +1,623 @@
+package hudson.plugins.cmake;
+
+import hudson.FilePath;
+import hudson.model.AbstractBuild;
+import hudson.model.Result;
+import hudson.remoting.VirtualChannel;
+import hudson.scm.ChangeLogSet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Selects the targets a build has to rebuild from the files the SCM reports
+ * as changed: the targets owning a changed source or including a changed
+ * header, and every target depending on them.
+ *
+ * <p>
+ * Sources are mapped through the {@link TargetGraph}; headers through the
+ * dependency information the build tool recorded in the build directory
+ * with the previous build (<tt>.ninja_deps</tt>, or the
+ * <tt>depend.make</tt> files of the Makefile generators). Whenever a change
+ * cannot be attributed safely the selection falls back to a full build.
+ *
+ * <p>
+ * The changes are those since the last successful or unstable build, so a
+ * change a failed or aborted build did not get through is built again.
+ */
+public final class AffectedTargets {
+
+    private static final String[] BUILD_SYSTEM_FILES = {
+        "CMakeLists.txt", "CMakePresets.json", "CMakeUserPresets.json"
+    };
+
+    private static final String[] BUILD_SYSTEM_EXTENSIONS = {
+        ".cmake", ".cmake.in"
+    };
+
+    /** Files that are not part of any build. */
+    private static final String[] DOCUMENTATION_EXTENSIONS = {
+        ".md", ".rst", ".adoc", ".txt"
+    };
+
+    /** Targets that have nothing to build themselves. */
+    private static final String INTERFACE_LIBRARY = "INTERFACE_LIBRARY";
+
+    private static final Pattern TARGET_DIR = Pattern.compile("(?:^|/)CMakeFiles/([^/]+)\\.dir/");
+
+    private AffectedTargets() {
+    }
+
+    /**
+     * The outcome of the selection.
+     */
+    public static final class Selection {
+        private final List<String> targets;
+        private final List<String> reasons;
+
+        private Selection(List<String> targets, List<String> reasons) {
+            this.targets = targets;
+            this.reasons = reasons;
+        }
+
+        static Selection full(String reason) {
+            return new Selection(null, Collections.singletonList("Full build: " + reason));
+        }
+
+        /**
+         * @return whether everything has to be built
+         */
+        public boolean isFullBuild() {
+            return targets == null;
+        }
+
+        /**
+         * @return the targets to build, empty if no target is affected, or
+         *         <tt>null</tt> for a full build
+         */
+        public List<String> getTargets() {
+            return targets;
+        }
+
+        /**
+         * @return why the targets were selected, one line each
+         */
+        public List<String> getReasons() {
+            return reasons;
+        }
+    }
+
+    /**
+     * Collects the changes of the build and of the builds before it back to
+     * the last successful or unstable one.
+     *
+     * @return the paths the SCM reports as changed, newest build first, or <tt>null</tt>
+     *         if there is no successful or unstable build before or the previous build has not completed
+     */
+    public static List<String> changedPaths(AbstractBuild<?, ?> build) {
+        final Set<String> paths = new LinkedHashSet<String>();
+        addChangedPaths(paths, build);
+        for (AbstractBuild<?, ?> previous = build.getPreviousBuild(); previous != null;
+                previous = previous.getPreviousBuild()) {
+            final Result result = previous.getResult();
+            if (previous.isBuilding() || result == null) {
+                return null;
+            }
+            if (result.isBetterOrEqualTo(Result.UNSTABLE)) {
+                return new ArrayList<String>(paths);
+            }
+            addChangedPaths(paths, previous);
+        }
+        return null;
+    }
+
+    private static void addChangedPaths(Set<String> paths, AbstractBuild<?, ?> build) {
+        ChangeLogSet<? extends ChangeLogSet.Entry> changes = build.getChangeSet();
+        if (changes != null) {
+            for (ChangeLogSet.Entry entry : changes) {
+                for (String path : entry.getAffectedPaths()) {
+                    // some SCMs report paths from the repository root with a leading slash
+                    String normalized = normalize(path);
+                    while (normalized.startsWith("/")) {
+                        normalized = normalized.substring(1);
+                    }
+                    if (normalized.length() > 0) {
+                        paths.add(normalized);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @param graph    the targets of the project
+     * @param changed  the changed paths, relative to the repository
+     * @param buildDir the build directory holding the dependencies of the previous build
+     */
+    public static Selection select(TargetGraph graph, Collection<String> changed, FilePath buildDir)
+            throws IOException, InterruptedException {
+        if (changed.isEmpty()) {
+            return Selection.full("no changes recorded by the SCM");
+        }
+        for (String path : changed) {
+            if (isBuildSystemFile(path)) {
+                return Selection.full(path + " is part of the build system");
+            }
+        }
+
+        // owners of changed sources and includers of changed headers, with the first reason found for each
+        Map<TargetGraph.Target, String> direct = new LinkedHashMap<TargetGraph.Target, String>();
+        Map<String, List<Source>> sources = indexSources(graph);
+        RemoteCallCounter.increment();
+        Map<String, TreeSet<String>> includers = buildDir.act(new DependencyScan(changed));
+        List<String> reasons = new ArrayList<String>();
+        for (String path : changed) {
+            boolean matched = false;
+            List<Source> candidates = sources.get(fileName(path));
+            if (candidates != null) {
+                for (Source source : candidates) {
+                    if (source.matches(path)) {
+                        matched = true;
+                        if (!direct.containsKey(source.target)) {
+                            direct.put(source.target, "compiles " + path);
+                        }
+                    }
+                }
+            }
+            TreeSet<String> names = includers.get(path);
+            if (names != null) {
+                for (String name : names) {
+                    TargetGraph.Target target = graph.getTarget(name);
+                    if (target == null) {
+                        return Selection.full(path + " is used by " + name + ", which is not a known target");
+                    }
+                    matched = true;
+                    if (!direct.containsKey(target)) {
+                        direct.put(target, "includes " + path);
+                    }
+                }
+            }
+            if (matched) {
+                continue;
+            }
+            if (isDocumentation(path)) {
+                reasons.add("Ignoring " + path + ", not part of the build");
+            } else {
+                return Selection.full(path + " does not belong to any target");
+            }
+        }
+
+        List<String> targets = new ArrayList<String>();
+        Set<String> selected = new HashSet<String>();
+        List<TargetGraph.Target> affected = graph.withDependents(direct.keySet());
+        for (TargetGraph.Target target : affected) {
+            selected.add(target.getName());
+        }
+        for (TargetGraph.Target target : affected) {
+            if (INTERFACE_LIBRARY.equals(target.getType())) {
+                continue;
+            }
+            String reason = direct.get(target);
+            if (reason == null) {
+                for (String dependency : target.getDependencies()) {
+                    if (selected.contains(dependency)) {
+                        reason = "links or depends on " + dependency;
+                        break;
+                    }
+                }
+            }
+            targets.add(target.getName());
+            reasons.add("Target " + target.getName() + ": " + reason);
+        }
+        if (targets.isEmpty()) {
+            reasons.add("No target is affected by the changes");
+        }
+        return new Selection(targets, reasons);
+    }
+
+    static boolean isBuildSystemFile(String path) {
+        String name = fileName(path);
+        for (String file : BUILD_SYSTEM_FILES) {
+            if (name.equals(file)) {
+                return true;
+            }
+        }
+        String lower = name.toLowerCase(Locale.ENGLISH);
+        for (String extension : BUILD_SYSTEM_EXTENSIONS) {
+            if (lower.endsWith(extension)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    static boolean isDocumentation(String path) {
+        String name = fileName(path);
+        if (name.startsWith(".git")) {
+            return true;
+        }
+        String lower = name.toLowerCase(Locale.ENGLISH);
+        for (String extension : DOCUMENTATION_EXTENSIONS) {
+            if (lower.endsWith(extension)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * A source of a target, relative to the source root unless it lies outside of it.
+     */
+    private static final class Source {
+        final TargetGraph.Target target;
+        final String path;
+
+        Source(TargetGraph.Target target, String path) {
+            this.target = target;
+            this.path = path;
+        }
+
+        /**
+         * Repository paths end with the source path when the repository
+         * root is at or above the source root.
+         */
+        boolean matches(String changed) {
+            if (isAbsolute(path)) {
+                return path.endsWith('/' + changed);
+            }
+            return changed.equals(path) || changed.endsWith('/' + path);
+        }
+    }
+
+    private static Map<String, List<Source>> indexSources(TargetGraph graph) {
+        String root = graph.getSourceRoot() == null ? null : normalize(graph.getSourceRoot()) + '/';
+        Map<String, List<Source>> index = new HashMap<String, List<Source>>();
+        for (TargetGraph.Target target : graph.getTargets()) {
+            for (String source : target.getSources()) {
+                String path = source.replace('\\', '/');
+                if (root != null && path.startsWith(root)) {
+                    path = path.substring(root.length());
+                }
+                String name = fileName(path);
+                List<Source> list = index.get(name);
+                if (list == null) {
+                    list = new ArrayList<Source>(1);
+                    index.put(name, list);
+                }
+                list.add(new Source(target, path));
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Finds the targets whose objects depend on the given files, from the
+     * dependencies the build tool recorded in the build directory.
+     */
+    static final class DependencyScan implements FilePath.FileCallable<Map<String, TreeSet<String>>> {
+        private static final long serialVersionUID = 1L;
+
+        private final List<String> paths;
+
+        DependencyScan(Collection<String> paths) {
+            this.paths = new ArrayList<String>(paths);
+        }
+
+        public Map<String, TreeSet<String>> invoke(File dir, VirtualChannel channel) throws IOException {
+            Matches matches = new Matches(dir, paths);
+            File ninjaDeps = new File(dir, ".ninja_deps");
+            if (ninjaDeps.isFile()) {
+                scanNinjaDeps(ninjaDeps, matches);
+            } else {
+                scanMakeDepends(dir, matches);
+            }
+            return matches.found;
+        }
+    }
+
+    /**
+     * Matches dependency paths, as written by the build tool, against the changed files.
+     */
+    private static final class Matches {
+        private final String base;
+        private final Map<String, List<String>> byName = new HashMap<String, List<String>>();
+        final HashMap<String, TreeSet<String>> found = new HashMap<String, TreeSet<String>>();
+
+        Matches(File dir, List<String> paths) {
+            this.base = normalize(dir.getAbsolutePath());
+            for (String path : paths) {
+                String name = fileName(path);
+                List<String> list = byName.get(name);
+                if (list == null) {
+                    list = new ArrayList<String>(1);
+                    byName.put(name, list);
+                }
+                list.add(path);
+            }
+        }
+
+        /**
+         * @return the changed paths the dependency is, or <tt>null</tt>
+         */
+        List<String> match(String dependency) {
+            String normalized = normalize(dependency);
+            List<String> candidates = byName.get(fileName(normalized));
+            if (candidates == null) {
+                return null;
+            }
+            String absolute = resolve(isAbsolute(normalized) ? normalized : base + '/' + normalized);
+            List<String> result = null;
+            for (String candidate : candidates) {
+                if (absolute.endsWith('/' + candidate)) {
+                    if (result == null) {
+                        result = new ArrayList<String>(1);
+                    }
+                    result.add(candidate);
+                }
+            }
+            return result;
+        }
+
+        void add(List<String> paths, String target) {
+            for (String path : paths) {
+                TreeSet<String> targets = found.get(path);
+                if (targets == null) {
+                    targets = new TreeSet<String>();
+                    found.put(path, targets);
+                }
+                targets.add(target);
+            }
+        }
+    }
+
+    /**
+     * @return the target building the given object file, or <tt>null</tt>
+     */
+    static String targetOfObject(String path) {
+        if (path.indexOf(".dir/") < 0) {
+            return null;
+        }
+        Matcher m = TARGET_DIR.matcher(path);
+        return m.find() ? m.group(1) : null;
+    }
+
+    /**
+     * Reads the binary dependency log of ninja, format versions 3 and 4:
+     * path records assign consecutive ids to paths, dependency records list
+     * the ids of the inputs of an output.
+     */
+    private static void scanNinjaDeps(File file, Matches matches) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            byte[] signature = new byte[12];
+            in.readFully(signature);
+            if (!new String(signature, "US-ASCII").equals("# ninjadeps\n")) {
+                throw new IOException("Not a ninja deps log: " + file);
+            }
+            int version = readInt(in);
+            if (version != 3 && version != 4) {
+                throw new IOException("Unsupported ninja deps log version " + version);
+            }
+            // per id: the target of an object output, and the changed files an input is
+            List<String> targets = new ArrayList<String>();
+            Map<Integer, List<String>> changed = new HashMap<Integer, List<String>>();
+            byte[] buffer = new byte[1024];
+            while (true) {
+                int header;
+                try {
+                    header = readInt(in);
+                } catch (EOFException e) {
+                    break;
+                }
+                boolean isPath = (header & 0x80000000) != 0;
+                int size = header & 0x7fffffff;
+                if (isPath) {
+                    if (size < 4) {
+                        break;
+                    }
+                    if (buffer.length < size) {
+                        buffer = new byte[size];
+                    }
+                    in.readFully(buffer, 0, size);
+                    int length = size - 4;
+                    while (length > 0 && buffer[length - 1] == 0) {
+                        length--;
+                    }
+                    String path = new String(buffer, 0, length, "UTF-8");
+                    List<String> paths = matches.match(path);
+                    if (paths != null) {
+                        changed.put(targets.size(), paths);
+                    }
+                    targets.add(targetOfObject(path));
+                } else {
+                    int output = readInt(in);
+                    int skip = version == 4 ? 8 : 4;
+                    in.readFully(buffer, 0, skip);
+                    String target = output >= 0 && output < targets.size() ? targets.get(output) : null;
+                    for (int remaining = size - 4 - skip; remaining >= 4; remaining -= 4) {
+                        List<String> paths = changed.get(readInt(in));
+                        if (paths != null && target != null) {
+                            matches.add(paths, target);
+                        }
+                    }
+                }
+            }
+        } catch (EOFException e) {
+            // a truncated last record, as ninja leaves it when interrupted
+        } finally {
+            in.close();
+        }
+    }
+
+    private static int readInt(InputStream in) throws IOException {
+        int b0 = in.read();
+        int b1 = in.read();
+        int b2 = in.read();
+        int b3 = in.read();
+        if ((b0 | b1 | b2 | b3) < 0) {
+            throw new EOFException();
+        }
+        return b0 | (b1 << 8) | (b2 << 16) | (b3 << 24);
+    }
+
+    /**
+     * Reads the <tt>depend.make</tt> and <tt>compiler_depend.make</tt> files
+     * the Makefile generators keep in each target directory.
+     */
+    private static void scanMakeDepends(File dir, Matches matches) throws IOException {
+        File[] children = dir.listFiles();
+        if (children == null) {
+            return;
+        }
+        for (File child : children) {
+            if (!child.isDirectory() || child.getName().startsWith(".")) {
+                continue;
+            }
+            if (child.getName().equals("CMakeFiles")) {
+                File[] targetDirs = child.listFiles();
+                if (targetDirs == null) {
+                    continue;
+                }
+                for (File targetDir : targetDirs) {
+                    String name = targetDir.getName();
+                    if (targetDir.isDirectory() && name.endsWith(".dir")) {
+                        String target = name.substring(0, name.length() - 4);
+                        scanMakeDepend(new File(targetDir, "compiler_depend.make"), target, matches);
+                        scanMakeDepend(new File(targetDir, "depend.make"), target, matches);
+                    }
+                }
+            } else {
+                scanMakeDepends(child, matches);
+            }
+        }
+    }
+
+    private static void scanMakeDepend(File file, String target, Matches matches) throws IOException {
+        if (!file.isFile()) {
+            return;
+        }
+        BufferedReader in = new BufferedReader(new FileReader(file));
+        try {
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.startsWith("#")) {
+                    continue;
+                }
+                for (String dependency : makeDependencies(line)) {
+                    List<String> paths = matches.match(dependency);
+                    if (paths != null) {
+                        matches.add(paths, target);
+                    }
+                }
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Splits a line of a make dependency file, <tt>object: dependency...</tt>
+     * or a continued list of dependencies, at the blanks that are not escaped.
+     *
+     * @return the dependencies on the line, without escapes
+     */
+    static List<String> makeDependencies(String line) {
+        List<String> dependencies = new ArrayList<String>();
+        int colon = line.indexOf(": ");
+        String list = colon >= 0 ? line.substring(colon + 2) : line;
+        if (colon < 0 && list.trim().endsWith(":")) {
+            // an empty rule for a header, as written by -MP
+            return dependencies;
+        }
+        StringBuilder dependency = new StringBuilder();
+        for (int i = 0; i < list.length(); i++) {
+            char c = list.charAt(i);
+            if (c == '\\' && i + 1 < list.length() && (list.charAt(i + 1) == ' ' || list.charAt(i + 1) == '#')) {
+                dependency.append(list.charAt(++i));
+            } else if (c == '$' && i + 1 < list.length() && list.charAt(i + 1) == '$') {
+                dependency.append(c);
+                i++;
+            } else if (c == ' ' || c == '\t' || (c == '\\' && i == list.length() - 1)) {
+                if (dependency.length() > 0) {
+                    dependencies.add(dependency.toString());
+                    dependency.setLength(0);
+                }
+            } else {
+                dependency.append(c);
+            }
+        }
+        if (dependency.length() > 0) {
+            dependencies.add(dependency.toString());
+        }
+        return dependencies;
+    }
+
+    /**
+     * @return the path with forward slashes and without a leading <tt>./</tt>
+     */
+    static String normalize(String path) {
+        String normalized = path.replace('\\', '/');
+        while (normalized.startsWith("./")) {
+            normalized = normalized.substring(2);
+        }
+        if (normalized.endsWith("/") && normalized.length() > 1) {
+            normalized = normalized.substring(0, normalized.length() - 1);
+        }
+        return normalized;
+    }
+
+    private static boolean isAbsolute(String path) {
+        return path.startsWith("/") || (path.length() > 2 && path.charAt(1) == ':' && path.charAt(2) == '/');
+    }
+
+    /**
+     * Removes <tt>.</tt> and <tt>..</tt> segments without touching the file system.
+     */
+    private static String resolve(String path) {
+        if (path.indexOf("/.") < 0) {
+            return path;
+        }
+        List<String> segments = new ArrayList<String>();
+        for (String segment : path.split("/")) {
+            if (segment.equals("..")) {
+                if (!segments.isEmpty()) {
+                    segments.remove(segments.size() - 1);
+                }
+            } else if (!segment.equals(".")) {
+                segments.add(segment);
+            }
+        }
+        StringBuilder result = new StringBuilder();
+        for (String segment : segments) {
+            if (segment.length() > 0) {
+                result.append('/').append(segment);
+            }
+        }
+        return result.toString();
+    }
+
+    private static String fileName(String path) {
+        return path.substring(path.lastIndexOf('/') + 1);
+    }
+}
@@ -0,0 +1,477 @@
+package hudson.plugins.cmake;
+
+import hudson.model.Hudson;
+import hudson.model.Label;
+import hudson.model.Project;
+import hudson.model.Queue;
+import hudson.tasks.Builder;
+
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counters and histograms of the cmake build steps run on this controller
+ * since it started, by phase, job, node and generator, and the gauges of
+ * the steps executing on each node and of the projects with a cmake build
+ * step waiting in the queue.
+ *
+ * <p>
+ * Recording only updates atomic counters of a series looked up in a
+ * concurrent map. The number of series is bounded: each label takes at
+ * most a fixed number of distinct values, later ones are counted as
+ * {@link #OTHER}, and once {@link #MAX_SERIES} series exist new
+ * combinations go to a series with job and node {@link #OTHER}. The
+ * queue is read when the metrics are, grouped by the label the items are
+ * assigned to, of which there are at most {@link #MAX_QUEUE_LABELS}.
+ */
+@ExportedBean
+public final class BuildMetrics {
+
+    static final String OTHER = "(other)";
+
+    static final int MAX_JOBS = 500;
+    static final int MAX_NODES = 200;
+    static final int MAX_GENERATORS = 20;
+    static final int MAX_QUEUE_LABELS = 200;
+    static final int MAX_SERIES = 5000;
+
+    /** Upper bounds of the duration buckets, in milliseconds. */
+    static final long[] BUCKETS = {100, 500, 1000, 5000, 10000, 30000, 60000, 300000, 600000, 1800000, 3600000};
+
+    /** Phase recorded for the preparation of the paths of a step that wipes a directory. */
+    public static final String WIPE = "wipe";
+
+    private static final BuildMetrics INSTANCE = new BuildMetrics();
+
+    private final ConcurrentMap<Key, Series> series = new ConcurrentHashMap<Key, Series>();
+    private final ConcurrentMap<String, AtomicInteger> executingSteps = new ConcurrentHashMap<String, AtomicInteger>();
+    private final Labels jobs = new Labels(MAX_JOBS);
+    private final Labels nodes = new Labels(MAX_NODES);
+    private final Labels generators = new Labels(MAX_GENERATORS);
+    private final Labels queueLabels = new Labels(MAX_QUEUE_LABELS);
+    private final AtomicLong steps = new AtomicLong();
+
+    BuildMetrics() {
+    }
+
+    public static BuildMetrics get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Counts a step as executing on the node until {@link #stepEnded}.
+     */
+    public void stepStarted(String node) {
+        steps.incrementAndGet();
+        executing(node).incrementAndGet();
+    }
+
+    public void stepEnded(String node) {
+        executing(node).decrementAndGet();
+    }
+
+    private AtomicInteger executing(String node) {
+        final String label = nodes.label(node);
+        AtomicInteger count = executingSteps.get(label);
+        if (count == null) {
+            final AtomicInteger created = new AtomicInteger();
+            count = executingSteps.putIfAbsent(label, created);
+            if (count == null) {
+                count = created;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Records the phases of a step.
+     */
+    public void record(String job, String node, String generator, List<PhaseTiming> phases) {
+        final String jobLabel = jobs.label(job);
+        final String nodeLabel = nodes.label(node);
+        final String generatorLabel = generators.label(generator);
+        for (PhaseTiming timing : phases) {
+            series(new Key(timing.getPhase(), jobLabel, nodeLabel, generatorLabel)).record(timing);
+        }
+    }
+
+    private Series series(Key key) {
+        Series existing = series.get(key);
+        if (existing != null) {
+            return existing;
+        }
+        if (series.size() >= MAX_SERIES) {
+            key = new Key(key.phase, OTHER, OTHER, key.generator);
+            existing = series.get(key);
+            if (existing != null) {
+                return existing;
+            }
+        }
+        final Series created = new Series(key);
+        existing = series.putIfAbsent(key, created);
+        return existing != null ? existing : created;
+    }
+
+    @Exported
+    public long getSteps() {
+        return steps.get();
+    }
+
+    @Exported
+    public List<Series> getSeries() {
+        final List<Series> list = new ArrayList<Series>(series.values());
+        Collections.sort(list, new Comparator<Series>() {
+            public int compare(Series a, Series b) {
+                return a.key.compareTo(b.key);
+            }
+        });
+        return list;
+    }
+
+    /**
+     * @return the steps that started on each node and did not end yet
+     */
+    @Exported
+    public List<NodeSteps> getExecutingSteps() {
+        final List<NodeSteps> list = new ArrayList<NodeSteps>();
+        for (Map.Entry<String, AtomicInteger> entry : executingSteps.entrySet()) {
+            list.add(new NodeSteps(entry.getKey(), entry.getValue().get()));
+        }
+        return list;
+    }
+
+    /**
+     * @return the projects with a cmake build step waiting in the queue now,
+     *         by the label they are assigned to
+     */
+    @Exported
+    public List<QueuedItems> getQueuedItems() {
+        final Hudson hudson = Hudson.getInstance();
+        if (hudson == null) {
+            return Collections.emptyList();
+        }
+        return queuedItems(hudson.getQueue().getItems(), System.currentTimeMillis());
+    }
+
+    List<QueuedItems> queuedItems(Queue.Item[] items, long now) {
+        final Map<String, QueuedItems> byLabel = new TreeMap<String, QueuedItems>();
+        for (Queue.Item item : items) {
+            if (!hasCmakeStep(item.task)) {
+                continue;
+            }
+            final Label assigned = item.task.getAssignedLabel();
+            final String label = queueLabels.label(assigned != null ? assigned.getName() : null);
+            QueuedItems queued = byLabel.get(label);
+            if (queued == null) {
+                queued = new QueuedItems(label);
+                byLabel.put(label, queued);
+            }
+            queued.add(Math.max(0, now - item.getInQueueSince()));
+        }
+        return new ArrayList<QueuedItems>(byLabel.values());
+    }
+
+    private static boolean hasCmakeStep(Queue.Task task) {
+        if (task instanceof Project) {
+            for (Builder builder : ((Project<?, ?>) task).getBuilders()) {
+                if (builder instanceof CmakeBuilder) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Writes the metrics in the Prometheus text exposition format.
+     */
+    public void writePrometheus(PrintWriter out) {
+        final List<Series> all = getSeries();
+        out.println("# HELP cmakebuilder_steps_total Cmake build steps started.");
+        out.println("# TYPE cmakebuilder_steps_total counter");
+        out.println("cmakebuilder_steps_total " + steps.get());
+
+        out.println("# HELP cmakebuilder_executing_steps Cmake build steps executing, by node.");
+        out.println("# TYPE cmakebuilder_executing_steps gauge");
+        for (NodeSteps node : getExecutingSteps()) {
+            out.println("cmakebuilder_executing_steps{node=\"" + escape(node.getNode()) + "\"} " + node.getSteps());
+        }
+
+        final List<QueuedItems> queued = getQueuedItems();
+        out.println("# HELP cmakebuilder_queued_items Queued projects with a cmake build step, by label.");
+        out.println("# TYPE cmakebuilder_queued_items gauge");
+        for (QueuedItems q : queued) {
+            out.println("cmakebuilder_queued_items{label=\"" + escape(q.getLabel()) + "\"} " + q.getItems());
+        }
+        out.println("# HELP cmakebuilder_queued_wait_seconds_max Longest wait so far of the queued items, by label.");
+        out.println("# TYPE cmakebuilder_queued_wait_seconds_max gauge");
+        for (QueuedItems q : queued) {
+            out.println("cmakebuilder_queued_wait_seconds_max{label=\"" + escape(q.getLabel()) + "\"} "
+                    + seconds(q.getLongestWaitMillis()));
+        }
+        out.println("# HELP cmakebuilder_queued_wait_seconds_sum Summed wait so far of the queued items, by label.");
+        out.println("# TYPE cmakebuilder_queued_wait_seconds_sum gauge");
+        for (QueuedItems q : queued) {
+            out.println("cmakebuilder_queued_wait_seconds_sum{label=\"" + escape(q.getLabel()) + "\"} "
+                    + seconds(q.getTotalWaitMillis()));
+        }
+
+        out.println("# HELP cmakebuilder_phase_duration_seconds Duration of the phases of cmake build steps.");
+        out.println("# TYPE cmakebuilder_phase_duration_seconds histogram");
+        for (Series s : all) {
+            final String labels = s.key.labels();
+            long cumulative = 0;
+            for (int i = 0; i < BUCKETS.length; i++) {
+                cumulative += s.buckets.get(i);
+                out.println("cmakebuilder_phase_duration_seconds_bucket{" + labels + ",le=\"" + seconds(BUCKETS[i])
+                        + "\"} " + cumulative);
+            }
+            out.println("cmakebuilder_phase_duration_seconds_bucket{" + labels + ",le=\"+Inf\"} " + s.count.get());
+            out.println("cmakebuilder_phase_duration_seconds_sum{" + labels + "} " + seconds(s.millis.get()));
+            out.println("cmakebuilder_phase_duration_seconds_count{" + labels + "} " + s.count.get());
+        }
+
+        out.println("# HELP cmakebuilder_phase_failures_total Phases of cmake build steps that failed.");
+        out.println("# TYPE cmakebuilder_phase_failures_total counter");
+        for (Series s : all) {
+            out.println("cmakebuilder_phase_failures_total{" + s.key.labels() + "} " + s.failures.get());
+        }
+
+        out.println("# HELP cmakebuilder_phase_skipped_total Phases of cmake build steps skipped as up to date.");
+        out.println("# TYPE cmakebuilder_phase_skipped_total counter");
+        for (Series s : all) {
+            out.println("cmakebuilder_phase_skipped_total{" + s.key.labels() + "} " + s.skipped.get());
+        }
+    }
+
+    private static String seconds(long millis) {
+        return millis % 1000 == 0 ? Long.toString(millis / 1000)
+                : Long.toString(millis / 1000) + "." + String.format(Locale.ENGLISH, "%03d", millis % 1000);
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    /**
+     * The values a label took so far, up to a limit.
+     */
+    private static final class Labels {
+        private final int max;
+        private final ConcurrentMap<String, Boolean> values = new ConcurrentHashMap<String, Boolean>();
+
+        Labels(int max) {
+            this.max = max;
+        }
+
+        String label(String value) {
+            if (value == null || value.length() == 0) {
+                value = "-";
+            }
+            if (values.containsKey(value)) {
+                return value;
+            }
+            if (values.size() >= max) {
+                return OTHER;
+            }
+            values.putIfAbsent(value, Boolean.TRUE);
+            return value;
+        }
+    }
+
+    private static final class Key implements Comparable<Key> {
+        final String phase;
+        final String job;
+        final String node;
+        final String generator;
+
+        Key(String phase, String job, String node, String generator) {
+            this.phase = phase;
+            this.job = job;
+            this.node = node;
+            this.generator = generator;
+        }
+
+        String labels() {
+            return "phase=\"" + escape(phase) + "\",job=\"" + escape(job) + "\",node=\"" + escape(node)
+                    + "\",generator=\"" + escape(generator) + "\"";
+        }
+
+        public int compareTo(Key other) {
+            int c = job.compareTo(other.job);
+            if (c == 0) {
+                c = node.compareTo(other.node);
+            }
+            if (c == 0) {
+                c = generator.compareTo(other.generator);
+            }
+            return c != 0 ? c : phase.compareTo(other.phase);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return phase.equals(other.phase) && job.equals(other.job) && node.equals(other.node)
+                    && generator.equals(other.generator);
+        }
+
+        @Override
+        public int hashCode() {
+            return ((phase.hashCode() * 31 + job.hashCode()) * 31 + node.hashCode()) * 31 + generator.hashCode();
+        }
+    }
+
+    /**
+     * The counters of one phase of the steps of a job on a node with a generator.
+     */
+    @ExportedBean(defaultVisibility = 2)
+    public static final class Series {
+        private final Key key;
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong millis = new AtomicLong();
+        private final AtomicLong failures = new AtomicLong();
+        private final AtomicLong skipped = new AtomicLong();
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS.length);
+
+        Series(Key key) {
+            this.key = key;
+        }
+
+        void record(PhaseTiming timing) {
+            final long duration = timing.getDurationMillis();
+            for (int i = 0; i < BUCKETS.length; i++) {
+                if (duration <= BUCKETS[i]) {
+                    buckets.incrementAndGet(i);
+                    break;
+                }
+            }
+            millis.addAndGet(duration);
+            if (!timing.isSuccess()) {
+                failures.incrementAndGet();
+            }
+            if (timing.isSkipped()) {
+                skipped.incrementAndGet();
+            }
+            count.incrementAndGet();
+        }
+
+        @Exported
+        public String getPhase() {
+            return key.phase;
+        }
+
+        @Exported
+        public String getJob() {
+            return key.job;
+        }
+
+        @Exported
+        public String getNode() {
+            return key.node;
+        }
+
+        @Exported
+        public String getGenerator() {
+            return key.generator;
+        }
+
+        @Exported
+        public long getCount() {
+            return count.get();
+        }
+
+        @Exported
+        public long getTotalMillis() {
+            return millis.get();
+        }
+
+        @Exported
+        public long getFailures() {
+            return failures.get();
+        }
+
+        @Exported
+        public long getSkipped() {
+            return skipped.get();
+        }
+    }
+
+    @ExportedBean(defaultVisibility = 2)
+    public static final class NodeSteps {
+        private final String node;
+        private final int steps;
+
+        NodeSteps(String node, int steps) {
+            this.node = node;
+            this.steps = steps;
+        }
+
+        @Exported
+        public String getNode() {
+            return node;
+        }
+
+        @Exported
+        public int getSteps() {
+            return steps;
+        }
+    }
+
+    /**
+     * The items waiting in the queue for one label.
+     */
+    @ExportedBean(defaultVisibility = 2)
+    public static final class QueuedItems {
+        private final String label;
+        private int items;
+        private long longestWait;
+        private long totalWait;
+
+        QueuedItems(String label) {
+            this.label = label;
+        }
+
+        void add(long waitMillis) {
+            items++;
+            longestWait = Math.max(longestWait, waitMillis);
+            totalWait += waitMillis;
+        }
+
+        @Exported
+        public String getLabel() {
+            return label;
+        }
+
+        @Exported
+        public int getItems() {
+            return items;
+        }
+
+        @Exported
+        public long getLongestWaitMillis() {
+            return longestWait;
+        }
+
+        @Exported
+        public long getTotalWaitMillis() {
+            return totalWait;
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package hudson.plugins.cmake;
+
+import hudson.EnvVars;
+import hudson.Launcher;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.UUID;
+
+/**
+ * Marks the processes of a build step with a variable in their
+ * environment, so all of them can be killed when the build is aborted:
+ * the compilers and linkers make or ninja started as well as processes
+ * that left the tree of the launched process. Killing the launched
+ * process alone leaves them running, holding the node's processors and
+ * memory until they finish.
+ */
+public final class BuildProcesses {
+
+    static final String MARKER = "CMAKEBUILDER_PROCESSES";
+
+    private BuildProcesses() {
+    }
+
+    /**
+     * @return a new mark for the processes of a build step
+     */
+    public static String newMark() {
+        return UUID.randomUUID().toString();
+    }
+
+    /**
+     * Marks the processes launched with the given environment from now on.
+     */
+    public static void mark(EnvVars envs, String mark) {
+        envs.put(MARKER, mark);
+    }
+
+    /**
+     * Kills the processes with the given mark on the node, together with
+     * their descendants.
+     */
+    public static void kill(Launcher launcher, String mark) throws IOException, InterruptedException {
+        RemoteCallCounter.increment();
+        launcher.kill(Collections.singletonMap(MARKER, mark));
+    }
+}
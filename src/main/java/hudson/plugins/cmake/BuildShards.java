@@ -0,0 +1,168 @@
+package hudson.plugins.cmake;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Splits the targets of a build into shards of about the same cost, so
+ * several executors can each build one shard of the same configured
+ * project. The split only depends on the {@link TargetGraph}, so all
+ * executors configuring the same sources agree on it without sharing
+ * state.
+ *
+ * <p>
+ * The targets split are those no other target depends on; a shard builds
+ * them with everything they need. The cost of a target is its number of
+ * sources plus one for linking. Targets are placed from the most to the
+ * least expensive, each in the shard it adds the least to, counting the
+ * dependencies a shard already builds only once.
+ */
+public final class BuildShards {
+
+    /** Targets that have nothing to build themselves. */
+    private static final String INTERFACE_LIBRARY = "INTERFACE_LIBRARY";
+
+    private BuildShards() {
+    }
+
+    /**
+     * One shard of the plan.
+     */
+    public static final class Shard {
+        private final List<String> targets = new ArrayList<String>();
+        private final Set<String> built = new HashSet<String>();
+        private long cost;
+
+        /**
+         * @return the targets to build, sorted by name
+         */
+        public List<String> getTargets() {
+            return targets;
+        }
+
+        /**
+         * @return the cost of the targets and their dependencies
+         */
+        public long getCost() {
+            return cost;
+        }
+
+        long added(Set<String> closure, Map<String, TargetGraph.Target> byName) {
+            long added = 0;
+            for (String name : closure) {
+                if (!built.contains(name)) {
+                    added += cost(byName.get(name));
+                }
+            }
+            return added;
+        }
+
+        void add(String target, Set<String> closure, Map<String, TargetGraph.Target> byName) {
+            cost += added(closure, byName);
+            built.addAll(closure);
+            targets.add(target);
+        }
+    }
+
+    /**
+     * Splits the given targets into <tt>count</tt> shards.
+     *
+     * @param roots the targets to split, or an empty collection for all targets no other target depends on
+     */
+    public static List<Shard> plan(TargetGraph graph, Collection<String> roots, int count) {
+        final Map<String, TargetGraph.Target> byName = new HashMap<String, TargetGraph.Target>();
+        for (TargetGraph.Target target : graph.getTargets()) {
+            byName.put(target.getName(), target);
+        }
+        final List<String> candidates = new ArrayList<String>(roots.isEmpty() ? roots(graph) : roots);
+        final Map<String, Set<String>> closures = new HashMap<String, Set<String>>();
+        final Map<String, Long> costs = new HashMap<String, Long>();
+        for (String root : candidates) {
+            final Set<String> closure = closure(root, byName);
+            long cost = 0;
+            for (String name : closure) {
+                cost += cost(byName.get(name));
+            }
+            closures.put(root, closure);
+            costs.put(root, cost);
+        }
+        Collections.sort(candidates, new Comparator<String>() {
+            public int compare(String a, String b) {
+                int c = costs.get(b).compareTo(costs.get(a));
+                return c != 0 ? c : a.compareTo(b);
+            }
+        });
+
+        final List<Shard> shards = new ArrayList<Shard>(count);
+        for (int i = 0; i < count; i++) {
+            shards.add(new Shard());
+        }
+        for (String root : candidates) {
+            final Set<String> closure = closures.get(root);
+            Shard best = null;
+            long bestLoad = Long.MAX_VALUE;
+            for (Shard shard : shards) {
+                final long load = shard.cost + shard.added(closure, byName);
+                if (load < bestLoad) {
+                    best = shard;
+                    bestLoad = load;
+                }
+            }
+            best.add(root, closure, byName);
+        }
+        for (Shard shard : shards) {
+            Collections.sort(shard.targets);
+        }
+        return shards;
+    }
+
+    /**
+     * @return the targets no other target depends on, sorted by name
+     */
+    static List<String> roots(TargetGraph graph) {
+        final Set<String> dependencies = new HashSet<String>();
+        for (TargetGraph.Target target : graph.getTargets()) {
+            dependencies.addAll(target.getDependencies());
+        }
+        final List<String> roots = new ArrayList<String>();
+        for (TargetGraph.Target target : graph.getTargets()) {
+            if (!dependencies.contains(target.getName()) && !INTERFACE_LIBRARY.equals(target.getType())) {
+                roots.add(target.getName());
+            }
+        }
+        Collections.sort(roots);
+        return roots;
+    }
+
+    /**
+     * @return the target and everything it depends on, directly or indirectly
+     */
+    private static Set<String> closure(String root, Map<String, TargetGraph.Target> byName) {
+        final Set<String> closure = new LinkedHashSet<String>();
+        final List<String> pending = new ArrayList<String>();
+        pending.add(root);
+        while (!pending.isEmpty()) {
+            final String name = pending.remove(pending.size() - 1);
+            final TargetGraph.Target target = byName.get(name);
+            if (target != null && closure.add(name)) {
+                pending.addAll(target.getDependencies());
+            }
+        }
+        return closure;
+    }
+
+    private static long cost(TargetGraph.Target target) {
+        if (target == null || INTERFACE_LIBRARY.equals(target.getType())) {
+            return 0;
+        }
+        return target.getSources().size() + 1;
+    }
+}
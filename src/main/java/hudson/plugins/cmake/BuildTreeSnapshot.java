@@ -0,0 +1,508 @@
+package hudson.plugins.cmake;
+
+import hudson.FilePath;
+import hudson.remoting.VirtualChannel;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Serializable;
+import java.io.Writer;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Saves a build tree to a {@link SnapshotStore} and restores it into an
+ * empty build directory, so a fresh node does not have to build from scratch.
+ *
+ * <p>
+ * Archives are gzipped tar files written and extracted by {@link FilePath}
+ * on the node owning the build directory, streamed to and from the store. Each snapshot also records
+ * the size and hash of the source files it was built from. After a restore
+ * the build outputs are stamped newer than the unchanged sources and older
+ * than the changed ones, so make and Ninja rebuild exactly what changed
+ * even when the snapshot comes from another revision.
+ */
+public final class BuildTreeSnapshot {
+
+    /** File in the archive holding the source files the snapshot was built from. */
+    static final String SOURCES_ENTRY = ".cmakebuilder-sources";
+
+    private static final Set<String> IGNORED_SOURCE_DIRS = new HashSet<String>(Arrays.asList(
+            ".git", ".svn", ".hg", ".bzr", "CVS", TrashReaper.TRASH_DIR));
+
+    private static final int BUFFER = 64 * 1024;
+
+    private BuildTreeSnapshot() {
+    }
+
+    /**
+     * Outcome of saving or restoring a snapshot.
+     */
+    public static final class Result implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final boolean done;
+        private final boolean exact;
+        private final String message;
+
+        Result(boolean done, boolean exact, String message) {
+            this.done = done;
+            this.exact = exact;
+            this.message = message;
+        }
+
+        /**
+         * @return whether a snapshot was saved or restored
+         */
+        public boolean isDone() {
+            return done;
+        }
+
+        /**
+         * @return whether the restored snapshot was made from the same source revision
+         */
+        public boolean isExact() {
+            return exact;
+        }
+
+        @Override
+        public String toString() {
+            return message;
+        }
+    }
+
+    /**
+     * Restores the best snapshot for <tt>key</tt> into <tt>buildDir</tt>,
+     * unless it already holds a build tree.
+     *
+     * @param sourceDir the source directory on the node
+     */
+    public static Result restore(FilePath buildDir, String sourceDir, SnapshotStore store, SnapshotKey key)
+            throws IOException, InterruptedException {
+        RemoteCallCounter.increment();
+        return buildDir.act(new Restore(sourceDir, store, key));
+    }
+
+    /**
+     * Saves <tt>buildDir</tt> as the snapshot for <tt>key</tt>, unless the
+     * store already holds one.
+     *
+     * @param sourceDir the source directory on the node
+     */
+    public static Result save(FilePath buildDir, String sourceDir, SnapshotStore store, SnapshotKey key)
+            throws IOException, InterruptedException {
+        RemoteCallCounter.increment();
+        return buildDir.act(new Save(sourceDir, store, key));
+    }
+
+    private static String platform() {
+        return System.getProperty("os.name") + "/" + System.getProperty("os.arch");
+    }
+
+    private static final class Save implements FilePath.FileCallable<Result> {
+        private static final long serialVersionUID = 1L;
+
+        private final String sourceDir;
+        private final SnapshotStore store;
+        private final SnapshotKey key;
+
+        Save(String sourceDir, SnapshotStore store, SnapshotKey key) {
+            this.sourceDir = sourceDir;
+            this.store = store;
+            this.key = key;
+        }
+
+        public Result invoke(File dir, VirtualChannel channel) throws IOException, InterruptedException {
+            // walking, hashing and compressing the tree costs far more than asking the store
+            if (store.contains(key, platform())) {
+                return new Result(false, true, "snapshot for " + key + " is up to date");
+            }
+            final File manifest = new File(dir, SOURCES_ENTRY);
+            writeManifest(new File(sourceDir), dir, manifest);
+            SnapshotStore.Upload upload = store.create(key, platform());
+            boolean committed = false;
+            try {
+                OutputStream out = FilePath.TarCompression.GZIP.compress(upload.getStream());
+                int files = new FilePath(dir).tar(out, "**/*") - 1;
+                out.close();
+                upload.commit();
+                committed = true;
+                return new Result(true, false, "saved " + files + " files for " + key);
+            } finally {
+                manifest.delete();
+                if (!committed) {
+                    upload.abort();
+                }
+            }
+        }
+    }
+
+    private static final class Restore implements FilePath.FileCallable<Result> {
+        private static final long serialVersionUID = 1L;
+
+        private final String sourceDir;
+        private final SnapshotStore store;
+        private final SnapshotKey key;
+
+        Restore(String sourceDir, SnapshotStore store, SnapshotKey key) {
+            this.sourceDir = sourceDir;
+            this.store = store;
+            this.key = key;
+        }
+
+        public Result invoke(File dir, VirtualChannel channel) throws IOException, InterruptedException {
+            if (new File(dir, "CMakeCache.txt").isFile()) {
+                return new Result(false, false, "build tree exists");
+            }
+            SnapshotStore.Snapshot snapshot = store.find(key, platform());
+            if (snapshot == null) {
+                return new Result(false, false, "no snapshot for " + key);
+            }
+            InputStream in = snapshot.open();
+            try {
+                new FilePath(dir).untarFrom(new BufferedInputStream(in, BUFFER), FilePath.TarCompression.GZIP);
+            } catch (IOException e) {
+                // a partial tree would be worse than none
+                clear(dir);
+                throw e;
+            } finally {
+                in.close();
+            }
+            File manifestFile = new File(dir, SOURCES_ENTRY);
+            Map<String, String> manifest = readManifest(manifestFile);
+            manifestFile.delete();
+            int changed = stamp(dir, new File(sourceDir), manifest);
+            return new Result(true, snapshot.isExact(), "restored "
+                    + (snapshot.isExact() ? "snapshot of the same revision" : "compatible snapshot")
+                    + " " + snapshot.getName() + ", " + changed + " source files changed since");
+        }
+    }
+
+    /**
+     * Stamps the restored build tree newer than the unchanged sources and
+     * older than the changed ones, without any time stamp in the future.
+     *
+     * @return the number of changed source files
+     */
+    static int stamp(File buildDir, File sourceDir, Map<String, String> manifest) throws IOException {
+        final long now = System.currentTimeMillis() / 1000 * 1000;
+        final long unchangedSources = now - 4000;
+        final long outputs = now - 2000;
+        for (String name : walk(buildDir, null)) {
+            new File(buildDir, name).setLastModified(outputs);
+        }
+        NinjaState.restamp(buildDir, outputs);
+        int changed = 0;
+        for (String name : walk(sourceDir, buildDir)) {
+            File file = new File(sourceDir, name);
+            if (file.isDirectory()) {
+                continue;
+            }
+            String recorded = manifest.get(name);
+            if (recorded != null && recorded.equals(describe(file, recorded))) {
+                file.setLastModified(unchangedSources);
+            } else {
+                file.setLastModified(now);
+                changed++;
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Writes size and hash of every source file, one <tt>size hash path</tt> line each.
+     */
+    private static void writeManifest(File sourceDir, File buildDir, File manifest) throws IOException {
+        Writer w = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(manifest), "UTF-8"));
+        try {
+            for (String name : walk(sourceDir, buildDir)) {
+                File file = new File(sourceDir, name);
+                if (!file.isDirectory()) {
+                    w.write(describe(file, null));
+                    w.write(' ');
+                    w.write(name);
+                    w.write('\n');
+                }
+            }
+        } finally {
+            w.close();
+        }
+    }
+
+    /**
+     * @return the recorded <tt>size hash</tt> by source path, empty if the snapshot has no manifest
+     */
+    private static Map<String, String> readManifest(File manifestFile) throws IOException {
+        Map<String, String> manifest = new HashMap<String, String>();
+        if (!manifestFile.isFile()) {
+            return manifest;
+        }
+        BufferedReader r = new BufferedReader(new InputStreamReader(new FileInputStream(manifestFile), "UTF-8"));
+        try {
+            String line;
+            while ((line = r.readLine()) != null) {
+                int second = line.indexOf(' ', line.indexOf(' ') + 1);
+                if (second > 0) {
+                    manifest.put(line.substring(second + 1), line.substring(0, second));
+                }
+            }
+        } finally {
+            r.close();
+        }
+        return manifest;
+    }
+
+    /**
+     * @param recorded the recorded description to compare with; the file is
+     *                 only hashed if its size matches
+     * @return <tt>size hash</tt> of the file
+     */
+    private static String describe(File file, String recorded) throws IOException {
+        String size = Long.toString(file.length());
+        if (recorded != null && !recorded.startsWith(size + " ")) {
+            return size;
+        }
+        MessageDigest md = ConfigureFingerprint.sha1();
+        ConfigureFingerprint.digestFile(md, file);
+        return size + " " + ConfigureFingerprint.toHex(md.digest());
+    }
+
+    /**
+     * Lists the files and directories below <tt>root</tt> as relative paths
+     * with <tt>/</tt> separators, parents before their children, without
+     * following symbolic links to directories.
+     *
+     * @param exclude a directory to leave out, or <tt>null</tt>
+     */
+    static List<String> walk(File root, File exclude) throws IOException {
+        final File excluded = exclude != null ? exclude.getCanonicalFile() : null;
+        List<String> result = new ArrayList<String>();
+        List<String> pending = new ArrayList<String>();
+        pending.add("");
+        while (!pending.isEmpty()) {
+            String prefix = pending.remove(pending.size() - 1);
+            File dir = prefix.length() == 0 ? root : new File(root, prefix);
+            String[] children = dir.list();
+            if (children == null) {
+                continue;
+            }
+            Arrays.sort(children);
+            for (String child : children) {
+                String name = prefix + child;
+                File file = new File(dir, child);
+                if (file.isDirectory()) {
+                    if (IGNORED_SOURCE_DIRS.contains(child) || TrashReaper.isSymlink(file)
+                            || file.getCanonicalFile().equals(excluded)) {
+                        continue;
+                    }
+                    result.add(name);
+                    pending.add(name + "/");
+                } else if (file.isFile()) {
+                    result.add(name);
+                }
+            }
+        }
+        return result;
+    }
+
+    private static void clear(File dir) {
+        try {
+            TrashReaper.deleteRecursive(dir, false);
+            mkdirs(dir);
+        } catch (IOException e) {
+            // the next configure fails loudly enough
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void mkdirs(File dir) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Unable to create " + dir);
+        }
+    }
+
+    /**
+     * Ninja records the time stamps of outputs in <tt>.ninja_log</tt> and
+     * <tt>.ninja_deps</tt> and rebuilds when they are older than the inputs,
+     * so both have to be stamped like the restored files.
+     */
+    static final class NinjaState {
+        private static final String DEPS_SIGNATURE = "# ninjadeps\n";
+
+        private NinjaState() {
+        }
+
+        static void restamp(File buildDir, long millis) throws IOException {
+            File log = new File(buildDir, ".ninja_log");
+            if (log.isFile()) {
+                restampLog(log, millis);
+            }
+            File deps = new File(buildDir, ".ninja_deps");
+            if (deps.isFile()) {
+                restampDeps(deps, millis);
+            }
+        }
+
+        /**
+         * Converts to the unit Ninja uses for time stamps, told by a time
+         * stamp it recorded: seconds in old versions, nanoseconds in newer ones.
+         */
+        static long toNinjaTime(long millis, long sample) {
+            if (sample >= 100000000000000000L) {
+                return millis * 1000000L;
+            } else if (sample >= 100000000000000L) {
+                return millis * 1000L;
+            } else if (sample >= 100000000000L) {
+                return millis;
+            }
+            return millis / 1000;
+        }
+
+        private static void restampLog(File log, long millis) throws IOException {
+            File temp = new File(log.getPath() + ".tmp");
+            BufferedReader r = new BufferedReader(new InputStreamReader(new FileInputStream(log), "UTF-8"), BUFFER);
+            Writer w = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(temp), "UTF-8"), BUFFER);
+            try {
+                String line;
+                while ((line = r.readLine()) != null) {
+                    String[] fields = line.startsWith("#") ? null : line.split("\t", -1);
+                    if (fields != null && fields.length >= 4) {
+                        try {
+                            long recorded = Long.parseLong(fields[2]);
+                            if (recorded != 0) {
+                                fields[2] = Long.toString(toNinjaTime(millis, recorded));
+                            }
+                        } catch (NumberFormatException e) {
+                            // left as is
+                        }
+                        line = join(fields);
+                    }
+                    w.write(line);
+                    w.write('\n');
+                }
+            } finally {
+                r.close();
+                w.close();
+            }
+            replace(temp, log);
+        }
+
+        /**
+         * Rewrites the output time stamp of every dependency record of a
+         * version 3 or 4 deps log.
+         */
+        private static void restampDeps(File deps, long millis) throws IOException {
+            File temp = new File(deps.getPath() + ".tmp");
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(deps), BUFFER));
+            OutputStream out = new BufferedOutputStream(new FileOutputStream(temp), BUFFER);
+            boolean rewritten = false;
+            try {
+                byte[] signature = new byte[DEPS_SIGNATURE.length()];
+                in.readFully(signature);
+                if (!new String(signature, "US-ASCII").equals(DEPS_SIGNATURE)) {
+                    return;
+                }
+                byte[] versionBytes = new byte[4];
+                in.readFully(versionBytes);
+                int version = (int) littleEndian(versionBytes, 0, 4);
+                if (version != 3 && version != 4) {
+                    return;
+                }
+                out.write(signature);
+                out.write(versionBytes);
+                byte[] header = new byte[4];
+                byte[] record = new byte[0];
+                while (true) {
+                    try {
+                        in.readFully(header);
+                    } catch (EOFException e) {
+                        break;
+                    }
+                    long size = littleEndian(header, 0, 4);
+                    boolean isPath = (size & 0x80000000L) != 0;
+                    int length = (int) (size & 0x7fffffffL);
+                    if (record.length < length) {
+                        record = new byte[length];
+                    }
+                    in.readFully(record, 0, length);
+                    if (!isPath) {
+                        if (version == 4 && length >= 12) {
+                            long recorded = littleEndian(record, 4, 8);
+                            if (recorded != 0) {
+                                putLittleEndian(record, 4, 8, toNinjaTime(millis, recorded));
+                            }
+                        } else if (version == 3 && length >= 8) {
+                            putLittleEndian(record, 4, 4, millis / 1000);
+                        }
+                    }
+                    out.write(header);
+                    out.write(record, 0, length);
+                }
+                rewritten = true;
+            } finally {
+                in.close();
+                out.close();
+                if (!rewritten) {
+                    temp.delete();
+                }
+            }
+            replace(temp, deps);
+        }
+
+        private static long littleEndian(byte[] data, int offset, int length) {
+            long value = 0;
+            for (int i = length - 1; i >= 0; i--) {
+                value = (value << 8) | (data[offset + i] & 0xff);
+            }
+            return value;
+        }
+
+        private static void putLittleEndian(byte[] data, int offset, int length, long value) {
+            for (int i = 0; i < length; i++) {
+                data[offset + i] = (byte) (value >>> (8 * i));
+            }
+        }
+
+        private static String join(String[] fields) {
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < fields.length; i++) {
+                if (i > 0) {
+                    sb.append('\t');
+                }
+                sb.append(fields[i]);
+            }
+            return sb.toString();
+        }
+
+        private static void replace(File temp, File target) throws IOException {
+            if (!temp.isFile()) {
+                return;
+            }
+            if (!temp.renameTo(target)) {
+                target.delete();
+                if (!temp.renameTo(target)) {
+                    throw new IOException("Unable to replace " + target);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package hudson.plugins.cmake;
+
+import hudson.model.AbstractBuild;
+import hudson.model.Action;
+import hudson.model.Api;
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * CTest results of the cmake build steps of one build. Persisted with the
+ * build, the durations are fed back to CTest by later builds so the longest
+ * tests start first. Available at <tt>.../cmakeTests/api/json</tt>.
+ */
+@ExportedBean
+public class CTestAction implements Action {
+
+    /** Number of earlier builds whose durations are used for scheduling. */
+    private static final int HISTORY_BUILDS = 10;
+
+    private static final int SLOWEST_TESTS = 20;
+
+    private final List<CTestResult> results = new ArrayList<CTestResult>();
+
+    /**
+     * Adds the results of a build step to the action of the given build,
+     * attaching a new one if needed.
+     */
+    public static void add(AbstractBuild<?, ?> build, List<CTestResult> results) {
+        synchronized (build) {
+            CTestAction action = build.getAction(CTestAction.class);
+            if (action == null) {
+                action = new CTestAction();
+                build.addAction(action);
+            }
+            action.addAll(results);
+        }
+    }
+
+    private synchronized void addAll(List<CTestResult> results) {
+        this.results.addAll(results);
+    }
+
+    @Exported
+    public synchronized List<CTestResult> getResults() {
+        return Collections.unmodifiableList(new ArrayList<CTestResult>(results));
+    }
+
+    @Exported
+    public synchronized int getTotal() {
+        return results.size();
+    }
+
+    @Exported
+    public synchronized int getFailed() {
+        return count(CTestResult.FAILED);
+    }
+
+    @Exported
+    public synchronized int getNotRun() {
+        return count(CTestResult.NOT_RUN);
+    }
+
+    @Exported
+    public synchronized int getPassed() {
+        return count(CTestResult.PASSED);
+    }
+
+    private int count(String status) {
+        int count = 0;
+        for (CTestResult result : results) {
+            if (result.getStatus().equals(status)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return the sum of all test durations in seconds
+     */
+    @Exported
+    public synchronized double getSeconds() {
+        double seconds = 0;
+        for (CTestResult result : results) {
+            seconds += result.getSeconds();
+        }
+        return seconds;
+    }
+
+    public synchronized List<CTestResult> getFailedTests() {
+        List<CTestResult> failed = new ArrayList<CTestResult>();
+        for (CTestResult result : results) {
+            if (result.isFailed()) {
+                failed.add(result);
+            }
+        }
+        return failed;
+    }
+
+    public synchronized List<CTestResult> getSlowestTests() {
+        List<CTestResult> sorted = new ArrayList<CTestResult>(results);
+        Collections.sort(sorted, new Comparator<CTestResult>() {
+            public int compare(CTestResult a, CTestResult b) {
+                return Double.compare(b.getSeconds(), a.getSeconds());
+            }
+        });
+        return sorted.subList(0, Math.min(SLOWEST_TESTS, sorted.size()));
+    }
+
+    /**
+     * Collects the test durations of the builds before the given one, the
+     * most recent duration of each test, and the tests that failed in the
+     * most recent build that ran tests.
+     */
+    public static CTestCostData history(AbstractBuild<?, ?> build) {
+        Map<String, Double> durations = new LinkedHashMap<String, Double>();
+        List<String> failed = null;
+        AbstractBuild<?, ?> previous = build.getPreviousBuild();
+        for (int i = 0; previous != null && i < HISTORY_BUILDS; i++, previous = previous.getPreviousBuild()) {
+            CTestAction action = previous.getAction(CTestAction.class);
+            if (action == null) {
+                continue;
+            }
+            for (CTestResult result : action.getResults()) {
+                if (result.isRun() && !durations.containsKey(result.getName())) {
+                    durations.put(result.getName(), result.getSeconds());
+                }
+            }
+            if (failed == null) {
+                failed = new ArrayList<String>();
+                for (CTestResult result : action.getFailedTests()) {
+                    failed.add(result.getName());
+                }
+            }
+        }
+        return new CTestCostData(durations, failed != null ? failed : Collections.<String>emptyList());
+    }
+
+    public Api getApi() {
+        return new Api(this);
+    }
+
+    public String getIconFileName() {
+        return "clipboard.gif";
+    }
+
+    public String getDisplayName() {
+        return "CTest Results";
+    }
+
+    public String getUrlName() {
+        return "cmakeTests";
+    }
+}
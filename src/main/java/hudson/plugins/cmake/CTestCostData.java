@@ -0,0 +1,66 @@
+package hudson.plugins.cmake;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Serializable;
+import java.io.Writer;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Test durations of earlier builds in the form CTest reads from
+ * <tt>Testing/Temporary/CTestCostData.txt</tt>: CTest starts the tests
+ * that failed last time first, then the others from the longest to the
+ * shortest, which shortens parallel test runs.
+ */
+public final class CTestCostData implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    static final String FILE = "Testing/Temporary/CTestCostData.txt";
+
+    private final Map<String, Double> durations;
+    private final List<String> failed;
+
+    public CTestCostData(Map<String, Double> durations, List<String> failed) {
+        this.durations = durations;
+        this.failed = failed;
+    }
+
+    public boolean isEmpty() {
+        return durations.isEmpty() && failed.isEmpty();
+    }
+
+    public int size() {
+        return durations.size();
+    }
+
+    /**
+     * Writes the cost data file into the given build directory.
+     */
+    void write(File buildDir) throws IOException {
+        File file = new File(buildDir, FILE);
+        File dir = file.getParentFile();
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Unable to create " + dir);
+        }
+        Writer out = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            // "<test> <number of runs> <average seconds>", the file cannot hold names with spaces
+            for (Map.Entry<String, Double> entry : durations.entrySet()) {
+                if (entry.getKey().indexOf(' ') < 0) {
+                    out.write(entry.getKey() + " 1 " + String.format(Locale.ENGLISH, "%.4f", entry.getValue()) + "\n");
+                }
+            }
+            out.write("---\n");
+            for (String name : failed) {
+                out.write(name + "\n");
+            }
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package hudson.plugins.cmake;
+
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+import java.io.Serializable;
+
+/**
+ * Outcome and duration of one CTest test.
+ */
+@ExportedBean(defaultVisibility = 2)
+public final class CTestResult implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    public static final String PASSED = "passed";
+    public static final String FAILED = "failed";
+    public static final String NOT_RUN = "notrun";
+
+    private final String name;
+    private final String status;
+    private final double seconds;
+
+    public CTestResult(String name, String status, double seconds) {
+        this.name = name;
+        this.status = status;
+        this.seconds = seconds;
+    }
+
+    @Exported
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return {@link #PASSED}, {@link #FAILED} or {@link #NOT_RUN}
+     */
+    @Exported
+    public String getStatus() {
+        return status;
+    }
+
+    @Exported
+    public double getSeconds() {
+        return seconds;
+    }
+
+    public boolean isFailed() {
+        return FAILED.equals(status);
+    }
+
+    public boolean isRun() {
+        return !NOT_RUN.equals(status);
+    }
+
+    @Override
+    public String toString() {
+        return name + " " + status + " " + seconds + "s";
+    }
+}
@@ -0,0 +1,257 @@
+package hudson.plugins.cmake;
+
+import hudson.FilePath;
+import hudson.remoting.VirtualChannel;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Prepares the build directory for a <tt>ctest -T Test</tt> run and
+ * collects its results afterwards, converting the <tt>Test.xml</tt> CTest
+ * writes into a JUnit report any test report publisher can read.
+ */
+public final class CTestRunner {
+
+    /** Name of the JUnit report, written into the build directory. */
+    public static final String JUNIT_REPORT = "ctest-junit.xml";
+
+    /** Output kept per failed test in the JUnit report. */
+    private static final int MAX_OUTPUT_CHARS = 64 * 1024;
+
+    private CTestRunner() {
+    }
+
+    /**
+     * Writes the cost data of earlier builds and removes the tag of the last
+     * run, so CTest schedules by the given durations and starts a new tag.
+     */
+    public static void prepare(FilePath buildDir, CTestCostData costData) throws IOException, InterruptedException {
+        RemoteCallCounter.increment();
+        buildDir.act(new Prepare(costData));
+    }
+
+    private static final class Prepare implements FilePath.FileCallable<Void> {
+        private static final long serialVersionUID = 1L;
+
+        private final CTestCostData costData;
+
+        Prepare(CTestCostData costData) {
+            this.costData = costData;
+        }
+
+        public Void invoke(File dir, VirtualChannel channel) throws IOException {
+            File tag = new File(dir, "Testing/TAG");
+            if (tag.exists() && !tag.delete()) {
+                throw new IOException("Unable to delete " + tag);
+            }
+            if (!costData.isEmpty()) {
+                costData.write(dir);
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Reads the results of the last run and writes them as a JUnit report
+     * to {@link #JUNIT_REPORT} in the build directory.
+     *
+     * @return the results, empty if CTest did not write any
+     */
+    public static List<CTestResult> collect(FilePath buildDir) throws IOException, InterruptedException {
+        RemoteCallCounter.increment();
+        return buildDir.act(new Collect());
+    }
+
+    private static final class Collect implements FilePath.FileCallable<ArrayList<CTestResult>> {
+        private static final long serialVersionUID = 1L;
+
+        public ArrayList<CTestResult> invoke(File dir, VirtualChannel channel) throws IOException {
+            File testXml = testXml(dir);
+            if (testXml == null) {
+                return new ArrayList<CTestResult>();
+            }
+            Writer junit = new OutputStreamWriter(new FileOutputStream(new File(dir, JUNIT_REPORT)), "UTF-8");
+            try {
+                return convert(testXml, junit);
+            } finally {
+                junit.close();
+            }
+        }
+    }
+
+    /**
+     * @return the <tt>Test.xml</tt> of the tag named in <tt>Testing/TAG</tt>, or <tt>null</tt>
+     */
+    static File testXml(File buildDir) throws IOException {
+        File tagFile = new File(buildDir, "Testing/TAG");
+        if (!tagFile.isFile()) {
+            return null;
+        }
+        BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(tagFile), "UTF-8"));
+        String tag;
+        try {
+            tag = in.readLine();
+        } finally {
+            in.close();
+        }
+        if (tag == null || tag.trim().length() == 0) {
+            return null;
+        }
+        File file = new File(buildDir, "Testing/" + tag.trim() + "/Test.xml");
+        return file.isFile() ? file : null;
+    }
+
+    /**
+     * Streams the tests of a CTest <tt>Test.xml</tt> into a JUnit report.
+     */
+    static ArrayList<CTestResult> convert(File testXml, Writer junit) throws IOException {
+        TestXmlHandler handler = new TestXmlHandler(junit);
+        junit.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<testsuite name=\"ctest\">\n");
+        try {
+            SAXParserFactory factory = SAXParserFactory.newInstance();
+            factory.setNamespaceAware(false);
+            factory.setValidating(false);
+            factory.newSAXParser().parse(testXml, handler);
+        } catch (SAXException e) {
+            if (e.getException() instanceof IOException) {
+                throw (IOException) e.getException();
+            }
+            throw new IOException("Cannot parse " + testXml + ": " + e.getMessage());
+        } catch (ParserConfigurationException e) {
+            throw new IOException(e.getMessage());
+        }
+        junit.write("</testsuite>\n");
+        return handler.results;
+    }
+
+    private static final class TestXmlHandler extends DefaultHandler {
+        final ArrayList<CTestResult> results = new ArrayList<CTestResult>();
+        private final Writer junit;
+        private final StringBuilder text = new StringBuilder();
+        private boolean inTest;
+        private boolean capture;
+        private String status;
+        private String name;
+        private String measurement;
+        private double seconds;
+        private String output;
+
+        TestXmlHandler(Writer junit) {
+            this.junit = junit;
+        }
+
+        @Override
+        public void startElement(String uri, String localName, String qName, Attributes attributes) {
+            if (qName.equals("Test") && attributes.getValue("Status") != null) {
+                inTest = true;
+                status = attributes.getValue("Status");
+                name = null;
+                seconds = 0;
+                output = null;
+            } else if (inTest && qName.equals("NamedMeasurement")) {
+                measurement = attributes.getValue("name");
+            } else if (inTest && qName.equals("Measurement")) {
+                measurement = null;
+            }
+            if (inTest && (qName.equals("Name") || qName.equals("Value"))) {
+                text.setLength(0);
+                capture = true;
+            }
+        }
+
+        @Override
+        public void characters(char[] ch, int start, int length) {
+            if (capture && text.length() < MAX_OUTPUT_CHARS) {
+                text.append(ch, start, Math.min(length, MAX_OUTPUT_CHARS - text.length()));
+            }
+        }
+
+        @Override
+        public void endElement(String uri, String localName, String qName) throws SAXException {
+            if (!inTest) {
+                return;
+            }
+            if (qName.equals("Name") && name == null) {
+                name = text.toString().trim();
+            } else if (qName.equals("Value")) {
+                if ("Execution Time".equals(measurement)) {
+                    try {
+                        seconds = Double.parseDouble(text.toString().trim());
+                    } catch (NumberFormatException e) {
+                        seconds = 0;
+                    }
+                } else if (measurement == null) {
+                    output = text.toString();
+                }
+            } else if (qName.equals("Test")) {
+                inTest = false;
+                CTestResult result = new CTestResult(name != null ? name : "", statusOf(status), seconds);
+                results.add(result);
+                try {
+                    writeTestCase(junit, result, output);
+                } catch (IOException e) {
+                    throw new SAXException(e);
+                }
+            }
+            capture = false;
+        }
+    }
+
+    private static String statusOf(String ctestStatus) {
+        String lower = ctestStatus.toLowerCase(Locale.ENGLISH);
+        if (lower.equals(CTestResult.PASSED) || lower.equals(CTestResult.FAILED)) {
+            return lower;
+        }
+        return CTestResult.NOT_RUN;
+    }
+
+    private static void writeTestCase(Writer junit, CTestResult result, String output) throws IOException {
+        junit.write("  <testcase classname=\"ctest\" name=\"" + escape(result.getName())
+                + "\" time=\"" + String.format(Locale.ENGLISH, "%.3f", result.getSeconds()) + "\"");
+        if (result.isFailed()) {
+            junit.write(">\n    <failure message=\"Failed\">");
+            junit.write(escape(output != null ? output : ""));
+            junit.write("</failure>\n  </testcase>\n");
+        } else if (!result.isRun()) {
+            junit.write(">\n    <skipped/>\n  </testcase>\n");
+        } else {
+            junit.write("/>\n");
+        }
+    }
+
+    /**
+     * Escapes XML markup and drops characters XML cannot hold.
+     */
+    static String escape(String text) {
+        StringBuilder escaped = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            switch (c) {
+            case '<': escaped.append("&lt;"); break;
+            case '>': escaped.append("&gt;"); break;
+            case '&': escaped.append("&amp;"); break;
+            case '"': escaped.append("&quot;"); break;
+            default:
+                if (c >= 0x20 || c == '\n' || c == '\r' || c == '\t') {
+                    escaped.append(c);
+                }
+            }
+        }
+        return escaped.toString();
+    }
+}
@@ -0,0 +1,372 @@
+package hudson.plugins.cmake;
+
+import hudson.FilePath;
+import hudson.remoting.VirtualChannel;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Serializable;
+import java.io.Writer;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Seeds the cache of a fresh build tree with the results of the checks an
+ * earlier configure on the same node ran: <tt>HAVE_*</tt> and other
+ * <tt>check_*</tt> results, the compilers and the paths <tt>find_*</tt> and
+ * <tt>find_package</tt> found. The <tt>check_*</tt> commands skip a check
+ * whose result variable is already defined, so a configure from scratch
+ * runs far fewer test compilations.
+ *
+ * <p>
+ * The seeds are kept per toolchain on the node, keyed by the cmake version,
+ * generator, source dir, arguments, compiler variables and preload script.
+ * A seed is dropped when one of the compilers it names changed on disk;
+ * paths it holds that no longer exist are left out, so cmake looks for them
+ * again.
+ * They are passed to cmake as a generated <tt>-C</tt> script, which
+ * includes the job's own preload script first so its settings win.
+ */
+public final class CacheSeed {
+
+    static final String SEED_DIR = "cmakebuilder-seeds";
+    static final String SCRIPT = ".cmakebuilder-seed.cmake";
+    private static final String CMAKE_CACHE = "CMakeCache.txt";
+    private static final String COMPILER = "#compiler\t";
+
+    /** <tt>NAME:TYPE=VALUE</tt> of <tt>CMakeCache.txt</tt>. */
+    private static final Pattern ENTRY = Pattern.compile("^([A-Za-z0-9_.+-]+):([A-Z]+)=(.*)$");
+    private static final Pattern CHECK_RESULT = Pattern.compile("^(HAVE_.*|.*_(COMPILES|RUNS|EXITCODE))$");
+    private static final Pattern COMPILER_ENTRY = Pattern.compile("^CMAKE_[A-Z]+_COMPILER$");
+    /** The <tt>set</tt> line of an entry of the seed, see {@link #entry}. */
+    private static final Pattern SEED_ENTRY =
+            Pattern.compile("^  set\\(\\S+ \"((?:[^\"\\\\]|\\\\.)*)\" CACHE (PATH|FILEPATH) \"\"\\)$");
+
+    private CacheSeed() {
+    }
+
+    /**
+     * Outcome of looking for a seed for a build tree.
+     */
+    public static final class Prepared implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final String script;
+        private final int entries;
+        private final int stale;
+        private final String reason;
+
+        Prepared(String script, int entries, int stale, String reason) {
+            this.script = script;
+            this.entries = entries;
+            this.stale = stale;
+            this.reason = reason;
+        }
+
+        /**
+         * @return the generated preload script, or <tt>null</tt> if there is no seed to use
+         */
+        public String getScript() {
+            return script;
+        }
+
+        public int getEntries() {
+            return entries;
+        }
+
+        /**
+         * @return the number of paths left out because they no longer exist
+         */
+        public int getStale() {
+            return stale;
+        }
+
+        /**
+         * @return why there is no seed to use, or <tt>null</tt>
+         */
+        public String getReason() {
+            return reason;
+        }
+    }
+
+    /**
+     * Writes the generated preload script into a build tree that has no
+     * cache yet, if there is a valid seed for it.
+     *
+     * @param seedDir       the directory on the node the seeds are kept in
+     * @param key           the toolchain inputs, see {@link #key}
+     * @param preloadScript the job's preload script, or empty
+     */
+    public static Prepared prepare(FilePath buildDir, FilePath seedDir, List<String> key, String preloadScript)
+            throws IOException, InterruptedException {
+        RemoteCallCounter.increment();
+        return buildDir.act(new Prepare(seedDir.getRemote(), key, preloadScript));
+    }
+
+    /**
+     * Extracts the seed from the cache of a successful configure.
+     *
+     * @return the number of entries saved
+     */
+    public static int save(FilePath buildDir, FilePath seedDir, List<String> key, String preloadScript)
+            throws IOException, InterruptedException {
+        RemoteCallCounter.increment();
+        return buildDir.act(new Save(seedDir.getRemote(), key, preloadScript));
+    }
+
+    private static final class Prepare implements FilePath.FileCallable<Prepared> {
+        private static final long serialVersionUID = 1L;
+
+        private final String seedDir;
+        private final List<String> key;
+        private final String preloadScript;
+
+        Prepare(String seedDir, List<String> key, String preloadScript) {
+            this.seedDir = seedDir;
+            this.key = key;
+            this.preloadScript = preloadScript;
+        }
+
+        public Prepared invoke(File buildDir, VirtualChannel channel) throws IOException {
+            File script = new File(buildDir, SCRIPT);
+            if (new File(buildDir, CMAKE_CACHE).exists()) {
+                script.delete();
+                return new Prepared(null, 0, 0, "build tree has a cache");
+            }
+            File seed = new File(seedDir, key(buildDir, key, preloadScript) + ".cmake");
+            if (!seed.isFile()) {
+                return new Prepared(null, 0, 0, "no seed for this toolchain yet");
+            }
+            List<String> lines = readLines(seed);
+            for (String line : lines) {
+                if (line.startsWith(COMPILER)) {
+                    String[] fields = line.substring(COMPILER.length()).split("\t");
+                    File compiler = new File(fields[0]);
+                    if (fields.length != 3 || compiler.length() != Long.parseLong(fields[1])
+                            || compiler.lastModified() != Long.parseLong(fields[2])) {
+                        seed.delete();
+                        return new Prepared(null, 0, 0, "compiler " + fields[0] + " changed");
+                    }
+                }
+            }
+            if (!buildDir.isDirectory() && !buildDir.mkdirs()) {
+                throw new IOException("Unable to create " + buildDir);
+            }
+            int entries = 0;
+            int stale = 0;
+            Writer out = new OutputStreamWriter(new FileOutputStream(script), "UTF-8");
+            try {
+                out.write("# Generated by the cmake builder from the cache of an earlier configure\n");
+                if (preloadScript != null && preloadScript.trim().length() > 0) {
+                    out.write("include(\"" + escape(resolve(buildDir, preloadScript.trim()).getPath()) + "\")\n");
+                }
+                for (int i = 0; i < lines.size(); i++) {
+                    final String line = lines.get(i);
+                    if (line.startsWith("#")) {
+                        continue;
+                    }
+                    if (line.startsWith("if(")) {
+                        if (i + 1 < lines.size() && isStalePath(lines.get(i + 1))) {
+                            // skip the if, set and endif lines
+                            i += 2;
+                            stale++;
+                            continue;
+                        }
+                        entries++;
+                    }
+                    out.write(line);
+                    out.write('\n');
+                }
+            } finally {
+                out.close();
+            }
+            return new Prepared(script.getPath(), entries, stale, null);
+        }
+    }
+
+    private static final class Save implements FilePath.FileCallable<Integer> {
+        private static final long serialVersionUID = 1L;
+
+        private final String seedDir;
+        private final List<String> key;
+        private final String preloadScript;
+
+        Save(String seedDir, List<String> key, String preloadScript) {
+            this.seedDir = seedDir;
+            this.key = key;
+            this.preloadScript = preloadScript;
+        }
+
+        public Integer invoke(File buildDir, VirtualChannel channel) throws IOException {
+            File cache = new File(buildDir, CMAKE_CACHE);
+            if (!cache.isFile()) {
+                return 0;
+            }
+            File dir = new File(seedDir);
+            if (!dir.isDirectory() && !dir.mkdirs()) {
+                throw new IOException("Unable to create " + dir);
+            }
+            List<String> seed = extract(readLines(cache), buildDir);
+            File file = new File(dir, key(buildDir, key, preloadScript) + ".cmake");
+            File tmp = new File(dir, file.getName() + ".tmp");
+            Writer out = new OutputStreamWriter(new FileOutputStream(tmp), "UTF-8");
+            try {
+                for (String line : seed) {
+                    out.write(line);
+                    out.write('\n');
+                }
+            } finally {
+                out.close();
+            }
+            if (!tmp.renameTo(file)) {
+                file.delete();
+                if (!tmp.renameTo(file)) {
+                    tmp.delete();
+                    throw new IOException("Unable to write " + file);
+                }
+            }
+            int entries = 0;
+            for (String line : seed) {
+                if (line.startsWith("if(")) {
+                    entries++;
+                }
+            }
+            return entries;
+        }
+    }
+
+    /**
+     * @return the seed lines of a cache: a <tt>#compiler</tt> line with size
+     *         and time stamp of each compiler, then the entries to set
+     */
+    static List<String> extract(List<String> cache, File buildDir) {
+        final String buildPath = buildDir.getAbsolutePath();
+        final List<String> compilers = new ArrayList<String>();
+        final List<String> entries = new ArrayList<String>();
+        for (String line : cache) {
+            Matcher m = ENTRY.matcher(line);
+            if (!m.matches()) {
+                continue;
+            }
+            final String name = m.group(1);
+            final String type = m.group(2);
+            final String value = m.group(3);
+            if (type.equals("INTERNAL")) {
+                if (!name.startsWith("CMAKE_") && CHECK_RESULT.matcher(name).matches()) {
+                    entries.add(entry(name, type, value));
+                }
+            } else if (type.equals("FILEPATH") || type.equals("PATH")) {
+                if (!isFoundPath(name, value, buildPath)) {
+                    continue;
+                }
+                entries.add(entry(name, type, value));
+                File file = new File(value);
+                if (COMPILER_ENTRY.matcher(name).matches() && file.isFile()) {
+                    compilers.add(COMPILER + value + "\t" + file.length() + "\t" + file.lastModified());
+                }
+            }
+        }
+        compilers.addAll(entries);
+        return compilers;
+    }
+
+    /**
+     * @return whether a path entry is something cmake found on the node,
+     *         rather than a setting of the job or a place in the build tree
+     */
+    private static boolean isFoundPath(String name, String value, String buildPath) {
+        if (name.equals("CMAKE_INSTALL_PREFIX") || name.endsWith("_BINARY_DIR") || name.endsWith("_SOURCE_DIR")
+                || value.endsWith("-NOTFOUND") || value.length() == 0) {
+            return false;
+        }
+        File file = new File(value);
+        return file.isAbsolute() && file.exists() && !file.getAbsolutePath().startsWith(buildPath);
+    }
+
+    /**
+     * @return whether the line sets a path entry to a file or directory that no longer exists
+     */
+    static boolean isStalePath(String line) {
+        final Matcher m = SEED_ENTRY.matcher(line);
+        return m.matches() && !new File(unescape(m.group(1))).exists();
+    }
+
+    static String entry(String name, String type, String value) {
+        return "if(NOT DEFINED " + name + ")\n  set(" + name + " \"" + escape(value) + "\" CACHE " + type
+                + " \"\")\nendif()";
+    }
+
+    /**
+     * Escapes a value for a quoted argument of a cmake script.
+     */
+    static String escape(String value) {
+        StringBuilder sb = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\' || c == '"' || c == '$') {
+                sb.append('\\');
+            }
+            sb.append(c);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @return the name of the seed of a toolchain, including the contents of the preload script
+     */
+    private static String key(File buildDir, List<String> key, String preloadScript) throws IOException {
+        MessageDigest md = ConfigureFingerprint.sha1();
+        for (String part : key) {
+            ConfigureFingerprint.update(md, "key", part);
+        }
+        if (preloadScript != null && preloadScript.trim().length() > 0) {
+            File script = resolve(buildDir, preloadScript.trim());
+            if (script.isFile()) {
+                ConfigureFingerprint.digestFile(md, script);
+            }
+        }
+        return ConfigureFingerprint.toHex(md.digest());
+    }
+
+    /**
+     * Reverses {@link #escape(String)}.
+     */
+    static String unescape(String value) {
+        StringBuilder sb = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\' && i + 1 < value.length()) {
+                c = value.charAt(++i);
+            }
+            sb.append(c);
+        }
+        return sb.toString();
+    }
+
+    private static File resolve(File buildDir, String path) {
+        File file = new File(path);
+        return file.isAbsolute() ? file : new File(buildDir, path);
+    }
+
+    private static List<String> readLines(File file) throws IOException {
+        List<String> lines = new ArrayList<String>();
+        BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+        try {
+            String line;
+            while ((line = in.readLine()) != null) {
+                lines.add(line);
+            }
+        } finally {
+            in.close();
+        }
+        return lines;
+    }
+}
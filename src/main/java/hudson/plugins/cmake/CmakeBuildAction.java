@@ -0,0 +1,122 @@
+package hudson.plugins.cmake;
+
+import hudson.model.AbstractBuild;
+import hudson.model.Action;
+import hudson.model.Api;
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Phase timings of the cmake build steps of one build. Persisted with the
+ * build and available through the remote API at <tt>.../cmake/api/json</tt>.
+ */
+@ExportedBean
+public class CmakeBuildAction implements Action {
+
+    public static final String PATH_PREPARATION = "prepare";
+    public static final String CMAKE_CHECK = "check";
+    public static final String SNAPSHOT_RESTORE = "restore";
+    public static final String CONFIGURE = "configure";
+    public static final String BUILD = "build";
+    public static final String TEST = "test";
+    public static final String INSTALL = "install";
+    public static final String INSTALL_SYNC = "sync";
+    public static final String SNAPSHOT_SAVE = "snapshot";
+    /** From the interruption of an aborted build step until it returns. */
+    public static final String ABORT = "abort";
+
+    private final List<PhaseTiming> phases = new ArrayList<PhaseTiming>();
+    private int remoteCalls;
+    private String acceleration;
+
+    /**
+     * Returns the action of the given build, attaching a new one if needed.
+     * All cmake build steps of a build share one action.
+     */
+    public static CmakeBuildAction of(AbstractBuild<?, ?> build) {
+        synchronized (build) {
+            CmakeBuildAction action = build.getAction(CmakeBuildAction.class);
+            if (action == null) {
+                action = new CmakeBuildAction();
+                build.addAction(action);
+            }
+            return action;
+        }
+    }
+
+    public synchronized void add(PhaseTiming timing) {
+        phases.add(timing);
+    }
+
+    @Exported
+    public synchronized List<PhaseTiming> getPhases() {
+        return Collections.unmodifiableList(new ArrayList<PhaseTiming>(phases));
+    }
+
+    /**
+     * @return the total time spent in the given phase across all steps, in milliseconds
+     */
+    public synchronized long getDurationMillis(String phase) {
+        long total = 0;
+        for (PhaseTiming timing : phases) {
+            if (timing.getPhase().equals(phase)) {
+                total += timing.getDurationMillis();
+            }
+        }
+        return total;
+    }
+
+    public synchronized void addRemoteCalls(int calls) {
+        remoteCalls += calls;
+    }
+
+    /**
+     * @return the number of remoting calls and process launches the cmake
+     *         build steps made to the node
+     */
+    @Exported
+    public synchronized int getRemoteCalls() {
+        return remoteCalls;
+    }
+
+    public synchronized void setAcceleration(String acceleration) {
+        this.acceleration = acceleration;
+    }
+
+    /**
+     * @return the acceleration profile the build was configured with, or <tt>null</tt>
+     */
+    @Exported
+    public synchronized String getAcceleration() {
+        return acceleration;
+    }
+
+    @Exported
+    public synchronized long getTotalMillis() {
+        long total = 0;
+        for (PhaseTiming timing : phases) {
+            total += timing.getDurationMillis();
+        }
+        return total;
+    }
+
+    public Api getApi() {
+        return new Api(this);
+    }
+
+    public String getIconFileName() {
+        return "clock.gif";
+    }
+
+    public String getDisplayName() {
+        return "CMake Phases";
+    }
+
+    public String getUrlName() {
+        return "cmake";
+    }
+}
@@ -8,6 +8,7 @@ import hudson.matrix.MatrixProject;
 import hudson.model.*;
 import hudson.tasks.BuildStepDescriptor;
 import hudson.tasks.Builder;
+import hudson.util.ComboBoxModel;
 import hudson.util.FormValidation;
 import net.sf.json.JSONObject;
 import org.kohsuke.stapler.AncestorInPath;
@@ -19,6 +20,8 @@ import javax.servlet.ServletException;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -33,6 +36,15 @@ public class CmakeBuilder extends Builder {
 	private static final String CMAKE_EXECUTABLE = "CMAKE_EXECUTABLE";
 
 	private static final String CMAKE = "cmake";
+
+	private static final int COMPILE_TIME_TOP_N = 20;
+
+	private static final String DESTDIR = "DESTDIR";
+
+	/** Environment variables the SCM plugins put the checked out revision in. */
+	private static final String[] SOURCE_REVISION_VARIABLES = {
+		"GIT_COMMIT", "SVN_REVISION", "MERCURIAL_REVISION", "BZR_REVISION"
+	};
 	
 	final private String sourceDir;
     final private String buildDir;
@@ -47,6 +59,24 @@ public class CmakeBuilder extends Builder {
     final private String projectCmakePath;
     final private boolean cleanBuild;
     final private boolean cleanInstallDir;
+    final private boolean autoParallel;
+    final private String memoryPerJob;
+    final private boolean useCmakeBuild;
+    final private boolean compileTimeReport;
+    final private boolean shareNodeJobs;
+    final private String compilerCache;
+    final private boolean buildSnapshots;
+    final private boolean affectedOnly;
+    final private boolean runTests;
+    final private String ctestArgs;
+    final private String testShard;
+    final private boolean parallelConfigs;
+    final private boolean incrementalInstall;
+    final private boolean scanDiagnostics;
+    final private boolean resourceUsage;
+    final private boolean seedCache;
+    final private String accelerationProfile;
+    final private String buildShard;
 
     private CmakeBuilderImpl builderImpl;
 
@@ -63,7 +93,25 @@ public class CmakeBuilder extends Builder {
     		String installCommand,
     		String preloadScript,
     		String cmakeArgs, 
-    		String projectCmakePath) {
+    		String projectCmakePath,
+    		boolean autoParallel,
+    		String memoryPerJob,
+    		boolean useCmakeBuild,
+    		boolean compileTimeReport,
+    		boolean shareNodeJobs,
+    		String compilerCache,
+    		boolean buildSnapshots,
+    		boolean affectedOnly,
+    		boolean runTests,
+    		String ctestArgs,
+    		String testShard,
+    		boolean parallelConfigs,
+    		boolean incrementalInstall,
+    		boolean scanDiagnostics,
+    		boolean resourceUsage,
+    		boolean seedCache,
+    		String accelerationProfile,
+    		String buildShard) {
     	this.sourceDir = sourceDir;
 		this.buildDir = buildDir;
 		this.installDir = installDir;
@@ -77,6 +125,24 @@ public class CmakeBuilder extends Builder {
 		this.cmakeArgs = cmakeArgs;
 		this.projectCmakePath = projectCmakePath;
 		this.preloadScript = preloadScript;
+		this.autoParallel = autoParallel;
+		this.memoryPerJob = memoryPerJob;
+		this.useCmakeBuild = useCmakeBuild;
+		this.compileTimeReport = compileTimeReport;
+		this.shareNodeJobs = shareNodeJobs;
+		this.compilerCache = compilerCache;
+		this.buildSnapshots = buildSnapshots;
+		this.affectedOnly = affectedOnly;
+		this.runTests = runTests;
+		this.ctestArgs = ctestArgs;
+		this.testShard = testShard;
+		this.parallelConfigs = parallelConfigs;
+		this.incrementalInstall = incrementalInstall;
+		this.scanDiagnostics = scanDiagnostics;
+		this.resourceUsage = resourceUsage;
+		this.seedCache = seedCache;
+		this.accelerationProfile = accelerationProfile;
+		this.buildShard = buildShard;
 		builderImpl = new CmakeBuilderImpl();
     }
 
@@ -132,8 +198,107 @@ public class CmakeBuilder extends Builder {
     	return this.projectCmakePath;
     }
 
+    public boolean getAutoParallel() {
+    	return this.autoParallel;
+    }
+
+    public String getMemoryPerJob() {
+    	return this.memoryPerJob;
+    }
+
+    public boolean getUseCmakeBuild() {
+    	return this.useCmakeBuild;
+    }
+
+    public boolean getCompileTimeReport() {
+    	return this.compileTimeReport;
+    }
+
+    public boolean getShareNodeJobs() {
+    	return this.shareNodeJobs;
+    }
+
+    public String getCompilerCache() {
+    	return this.compilerCache;
+    }
+
+    public boolean getBuildSnapshots() {
+    	return this.buildSnapshots;
+    }
+
+    public boolean getAffectedOnly() {
+    	return this.affectedOnly;
+    }
+
+    public boolean getRunTests() {
+    	return this.runTests;
+    }
+
+    public String getCtestArgs() {
+    	return this.ctestArgs;
+    }
+
+    public String getTestShard() {
+    	return this.testShard;
+    }
+
+    public boolean getParallelConfigs() {
+    	return this.parallelConfigs;
+    }
+
+    public boolean getIncrementalInstall() {
+    	return this.incrementalInstall;
+    }
+
+    public boolean getScanDiagnostics() {
+    	return this.scanDiagnostics;
+    }
+
+    public boolean getResourceUsage() {
+    	return this.resourceUsage;
+    }
+
+    public boolean getSeedCache() {
+    	return this.seedCache;
+    }
+
+    public String getAccelerationProfile() {
+    	return this.accelerationProfile;
+    }
+
+    public String getBuildShard() {
+    	return this.buildShard;
+    }
+
     public boolean perform(AbstractBuild build, Launcher launcher, BuildListener listener) throws InterruptedException, IOException {
+        RemoteCallCounter.begin();
+        final String processes = BuildProcesses.newMark();
+        final String node = build.getBuiltOnStr().length() > 0 ? build.getBuiltOnStr() : "master";
+        final int firstPhase = CmakeBuildAction.of(build).getPhases().size();
+        BuildMetrics.get().stepStarted(node);
+        try {
+            return performSteps(build, launcher, listener, processes);
+        } catch (InterruptedException e) {
+            abort(build, launcher, processes, listener);
+            throw e;
+        } finally {
+            BuildMetrics.get().stepEnded(node);
+            recordMetrics(build, node, firstPhase);
+            final int remoteCalls = RemoteCallCounter.end();
+            CmakeBuildAction.of(build).addRemoteCalls(remoteCalls);
+            listener.getLogger().println("Calls to node: " + remoteCalls);
+            final DiagnosticsAction diagnostics = (DiagnosticsAction) build.getAction(DiagnosticsAction.class);
+            if (this.scanDiagnostics && diagnostics != null) {
+                listener.getLogger().println("Compiler diagnostics: " + diagnostics.getWarnings() + " warnings, "
+                        + diagnostics.getErrors() + " errors");
+            }
+        }
+    }
+
+    private boolean performSteps(AbstractBuild build, Launcher launcher, BuildListener listener, String processes)
+            throws InterruptedException, IOException {
         final EnvVars envs = build.getEnvironment(listener);
+        BuildProcesses.mark(envs, processes);
 
         final String eSourceDir = EnvVarReplacer.replace(sourceDir, envs);
         final String eBuildDir = EnvVarReplacer.replace(buildDir, envs);
@@ -162,48 +327,808 @@ public class CmakeBuilder extends Builder {
 
         final FilePath workSpace = build.getWorkspace();
 
+        final CmakeBuildAction timings = CmakeBuildAction.of(build);
+
         String theSourceDir;
     	String theInstallDir;
     	String theBuildDir = this.buildDir;
+    	long phaseStart = System.currentTimeMillis();
     	try {
-    		theBuildDir = prepareBuildDir(eBuildDir, listener, envs, workSpace);
-    		theSourceDir = prepareSourceDir(eSourceDir, envs, workSpace);
-    		theInstallDir = prepareInstallDir(eInstallDir, listener, envs, workSpace);
+    		final String[] paths = preparePaths(eBuildDir, eSourceDir, eInstallDir, listener, envs, workSpace);
+    		theBuildDir = paths[0];
+    		theSourceDir = paths[1];
+    		theInstallDir = paths[2];
     	} catch (IOException ioe) {
     		listener.getLogger().println(ioe.getMessage());
+    		timings.add(timing(CmakeBuildAction.PATH_PREPARATION, phaseStart, false, null));
     		return false;
     	}
+    	timings.add(timing(CmakeBuildAction.PATH_PREPARATION, phaseStart, true, null));
         String theBuildType = prepareBuildType(eOtherBuildType);
+        final List<String> configurations = buildTypes(theBuildType);
+        final boolean multiConfigBuild = configurations.size() > 1;
+        if (multiConfigBuild) {
+            theBuildType = configurations.get(0);
+        }
 
     	listener.getLogger().println("Build   dir  : " + theBuildDir);
     	listener.getLogger().println("Source  dir  : " + theSourceDir);
     	listener.getLogger().println("Install dir  : " + theInstallDir);
 
-    	final CmakeLauncher cmakeLauncher = new CmakeLauncher(launcher, envs, workSpace, listener, theBuildDir);
-    	
     	try {
-            if (!cmakeLauncher.launchCmake(
-                    checkCmake(eProjectCmakePath, build.getBuiltOn(), listener, envs),
-                    eGenerator,
-                    ePreloadScript,
-                    theSourceDir,
-                    theInstallDir,
-                    theBuildType,
-                    eCmakeArgs)) return false;
-
-    		if (!cmakeLauncher.launchMake(eMakeCommand)) {
-    			return false;
+            phaseStart = System.currentTimeMillis();
+            final String cmakeBin = getCmakeBin(eProjectCmakePath, envs);
+            final CmakeVersionCache.Entry cmake = checkCmake(cmakeBin, build.getBuiltOn(), listener, envs);
+            final CmakeLauncher cmakeLauncher = new CmakeLauncher(launcher, envs, workSpace, listener, theBuildDir,
+                    cmake.getVersion());
+            if (this.scanDiagnostics) {
+                cmakeLauncher.setDiagnostics(DiagnosticsAction.of(build));
+            }
+            if (this.seedCache && build.getBuiltOn().getRootPath() != null) {
+                cmakeLauncher.setCacheSeed(build.getBuiltOn().getRootPath().child(CacheSeed.SEED_DIR));
+            }
+            timings.add(timing(CmakeBuildAction.CMAKE_CHECK, phaseStart, true, null));
+
+            final String theGenerator = multiConfigBuild
+                    ? multiConfigGenerator(eGenerator, cmake.getVersion(), listener) : eGenerator;
+            if (theGenerator == null) {
+                return false;
+            }
+            wipeSwitchedTree(new FilePath(workSpace, theBuildDir), theGenerator, listener);
+
+            final Map<String, String> definitions = new LinkedHashMap<String, String>();
+            if (multiConfigBuild) {
+                definitions.put("CMAKE_CONFIGURATION_TYPES", join(configurations, ";"));
+            }
+            // shards and the build merging them run in different workspaces, the cache has to hash paths relative
+            final CompilerCache cache = compilerCache(build.getBuiltOn(), cmake.getVersion(), envs,
+                    this.buildShard == null || this.buildShard.trim().length() == 0 ? null : workSpace.getRemote(),
+                    listener);
+            if (cache != null) {
+                cache.addDefinitions(definitions);
+            }
+            final AccelerationProfile acceleration = AccelerationProfile.select(this.accelerationProfile,
+                    build.getBuiltOn(), cmake.getVersion(), theGenerator, envs, listener);
+            if (acceleration != null) {
+                acceleration.addDefinitions(definitions, envs);
+                timings.setAcceleration(acceleration.toString());
+                listener.getLogger().println("Acceleration: " + acceleration);
+            }
+
+            final FilePath buildPath = new FilePath(workSpace, theBuildDir);
+            final String sourcePath = new FilePath(workSpace, theSourceDir).getRemote();
+            final SnapshotStore snapshotStore = this.buildSnapshots ? snapshotStore(listener) : null;
+            final SnapshotKey snapshotKey = snapshotStore == null ? null : new SnapshotKey(
+                    sourceRevision(envs), cmake.getVersion().toString(), theGenerator, join(configurations, ";"),
+                    SnapshotKey.hashArgs(buildPath.getRemote(), sourcePath, theInstallDir, ePreloadScript,
+                            eCmakeArgs, definitions.toString()));
+            BuildTreeSnapshot.Result restored = null;
+            if (snapshotStore != null) {
+                if (!snapshotKey.isRevisionKnown()) {
+                    listener.getLogger().println(
+                            "Build snapshots: the SCM sets no source revision, saving after every build");
+                }
+                phaseStart = System.currentTimeMillis();
+                restored = restoreSnapshot(buildPath, sourcePath, snapshotStore, snapshotKey, listener);
+                timings.add(timing(CmakeBuildAction.SNAPSHOT_RESTORE, phaseStart, true, null));
+            }
+
+            final boolean fileApi = cmake.getVersion().supportsFileApi();
+            if (fileApi) {
+                writeFileApiQuery(buildPath, listener);
+            }
+
+            phaseStart = System.currentTimeMillis();
+            final ResourceSampler configureSampler = startSampler(launcher, envs, CmakeBuildAction.CONFIGURE,
+                    listener);
+            final boolean configured;
+            try {
+                configured = cmakeLauncher.launchCmake(
+                        cmakeBin,
+                        theGenerator,
+                        ePreloadScript,
+                        theSourceDir,
+                        theInstallDir,
+                        theBuildType,
+                        definitions,
+                        eCmakeArgs);
+            } finally {
+                stopSampler(build, configureSampler, listener);
+            }
+            timings.add(timing(CmakeBuildAction.CONFIGURE, phaseStart, configured, cmakeLauncher));
+            if (!configured) return false;
+            final TargetGraph targetGraph = fileApi
+                    ? readTargetGraph(build, buildPath, theBuildType, listener) : null;
+            final List<String> selected = this.affectedOnly
+                    ? affectedTargets(build, targetGraph, buildPath, cmake.getVersion(), theGenerator, eMakeCommand,
+                            listener)
+                    : Collections.<String>emptyList();
+            final int[] shard = parseShard(EnvVarReplacer.replace(this.buildShard, envs), "build", listener);
+            final List<String> targets = shardTargets(shard, selected, targetGraph, cmake.getVersion(),
+                    theGenerator, eMakeCommand, listener);
+
+    		int parallelJobs = parallelJobs(build.getBuiltOn(), listener);
+    		final NodeJobServer.Lease lease = this.shareNodeJobs
+    				? NodeJobServer.acquire(build.getBuiltOn(),
+    						makeProgram(buildPath, theGenerator, eMakeCommand, multiConfigBuild), envs.get("PATH"),
+    						listener)
+    				: null;
+    		try {
+    			if (lease != null) {
+    				parallelJobs = lease.apply(envs, this.useCmakeBuild || multiConfigBuild
+    						? CmakeGenerator.isMakefiles(theGenerator)
+    						: CmakeLauncher.runsMake(eMakeCommand));
+    			}
+    			final CompileTimeParser.Mark compileTimeMark = this.compileTimeReport
+    					? CompileTimeParser.mark(buildPath) : null;
+    			phaseStart = System.currentTimeMillis();
+    			final boolean built;
+    			final ResourceSampler buildSampler = targets == null ? null
+    					: startSampler(launcher, envs, CmakeBuildAction.BUILD, listener);
+    			try {
+    				if (targets == null) {
+    					listener.getLogger().println("No targets to build, skipping build");
+    					built = true;
+    					timings.add(timing(CmakeBuildAction.BUILD, phaseStart, built, null));
+    				} else if (multiConfigBuild) {
+    					built = buildConfigurations(cmakeLauncher, cmakeBin, theGenerator, configurations, targets,
+    							parallelJobs, timings, listener);
+    				} else {
+    					built = this.useCmakeBuild
+    							? cmakeLauncher.launchCmakeBuild(cmakeBin, theGenerator, theBuildType, targets,
+    									parallelJobs)
+    							: cmakeLauncher.launchMake(eMakeCommand, parallelJobs, targets);
+    					timings.add(timing(CmakeBuildAction.BUILD, phaseStart, built, cmakeLauncher));
+    				}
+    			} finally {
+    				final ResourceUsageAction usage = stopSampler(build, buildSampler, listener);
+    				if (usage != null) {
+    					recommendParallelism(build.getBuiltOn(), usage, parallelJobs, listener);
+    				}
+    			}
+    			if (cache != null) {
+    				reportCompilerCache(build, cache, envs, listener);
+    			}
+    			if (compileTimeMark != null) {
+    				reportCompileTime(build, buildPath, compileTimeMark, listener);
+    			}
+    			if (!built) {
+    				return false;
+    			}
+    			if (shard != null) {
+    				// a shard has built only part of the project, there is nothing complete to test or install
+    				listener.getLogger().println("Build shard " + shard[0] + " of " + shard[1]
+    						+ ": skipping tests, install and build snapshot");
+    				return true;
+    			}
+
+    			if (this.runTests) {
+    				final int testJobs = lease != null ? lease.getFairShare()
+    						: parallelJobs > 0 ? parallelJobs : nodeProcessors(build.getBuiltOn(), listener);
+    				for (String configuration : configurations) {
+    					phaseStart = System.currentTimeMillis();
+    					final boolean tested = runTests(build, cmakeLauncher, CmakeLauncher.ctestBin(cmakeBin),
+    							theGenerator, configuration, buildPath, testJobs, envs, listener);
+    					timings.add(timing(CmakeBuildAction.TEST, phaseStart, tested, cmakeLauncher,
+    							multiConfigBuild ? configuration : null));
+    					if (!tested) {
+    						return false;
+    					}
+    				}
+    			}
+
+    			final boolean staged = this.incrementalInstall && theInstallDir.length() > 0;
+    			if (staged) {
+    				envs.put(DESTDIR, IncrementalInstall.begin(buildPath));
+    			}
+    			boolean installed = true;
+    			final ResourceSampler installSampler = startSampler(launcher, envs, CmakeBuildAction.INSTALL,
+    					listener);
+    			try {
+    				for (int i = 0; i < configurations.size() && installed; i++) {
+    					phaseStart = System.currentTimeMillis();
+    					installed = this.useCmakeBuild || multiConfigBuild
+    							? cmakeLauncher.launchCmakeInstall(cmakeBin, theGenerator, theInstallDir,
+    									configurations.get(i))
+    							: cmakeLauncher.launchInstall(theInstallDir, eInstallCommand);
+    					if (installed && staged && i < configurations.size() - 1) {
+    						IncrementalInstall.collect(buildPath);
+    					}
+    					timings.add(timing(CmakeBuildAction.INSTALL, phaseStart, installed, cmakeLauncher,
+    							multiConfigBuild ? configurations.get(i) : null));
+    				}
+    			} finally {
+    				if (staged) {
+    					envs.remove(DESTDIR);
+    				}
+    				stopSampler(build, installSampler, listener);
+    			}
+    			if (installed && staged) {
+    				phaseStart = System.currentTimeMillis();
+    				installed = syncInstall(buildPath, theInstallDir, listener);
+    				timings.add(timing(CmakeBuildAction.INSTALL_SYNC, phaseStart, installed, null));
+    			}
+    			// an incremental build only saves when the store has nothing for this revision yet,
+    			// without a known revision no restore is exact and every build saves
+    			if (installed && snapshotStore != null && (restored == null || !restored.isExact())) {
+    				phaseStart = System.currentTimeMillis();
+    				saveSnapshot(buildPath, sourcePath, snapshotStore, snapshotKey, listener);
+    				timings.add(timing(CmakeBuildAction.SNAPSHOT_SAVE, phaseStart, true, null));
+    			}
+    			return installed;
+    		} finally {
+    			if (lease != null) {
+    				NodeJobServer.release(build.getBuiltOn());
+    			}
     		}
-    		
-    		return cmakeLauncher.launchInstall(theInstallDir, eInstallCommand);
 		} catch (IOException e) {
-			e.printStackTrace();
-		} catch (InterruptedException ie) {
-			ie.printStackTrace();
+			e.printStackTrace(listener.error(e.getMessage()));
 		}
 		return false;
     }
 
+	/**
+	 * Adds the phases of this step to the metrics of the controller. The
+	 * path preparation of a step that wipes a directory is also counted as
+	 * {@link BuildMetrics#WIPE}.
+	 */
+	private void recordMetrics(AbstractBuild<?, ?> build, String node, int firstPhase) {
+		final List<PhaseTiming> all = CmakeBuildAction.of(build).getPhases();
+		final List<PhaseTiming> step = all.subList(Math.min(firstPhase, all.size()), all.size());
+		final List<PhaseTiming> phases = new ArrayList<PhaseTiming>(step);
+		if (this.cleanBuild || this.cleanInstallDir) {
+			for (PhaseTiming timing : step) {
+				if (timing.getPhase().equals(CmakeBuildAction.PATH_PREPARATION)) {
+					phases.add(new PhaseTiming(BuildMetrics.WIPE, timing.getDurationMillis(), timing.getExitCode(),
+							timing.isSuccess(), false));
+				}
+			}
+		}
+		BuildMetrics.get().record(build.getProject().getFullName(), node, this.generator, phases);
+	}
+
+	/**
+	 * Kills what is left of the processes of the step after an abort and
+	 * records the time from the interruption reaching the step until the
+	 * executor is free.
+	 */
+	private static void abort(AbstractBuild<?, ?> build, Launcher launcher, String processes,
+			BuildListener listener) {
+		final long start = System.currentTimeMillis();
+		boolean killed = false;
+		try {
+			if (launcher.getChannel() != null) {
+				BuildProcesses.kill(launcher, processes);
+				killed = true;
+			}
+		} catch (IOException e) {
+			listener.getLogger().println("Aborted: cannot kill remaining build processes: " + e.getMessage());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		final long millis = System.currentTimeMillis() - start;
+		CmakeBuildAction.of(build).add(new PhaseTiming(CmakeBuildAction.ABORT, millis, PhaseTiming.NO_EXIT_CODE,
+				killed, false, null));
+		listener.getLogger().println("Aborted: build step stopped " + millis + " ms after the interruption");
+	}
+
+	/**
+	 * @return the sampler of the processes launched from now on, or
+	 *         <tt>null</tt> if resource usage is not recorded
+	 */
+	private ResourceSampler startSampler(Launcher launcher, EnvVars envs, String phase, BuildListener listener) {
+		if (!this.resourceUsage || launcher.getChannel() == null) {
+			return null;
+		}
+		try {
+			return ResourceSampler.start(launcher.getChannel(), envs, phase);
+		} catch (IOException e) {
+			listener.getLogger().println("Cannot record resource usage: " + e.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * @return the action the usage was added to, or <tt>null</tt> if nothing was sampled
+	 */
+	private static ResourceUsageAction stopSampler(AbstractBuild<?, ?> build, ResourceSampler sampler,
+			BuildListener listener) throws InterruptedException {
+		if (sampler == null) {
+			return null;
+		}
+		try {
+			ResourceUsage usage = sampler.stop();
+			if (usage.getSamples() == 0) {
+				listener.getLogger().println("Resource usage: not available on this node");
+				return null;
+			}
+			listener.getLogger().println("Resource usage of " + usage);
+			return ResourceUsageAction.add(build, usage);
+		} catch (IOException e) {
+			listener.getLogger().println("Cannot record resource usage: " + e.getMessage());
+			return null;
+		}
+	}
+
+	private static void recommendParallelism(Node node, ResourceUsageAction usage, int parallelJobs,
+			BuildListener listener) throws InterruptedException {
+		try {
+			String recommendation = usage.recommend(NodeCapacity.of(node), parallelJobs);
+			if (recommendation != null) {
+				listener.getLogger().println("Recommended parallelism: " + recommendation);
+			}
+		} catch (IOException e) {
+			listener.getLogger().println("Cannot recommend parallelism: " + e.getMessage());
+		}
+	}
+
+	private void reportCompileTime(AbstractBuild<?, ?> build, FilePath buildPath, CompileTimeParser.Mark mark,
+			BuildListener listener) throws InterruptedException {
+		try {
+			CompileTimeReport report = CompileTimeParser.parse(buildPath, mark, COMPILE_TIME_TOP_N);
+			if (report.isEmpty()) {
+				listener.getLogger().println("No compile timings found (needs Ninja or -ftime-trace)");
+				return;
+			}
+			build.addAction(new CompileTimeAction(report, build));
+			listener.getLogger().println("Compile time report: " + report.getSteps() + " steps from "
+					+ report.getSource());
+		} catch (IOException e) {
+			listener.getLogger().println("Cannot create compile time report: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * @param baseDir the directory the cache hashes paths relative to, or <tt>null</tt>
+	 * @return the compiler cache to build with, or <tt>null</tt> if none is
+	 *         wanted or it cannot be used
+	 */
+	private CompilerCache compilerCache(Node node, CmakeVersion cmakeVersion, EnvVars envs, String baseDir,
+			BuildListener listener) throws IOException, InterruptedException {
+		if (this.compilerCache == null || this.compilerCache.equals(CompilerCache.NONE)) {
+			return null;
+		}
+		if (cmakeVersion.isKnown() && !cmakeVersion.isAtLeast(3, 4)) {
+			listener.getLogger().println("Compiler cache: needs cmake 3.4 or newer, building without it");
+			return null;
+		}
+		CompilerCache.configure(node, envs);
+		if (baseDir != null && CompilerCache.setBaseDir(envs, baseDir)) {
+			listener.getLogger().println("Compiler cache: hashing paths relative to " + baseDir);
+		}
+		return CompilerCache.detect(node, this.compilerCache, envs, listener);
+	}
+
+	private void reportCompilerCache(AbstractBuild<?, ?> build, CompilerCache cache, EnvVars envs,
+			BuildListener listener) throws InterruptedException {
+		try {
+			CompilerCacheStats stats = cache.statsSinceDetected(build.getBuiltOn(), envs);
+			if (stats != null) {
+				CompilerCacheAction.add(build, stats);
+				listener.getLogger().println("Compiler cache: " + stats);
+			}
+		} catch (IOException e) {
+			listener.getLogger().println("Cannot read compiler cache statistics: " + e.getMessage());
+		}
+	}
+
+	private static void writeFileApiQuery(FilePath buildPath, BuildListener listener) throws InterruptedException {
+		try {
+			CmakeFileApi.writeQuery(buildPath);
+		} catch (IOException e) {
+			listener.getLogger().println("Cannot write CMake File API query: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Reads the target graph cmake wrote and attaches it to the build.
+	 *
+	 * @return the graph, or <tt>null</tt> if cmake did not write one
+	 */
+	private static TargetGraph readTargetGraph(AbstractBuild<?, ?> build, FilePath buildPath, String buildType,
+			BuildListener listener) throws InterruptedException {
+		try {
+			TargetGraph graph = CmakeFileApi.read(buildPath, buildType, build.getBuiltOn().getNodeName());
+			if (graph == null) {
+				listener.getLogger().println("No CMake File API reply, target graph not available");
+				return null;
+			}
+			TargetGraphAction.attach(build, graph);
+			listener.getLogger().println("Target graph: " + graph.getTargetCount() + " targets, "
+					+ graph.getSourceCount() + " sources");
+			return graph;
+		} catch (IOException e) {
+			listener.getLogger().println("Cannot read target graph: " + e.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * Runs the tests with the durations of earlier builds as cost data and
+	 * records the results. Failed tests make the build unstable.
+	 *
+	 * @return <tt>false</tt> if ctest failed without reporting test results
+	 */
+	private boolean runTests(AbstractBuild<?, ?> build, CmakeLauncher cmakeLauncher, String ctestBin,
+			String generator, String theBuildType, FilePath buildPath, int testJobs, EnvVars envs,
+			BuildListener listener) throws InterruptedException {
+		final CTestCostData costData = CTestAction.history(build);
+		try {
+			CTestRunner.prepare(buildPath, costData);
+			if (!costData.isEmpty()) {
+				listener.getLogger().println("CTest: scheduling by the durations of " + costData.size()
+						+ " tests from earlier builds");
+			}
+		} catch (IOException e) {
+			listener.getLogger().println("Cannot write CTest cost data: " + e.getMessage());
+		}
+		final boolean passed = cmakeLauncher.launchCtest(ctestBin, generator, theBuildType, testJobs,
+				testShard(envs, listener), EnvVarReplacer.replace(this.ctestArgs, envs));
+		final List<CTestResult> results;
+		try {
+			results = CTestRunner.collect(buildPath);
+		} catch (IOException e) {
+			listener.getLogger().println("Cannot read CTest results: " + e.getMessage());
+			return passed;
+		}
+		if (results.isEmpty()) {
+			listener.getLogger().println("CTest: no test results");
+			return passed;
+		}
+		CTestAction.add(build, results);
+		int failed = 0;
+		for (CTestResult result : results) {
+			if (result.isFailed()) {
+				failed++;
+			}
+		}
+		listener.getLogger().println("CTest: " + results.size() + " tests, " + failed + " failed, report in "
+				+ new FilePath(buildPath, CTestRunner.JUNIT_REPORT).getRemote());
+		if (failed > 0) {
+			build.setResult(Result.UNSTABLE);
+		}
+		return true;
+	}
+
+	/**
+	 * @return the shard of the tests to run and the number of shards, or
+	 *         <tt>null</tt> to run all tests
+	 */
+	private int[] testShard(EnvVars envs, BuildListener listener) {
+		final int[] shard = parseShard(EnvVarReplacer.replace(this.testShard, envs), "test", listener);
+		if (shard != null) {
+			listener.getLogger().println("CTest: running shard " + shard[0] + " of " + shard[1]);
+		}
+		return shard;
+	}
+
+	/**
+	 * @param kind what is sharded, for the message about an invalid shard
+	 * @return the shard and the number of shards of a <tt>&lt;shard&gt;/&lt;shards&gt;</tt>
+	 *         setting, or <tt>null</tt> if it is empty or invalid
+	 */
+	private static int[] parseShard(String shard, String kind, BuildListener listener) {
+		if (shard == null || shard.trim().length() == 0) {
+			return null;
+		}
+		final int slash = shard.indexOf('/');
+		try {
+			final int index = Integer.parseInt(shard.substring(0, slash).trim());
+			final int count = Integer.parseInt(shard.substring(slash + 1).trim());
+			if (index >= 1 && index <= count) {
+				return new int[] {index, count};
+			}
+		} catch (NumberFormatException e) {
+			// reported below
+		} catch (StringIndexOutOfBoundsException e) {
+			// reported below
+		}
+		listener.getLogger().println("Ignoring invalid " + kind + " shard, expected <shard>/<shards>: " + shard);
+		return null;
+	}
+
+	/**
+	 * Narrows the targets to build to those of the build shard of this
+	 * executor, if one is set.
+	 *
+	 * @param shard    the shard and the number of shards, or <tt>null</tt>
+	 * @param selected the targets to build, an empty list to build
+	 *                 everything, or <tt>null</tt> if there is nothing to build
+	 * @return the targets of the shard, in the same form
+	 */
+	private List<String> shardTargets(int[] shard, List<String> selected, TargetGraph graph,
+			CmakeVersion cmakeVersion, String generator, String makeCommand, BuildListener listener) {
+		if (shard == null || selected == null) {
+			return selected;
+		}
+		if (graph == null) {
+			listener.getLogger().println("Build shard: no target graph (needs cmake 3.14 or newer), building all targets");
+			return selected;
+		}
+		if (!this.useCmakeBuild && !CmakeLauncher.acceptsTargets(makeCommand)) {
+			listener.getLogger().println("Build shard: targets cannot be passed to " + makeCommand
+					+ ", building all targets");
+			return selected;
+		}
+		final List<BuildShards.Shard> plan = BuildShards.plan(graph, selected, shard[1]);
+		final BuildShards.Shard mine = plan.get(shard[0] - 1);
+		long total = 0;
+		for (BuildShards.Shard each : plan) {
+			total += each.getCost();
+		}
+		listener.getLogger().println("Build shard " + shard[0] + " of " + shard[1] + ": "
+				+ mine.getTargets().size() + " targets, cost " + mine.getCost() + " of " + total);
+		if (mine.getTargets().isEmpty()) {
+			return null;
+		}
+		if (this.useCmakeBuild && mine.getTargets().size() > 1 && !cmakeVersion.supportsBuildTargets()
+				&& !CmakeGenerator.acceptsJobsFlag(generator)) {
+			listener.getLogger().println("Build shard: several targets need cmake 3.15 or newer with " + generator
+					+ ", building all targets");
+			return selected;
+		}
+		return mine.getTargets();
+	}
+
+	private static int nodeProcessors(Node node, BuildListener listener) throws InterruptedException {
+		try {
+			return NodeCapacity.of(node).getProcessors();
+		} catch (IOException e) {
+			listener.getLogger().println("Cannot count node processors: " + e.getMessage());
+			return 0;
+		}
+	}
+
+	/**
+	 * Selects the targets affected by the changes of the build and logs why.
+	 *
+	 * @return the targets to build, an empty list to build everything, or
+	 *         <tt>null</tt> if no target is affected
+	 */
+	private List<String> affectedTargets(AbstractBuild<?, ?> build, TargetGraph graph, FilePath buildPath,
+			CmakeVersion cmakeVersion, String generator, String makeCommand, BuildListener listener)
+			throws InterruptedException {
+		final AffectedTargets.Selection selection;
+		if (graph == null) {
+			selection = AffectedTargets.Selection.full("no target graph (needs cmake 3.14 or newer)");
+		} else if (!this.useCmakeBuild && !CmakeLauncher.acceptsTargets(makeCommand)) {
+			selection = AffectedTargets.Selection.full("targets cannot be passed to " + makeCommand);
+		} else {
+			AffectedTargets.Selection selected;
+			try {
+				final List<String> changed = AffectedTargets.changedPaths(build);
+				selected = changed == null
+						? AffectedTargets.Selection.full("no completed successful build to compare with")
+						: AffectedTargets.select(graph, changed, buildPath);
+			} catch (IOException e) {
+				selected = AffectedTargets.Selection.full("cannot read dependencies: " + e.getMessage());
+			}
+			if (this.useCmakeBuild && !selected.isFullBuild() && selected.getTargets().size() > 1
+					&& !cmakeVersion.supportsBuildTargets() && !CmakeGenerator.acceptsJobsFlag(generator)) {
+				selected = AffectedTargets.Selection.full("several targets need cmake 3.15 or newer with " + generator);
+			}
+			selection = selected;
+		}
+		for (String reason : selection.getReasons()) {
+			listener.getLogger().println("Affected targets: " + reason);
+		}
+		if (selection.isFullBuild()) {
+			return Collections.emptyList();
+		}
+		return selection.getTargets().isEmpty() ? null : selection.getTargets();
+	}
+
+	/**
+	 * @return the configured snapshot store, or <tt>null</tt> if there is none
+	 */
+	private SnapshotStore snapshotStore(BuildListener listener) {
+		SnapshotStore store = getDescriptor().getSnapshotStore();
+		if (store == null) {
+			listener.getLogger().println("Build snapshots: no snapshot directory configured");
+		}
+		return store;
+	}
+
+	/**
+	 * @return the revision of the sources as told by the SCM, or <tt>null</tt>
+	 */
+	private static String sourceRevision(EnvVars envs) {
+		for (String variable : SOURCE_REVISION_VARIABLES) {
+			String revision = envs.get(variable);
+			if (revision != null && revision.length() > 0) {
+				return revision;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Restoring a snapshot only saves time, so failing to do so does not fail the build.
+	 */
+	private static BuildTreeSnapshot.Result restoreSnapshot(FilePath buildPath, String sourcePath,
+			SnapshotStore store, SnapshotKey key, BuildListener listener) throws InterruptedException {
+		try {
+			BuildTreeSnapshot.Result result = BuildTreeSnapshot.restore(buildPath, sourcePath, store, key);
+			listener.getLogger().println("Build snapshot: " + result);
+			return result;
+		} catch (IOException e) {
+			listener.getLogger().println("Cannot restore build snapshot: " + e.getMessage());
+			return null;
+		}
+	}
+
+	private static void saveSnapshot(FilePath buildPath, String sourcePath, SnapshotStore store, SnapshotKey key,
+			BuildListener listener) throws InterruptedException {
+		try {
+			listener.getLogger().println("Build snapshot: " + BuildTreeSnapshot.save(buildPath, sourcePath, store, key));
+		} catch (IOException e) {
+			listener.getLogger().println("Cannot save build snapshot: " + e.getMessage());
+		}
+	}
+
+	private static PhaseTiming timing(String phase, long start, boolean success, CmakeLauncher cmakeLauncher) {
+		return timing(phase, start, success, cmakeLauncher, null);
+	}
+
+	private static PhaseTiming timing(String phase, long start, boolean success, CmakeLauncher cmakeLauncher,
+			String configuration) {
+		final long duration = System.currentTimeMillis() - start;
+		if (cmakeLauncher == null) {
+			return new PhaseTiming(phase, duration, PhaseTiming.NO_EXIT_CODE, success, false, configuration);
+		}
+		return new PhaseTiming(phase, duration, cmakeLauncher.getLastExitCode(), success,
+				cmakeLauncher.wasLastLaunchSkipped(), configuration);
+	}
+
+	/**
+	 * Copies the changes of the staged install into the install dir.
+	 */
+	private static boolean syncInstall(FilePath buildPath, String installDir, BuildListener listener)
+			throws InterruptedException {
+		try {
+			IncrementalInstall.Summary summary = IncrementalInstall.sync(buildPath, installDir);
+			listener.getLogger().println("Install sync: " + summary);
+			return true;
+		} catch (IOException e) {
+			listener.getLogger().println("Cannot sync install dir: " + e.getMessage());
+			return false;
+		}
+	}
+
+	/**
+	 * Builds several configurations from one multi-config build tree and
+	 * records the build phase of each.
+	 *
+	 * @return whether all configurations were built
+	 */
+	private boolean buildConfigurations(CmakeLauncher cmakeLauncher, String cmakeBin, String generator,
+			List<String> configurations, List<String> targets, int parallelJobs, CmakeBuildAction timings,
+			BuildListener listener) throws InterruptedException {
+		if (!this.useCmakeBuild) {
+			listener.getLogger().println("Several build types: building with cmake --build instead of the make command");
+		}
+		// builds side by side share the jobs of one build
+		final int jobs = this.parallelConfigs && parallelJobs > 0
+				? Math.max(1, parallelJobs / configurations.size()) : parallelJobs;
+		listener.getLogger().println("Building " + join(configurations, ", ")
+				+ (this.parallelConfigs ? " in parallel" : " one after the other"));
+		int built = 0;
+		for (PhaseTiming timing : cmakeLauncher.launchCmakeBuilds(cmakeBin, generator, configurations, targets,
+				jobs, this.parallelConfigs)) {
+			timings.add(timing);
+			listener.getLogger().println("Build timing: " + timing);
+			if (timing.isSuccess()) {
+				built++;
+			}
+		}
+		return built == configurations.size();
+	}
+
+	/**
+	 * @return the generator to build several configurations from one build
+	 *         tree with, or <tt>null</tt> if there is none
+	 */
+	private static String multiConfigGenerator(String generator, CmakeVersion cmakeVersion, BuildListener listener) {
+		if (CmakeGenerator.isMultiConfig(generator)) {
+			return generator;
+		}
+		if (cmakeVersion.isKnown() && !cmakeVersion.supportsNinjaMultiConfig()) {
+			listener.getLogger().println("Several build types need a multi-config generator, or cmake 3.17 or newer for "
+					+ CmakeGenerator.NINJA_MULTI_CONFIG);
+			return null;
+		}
+		listener.getLogger().println("Several build types: configuring once with " + CmakeGenerator.NINJA_MULTI_CONFIG
+				+ " instead of " + generator);
+		return CmakeGenerator.NINJA_MULTI_CONFIG;
+	}
+
+	/**
+	 * Wipes a build tree configured with another generator when the step
+	 * switches to or from {@link CmakeGenerator#NINJA_MULTI_CONFIG}, as it
+	 * does when the number of build types changes; cmake refuses to
+	 * configure a build tree with another generator.
+	 */
+	private static void wipeSwitchedTree(FilePath buildPath, String generator, BuildListener listener)
+			throws IOException, InterruptedException {
+		final String configured = CmakeCache.entry(buildPath, "CMAKE_GENERATOR");
+		if (configured == null || CmakeGenerator.NINJA_MULTI_CONFIG.equals(configured)
+				== CmakeGenerator.NINJA_MULTI_CONFIG.equals(generator)) {
+			return;
+		}
+		listener.getLogger().println("Build dir was configured with " + configured + ", wiping it to configure with "
+				+ generator);
+		TrashReaper.wipe(buildPath);
+	}
+
+	/**
+	 * @return the build types of a list separated by <tt>;</tt> or
+	 *         <tt>,</tt>, or the given build type if it is empty
+	 */
+	static List<String> buildTypes(String buildType) {
+		final List<String> types = new ArrayList<String>();
+		if (buildType != null) {
+			for (String type : buildType.split("[;,]")) {
+				if (type.trim().length() > 0 && !types.contains(type.trim())) {
+					types.add(type.trim());
+				}
+			}
+		}
+		return types.isEmpty() ? Collections.singletonList(buildType) : types;
+	}
+
+	private static String join(List<String> values, String separator) {
+		final StringBuilder joined = new StringBuilder();
+		for (String value : values) {
+			if (joined.length() > 0) {
+				joined.append(separator);
+			}
+			joined.append(value);
+		}
+		return joined.toString();
+	}
+
+	/**
+	 * @return the GNU make the build phase runs, or <tt>null</tt> if it runs another build tool
+	 */
+	private String makeProgram(FilePath buildPath, String generator, String makeCommand, boolean multiConfigBuild)
+			throws IOException, InterruptedException {
+		if (!this.useCmakeBuild && !multiConfigBuild) {
+			return CmakeLauncher.makeProgram(makeCommand);
+		}
+		if (!CmakeGenerator.isMakefiles(generator)) {
+			return null;
+		}
+		final String program = CmakeCache.entry(buildPath, "CMAKE_MAKE_PROGRAM");
+		return program != null && program.length() > 0 ? program : "make";
+	}
+
+	/**
+	 * @return the number of parallel jobs to run on the node, or <tt>0</tt>
+	 *         if auto parallelism is disabled or the node cannot be measured
+	 */
+	private int parallelJobs(Node node, BuildListener listener) throws InterruptedException {
+		if (!this.autoParallel) {
+			return 0;
+		}
+		long memoryPerJobMb = 0;
+		if (this.memoryPerJob != null && this.memoryPerJob.trim().length() > 0) {
+			try {
+				memoryPerJobMb = Long.parseLong(this.memoryPerJob.trim());
+			} catch (NumberFormatException e) {
+				listener.getLogger().println("Ignoring invalid memory per job: " + this.memoryPerJob);
+			}
+		}
+		try {
+			NodeCapacity capacity = NodeCapacity.of(node);
+			int jobs = capacity.jobs(memoryPerJobMb);
+			listener.getLogger().println("Auto parallelism: " + jobs + " jobs (" + capacity + ")");
+			return jobs;
+		} catch (IOException e) {
+			listener.getLogger().println("Auto parallelism disabled: " + e.getMessage());
+			return 0;
+		}
+	}
+
 	private String prepareBuildType(String eOtherBuildType) {
         if ((eOtherBuildType != null) && (eOtherBuildType.length() > 0)) {
             return eOtherBuildType;
@@ -211,32 +1136,33 @@ public class CmakeBuilder extends Builder {
 		return buildType;
 	}
 
-	private String prepareInstallDir(String eInstallDir, BuildListener listener, EnvVars envs, final FilePath workSpace) throws IOException {
-		if (this.cleanInstallDir) {
-			listener.getLogger().println("Wiping out install Dir... " + eInstallDir);
-			return getCmakeBuilderImpl().preparePath(workSpace, envs, eInstallDir,
-					CmakeBuilderImpl.PreparePathOptions.CREATE_NEW_IF_EXISTS);
-		} 
-		return getCmakeBuilderImpl().preparePath(workSpace, envs, eInstallDir,
-				CmakeBuilderImpl.PreparePathOptions.CREATE_IF_NOT_EXISTING);
-	}
-
-	private String prepareSourceDir(String eSourceDir, EnvVars envs, final FilePath workSpace)
-			throws IOException {
-		return getCmakeBuilderImpl().preparePath(workSpace, envs, eSourceDir,
-				CmakeBuilderImpl.PreparePathOptions.CHECK_PATH_EXISTS);
-	}
-
-	private String prepareBuildDir(String eBuildDir, BuildListener listener, EnvVars envs, final FilePath workSpace)
-            throws IOException
-    {
+	/**
+	 * Prepares the build, source and install dirs with a single call to the node.
+	 *
+	 * @return the prepared build, source and install dirs, in this order
+	 */
+	private String[] preparePaths(String eBuildDir, String eSourceDir, String eInstallDir, BuildListener listener,
+			EnvVars envs, final FilePath workSpace) throws IOException, InterruptedException {
 		if (this.cleanBuild) {
 			listener.getLogger().println("Cleaning build Dir... " + eBuildDir);
-			return getCmakeBuilderImpl().preparePath(workSpace, envs, eBuildDir,
-					CmakeBuilderImpl.PreparePathOptions.CREATE_NEW_IF_EXISTS);
 		}
-		return getCmakeBuilderImpl().preparePath(workSpace, envs, eBuildDir,
-				CmakeBuilderImpl.PreparePathOptions.CREATE_IF_NOT_EXISTING);		
+		// the incremental install removes what is no longer installed itself
+		final boolean wipeInstallDir = this.cleanInstallDir && !this.incrementalInstall;
+		if (wipeInstallDir) {
+			listener.getLogger().println("Wiping out install Dir... " + eInstallDir);
+		} else if (this.cleanInstallDir) {
+			listener.getLogger().println("Not wiping out install Dir with incremental install");
+		}
+		return getCmakeBuilderImpl().preparePaths(workSpace, envs,
+				new String[] { eBuildDir, eSourceDir, eInstallDir },
+				new CmakeBuilderImpl.PreparePathOptions[] {
+					this.cleanBuild
+						? CmakeBuilderImpl.PreparePathOptions.CREATE_NEW_IF_EXISTS
+						: CmakeBuilderImpl.PreparePathOptions.CREATE_IF_NOT_EXISTING,
+					CmakeBuilderImpl.PreparePathOptions.CHECK_PATH_EXISTS,
+					wipeInstallDir
+						? CmakeBuilderImpl.PreparePathOptions.CREATE_NEW_IF_EXISTS
+						: CmakeBuilderImpl.PreparePathOptions.CREATE_IF_NOT_EXISTING });
 	}
 
 	private CmakeBuilderImpl getCmakeBuilderImpl() {
@@ -246,8 +1172,7 @@ public class CmakeBuilder extends Builder {
 		return builderImpl;
 	}
 
-	private String checkCmake(String eProjectCmakePath, Node node, BuildListener listener, EnvVars envs) throws IOException,
-			InterruptedException {
+	private String getCmakeBin(String eProjectCmakePath, EnvVars envs) {
 		String cmakeBin = CMAKE;
         String cmakePath = getDescriptor().cmakePath();
         if (cmakePath != null && cmakePath.length() > 0) {
@@ -259,12 +1184,19 @@ public class CmakeBuilder extends Builder {
         if (envs.containsKey(CMAKE_EXECUTABLE)) {
         	cmakeBin = envs.get(CMAKE_EXECUTABLE);
         }
-
-        node.createLauncher(listener).launch().cmds(cmakeBin, "-version").stdout(listener).pwd(node.getRootPath()).join();
-
 		return cmakeBin;
 	}
 
+	private CmakeVersionCache.Entry checkCmake(String cmakeBin, Node node, BuildListener listener, EnvVars envs)
+			throws IOException, InterruptedException {
+		return CmakeVersionCache.get(node, cmakeBin, envs.get("PATH"), listener);
+	}
+
+    @Override
+    public Action getProjectAction(AbstractProject<?, ?> project) {
+        return new CmakeProjectAction(project);
+    }
+
     @Override
     public DescriptorImpl getDescriptor() {
         return (DescriptorImpl) super.getDescriptor();
@@ -288,6 +1220,9 @@ public class CmakeBuilder extends Builder {
          * If you don't want fields to be persisted, use <tt>transient</tt>.
          */
         private String cmakePath;
+        private String snapshotDir;
+        private String snapshotMaxSize;
+        private String snapshotMaxCount;
         private transient List<String> allowedBuildTypes;
         private transient String errorMessage;
         
@@ -354,7 +1289,26 @@ public class CmakeBuilder extends Builder {
             return FormValidation.validateExecutable(value);
         }
 
-        
+
+        /**
+         * Performs on-the-fly validation of the form field 'memoryPerJob'.
+         *
+         * @param value
+         */
+        public FormValidation doCheckMemoryPerJob(@QueryParameter final String value) throws IOException, ServletException {
+            if (value.trim().length() == 0) {
+                return FormValidation.ok();
+            }
+            try {
+                if (Long.parseLong(value.trim()) >= 0) {
+                    return FormValidation.ok();
+                }
+            } catch (NumberFormatException e) {
+                // reported below
+            }
+            return FormValidation.error("Must be a number of megabytes");
+        }
+
         /**
          * This human readable name is used in the configuration screen.
          */
@@ -367,6 +1321,9 @@ public class CmakeBuilder extends Builder {
             // to persist global configuration information,
             // set that to properties and call save().
             cmakePath = o.getString("cmakePath");
+            snapshotDir = o.optString("snapshotDir", "");
+            snapshotMaxSize = o.optString("snapshotMaxSize", "");
+            snapshotMaxCount = o.optString("snapshotMaxCount", "");
             save();
             return super.configure(req, o);
         }
@@ -374,6 +1331,45 @@ public class CmakeBuilder extends Builder {
         public String cmakePath() {
         	return cmakePath;
         }
+
+        public String getSnapshotDir() {
+        	return snapshotDir;
+        }
+
+        public String getSnapshotMaxSize() {
+        	return snapshotMaxSize;
+        }
+
+        public String getSnapshotMaxCount() {
+        	return snapshotMaxCount;
+        }
+
+        /**
+         * @return the store for build tree snapshots, or <tt>null</tt> if no
+         *         snapshot directory is configured
+         */
+        public SnapshotStore getSnapshotStore() {
+        	if (snapshotDir == null || snapshotDir.trim().length() == 0) {
+        		return null;
+        	}
+        	return new DirectorySnapshotStore(snapshotDir.trim(),
+        			parseLimit(snapshotMaxSize) * 1024 * 1024, (int) parseLimit(snapshotMaxCount));
+        }
+
+        private static long parseLimit(String value) {
+        	try {
+        		return value != null && value.trim().length() > 0 ? Math.max(0, Long.parseLong(value.trim())) : 0;
+        	} catch (NumberFormatException e) {
+        		return 0;
+        	}
+        }
+
+        /**
+         * Offers the well known generators, any other can still be typed in.
+         */
+        public ComboBoxModel doFillGeneratorItems() {
+        	return new ComboBoxModel(CmakeGenerator.KNOWN_GENERATORS);
+        }
         
         @Override
         public Builder newInstance(StaplerRequest req, JSONObject formData) throws FormException {
@@ -1,7 +1,9 @@
 package hudson.plugins.cmake;
 
 import hudson.FilePath;
+import hudson.remoting.VirtualChannel;
 
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.util.Map;
@@ -16,54 +18,63 @@ public class CmakeBuilderImpl {
 	{
 		CHECK_PATH_EXISTS() {
 			@Override
-			public void process(FilePath file) throws IOException {
-				try {
-					if (!file.exists()) {
-						throw new FileNotFoundException(file.getRemote());
-					}
-				} catch (InterruptedException e) {
-					// ignore
+			public void process(FilePath file) throws IOException, InterruptedException {
+				if (!file.exists()) {
+					throw new FileNotFoundException(file.getRemote());
+				}
+			}
+
+			@Override
+			void processLocal(File file) throws IOException {
+				if (!file.exists()) {
+					throw new FileNotFoundException(file.getPath());
 				}
 			}
 		},
 		
 		CREATE_IF_NOT_EXISTING() {
 			@Override
-			public void process(FilePath file) throws IOException {
-				try {
-					if (!file.exists()) {
-						file.mkdirs();
-					}
-				} catch (InterruptedException e) {
-					// ignore
+			public void process(FilePath file) throws IOException, InterruptedException {
+				if (!file.exists()) {
+					file.mkdirs();
+				}
+			}
+
+			@Override
+			void processLocal(File file) throws IOException {
+				if (!file.exists() && !file.mkdirs()) {
+					throw new IOException("Unable to create " + file.getPath());
 				}
 			}
 		},
 		
 		CREATE_NEW_IF_EXISTS() {
 			@Override
-			public void process(FilePath file) throws IOException {
-				try {
-					if (file.exists()) {
-						if (file.isDirectory()) {
-							file.deleteRecursive();
-						}
-					}
-				} catch (InterruptedException e) {
-					// ignore
-				}
+			public void process(FilePath file) throws IOException, InterruptedException {
+				// the old contents are renamed away and deleted in the background
+				TrashReaper.wipe(file);
 				CREATE_IF_NOT_EXISTING.process(file);				
 			}			
+
+			@Override
+			void processLocal(File file) throws IOException, InterruptedException {
+				TrashReaper.wipe(file);
+			}
 		};
 		
-		public abstract void process(FilePath file) throws IOException;
+		public abstract void process(FilePath file) throws IOException, InterruptedException;
+
+		/**
+		 * Same as {@link #process(FilePath)}, on the node owning the file.
+		 */
+		abstract void processLocal(File file) throws IOException, InterruptedException;
 	};
 	
 	public CmakeBuilderImpl() {
 		super();
 	}
 	
-	String preparePath(FilePath workSpace, final Map<String, String> envVars, String path, PreparePathOptions ppOption) throws IOException {
+	String preparePath(FilePath workSpace, final Map<String, String> envVars, String path, PreparePathOptions ppOption) throws IOException, InterruptedException {
 		path = path.trim();
 		if (path.isEmpty()) {
 			return path;
@@ -73,4 +84,49 @@ public class CmakeBuilderImpl {
     	ppOption.process(file);
     	return file.getRemote();
 	}
+
+	/**
+	 * Prepares several paths with a single call to the node, in the given
+	 * order. Equivalent to calling {@link #preparePath} for each of them.
+	 *
+	 * @return the prepared paths; empty paths stay empty
+	 */
+	String[] preparePaths(FilePath workSpace, final Map<String, String> envVars, String[] paths,
+			PreparePathOptions[] ppOptions) throws IOException, InterruptedException {
+		final String[] expanded = new String[paths.length];
+		for (int i = 0; i < paths.length; i++) {
+			expanded[i] = EnvVarReplacer.replace(paths[i].trim(), envVars);
+		}
+		RemoteCallCounter.increment();
+		return workSpace.act(new PreparePaths(expanded, ppOptions));
+	}
+
+	private static final class PreparePaths implements FilePath.FileCallable<String[]> {
+		private static final long serialVersionUID = 1L;
+
+		private final String[] paths;
+		private final PreparePathOptions[] ppOptions;
+
+		PreparePaths(String[] paths, PreparePathOptions[] ppOptions) {
+			this.paths = paths;
+			this.ppOptions = ppOptions;
+		}
+
+		public String[] invoke(File workSpace, VirtualChannel channel) throws IOException, InterruptedException {
+			final String[] prepared = new String[paths.length];
+			for (int i = 0; i < paths.length; i++) {
+				if (paths[i].isEmpty()) {
+					prepared[i] = paths[i];
+					continue;
+				}
+				File file = new File(paths[i]);
+				if (!file.isAbsolute()) {
+					file = new File(workSpace, paths[i]);
+				}
+				ppOptions[i].processLocal(file);
+				prepared[i] = file.getPath();
+			}
+			return prepared;
+		}
+	}
 }
@@ -0,0 +1,71 @@
+package hudson.plugins.cmake;
+
+import hudson.FilePath;
+import hudson.remoting.VirtualChannel;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+
+/**
+ * Reads single entries of the <tt>CMakeCache.txt</tt> of a build tree.
+ */
+final class CmakeCache {
+
+    static final String FILE = "CMakeCache.txt";
+
+    private CmakeCache() {
+    }
+
+    /**
+     * @return the value of the entry, or <tt>null</tt> if the build tree has no cache or the cache no such entry
+     */
+    static String entry(FilePath buildDir, String name) throws IOException, InterruptedException {
+        RemoteCallCounter.increment();
+        return buildDir.act(new Entry(name));
+    }
+
+    /**
+     * Reads an entry on the node the build tree is on.
+     *
+     * @see #entry(FilePath, String)
+     */
+    static String read(File buildDir, String name) throws IOException {
+        final File cache = new File(buildDir, FILE);
+        if (!cache.isFile()) {
+            return null;
+        }
+        final String prefix = name + ":";
+        BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(cache), "UTF-8"));
+        try {
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.startsWith(prefix)) {
+                    final int value = line.indexOf('=', prefix.length());
+                    if (value >= 0) {
+                        return line.substring(value + 1);
+                    }
+                }
+            }
+        } finally {
+            in.close();
+        }
+        return null;
+    }
+
+    private static final class Entry implements FilePath.FileCallable<String> {
+        private static final long serialVersionUID = 1L;
+
+        private final String name;
+
+        Entry(String name) {
+            this.name = name;
+        }
+
+        public String invoke(File buildDir, VirtualChannel channel) throws IOException {
+            return read(buildDir, name);
+        }
+    }
+}
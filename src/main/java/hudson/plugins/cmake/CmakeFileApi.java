@@ -0,0 +1,353 @@
+package hudson.plugins.cmake;
+
+import hudson.FilePath;
+import hudson.remoting.VirtualChannel;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Asks cmake for the code model of the project through the CMake File API
+ * (cmake 3.14 or newer) and reads it into a {@link TargetGraph}.
+ *
+ * <p>
+ * The reply is parsed on the node, one JSON file at a time and without
+ * building the documents in memory. The code model file is named after a
+ * hash of its content, so a graph is only parsed again when the code model
+ * has changed since the last build in the same build directory.
+ */
+public final class CmakeFileApi {
+
+    static final String CLIENT = "client-cmakebuilder";
+    static final String CODEMODEL = "codemodel-v2";
+
+    /** Number of build directories whose graph is kept on the controller. */
+    private static final int MAX_CACHED = 16;
+
+    private static final Map<String, Cached> CACHE = new LinkedHashMap<String, Cached>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Cached> eldest) {
+            return size() > MAX_CACHED;
+        }
+    };
+
+    private CmakeFileApi() {
+    }
+
+    private static final class Cached {
+        final String codemodelFile;
+        final TargetGraph graph;
+
+        Cached(String codemodelFile, TargetGraph graph) {
+            this.codemodelFile = codemodelFile;
+            this.graph = graph;
+        }
+    }
+
+    /**
+     * Result of reading the reply on the node.
+     */
+    private static final class Reply implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        final String codemodelFile;
+        /** <tt>null</tt> if the code model is the one the controller already has. */
+        final TargetGraph graph;
+
+        Reply(String codemodelFile, TargetGraph graph) {
+            this.codemodelFile = codemodelFile;
+            this.graph = graph;
+        }
+    }
+
+    /**
+     * Asks cmake to write the code model with the next configure of the build directory.
+     */
+    public static void writeQuery(FilePath buildDir) throws IOException, InterruptedException {
+        RemoteCallCounter.increment();
+        buildDir.act(new WriteQuery());
+    }
+
+    private static final class WriteQuery implements FilePath.FileCallable<Void> {
+        private static final long serialVersionUID = 1L;
+
+        public Void invoke(File dir, VirtualChannel channel) throws IOException {
+            File query = new File(dir, ".cmake/api/v1/query/" + CLIENT);
+            if (!query.isDirectory() && !query.mkdirs()) {
+                throw new IOException("Unable to create " + query);
+            }
+            File file = new File(query, CODEMODEL);
+            if (!file.exists()) {
+                new FileOutputStream(file).close();
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Reads the target graph cmake wrote with the last configure.
+     *
+     * @param configuration the configuration to read, the first one if it is not found
+     * @return the graph, or <tt>null</tt> if cmake did not write a code model
+     */
+    public static TargetGraph read(FilePath buildDir, String configuration, String nodeName)
+            throws IOException, InterruptedException {
+        final String key = nodeName + '\0' + buildDir.getRemote() + '\0' + configuration;
+        Cached cached;
+        synchronized (CACHE) {
+            cached = CACHE.get(key);
+        }
+        RemoteCallCounter.increment();
+        Reply reply = buildDir.act(new Read(configuration, cached != null ? cached.codemodelFile : null));
+        if (reply == null) {
+            return null;
+        }
+        if (reply.graph == null && cached != null) {
+            return cached.graph;
+        }
+        synchronized (CACHE) {
+            CACHE.put(key, new Cached(reply.codemodelFile, reply.graph));
+        }
+        return reply.graph;
+    }
+
+    private static final class Read implements FilePath.FileCallable<Reply> {
+        private static final long serialVersionUID = 1L;
+
+        private final String configuration;
+        private final String knownCodemodel;
+
+        Read(String configuration, String knownCodemodel) {
+            this.configuration = configuration;
+            this.knownCodemodel = knownCodemodel;
+        }
+
+        public Reply invoke(File dir, VirtualChannel channel) throws IOException {
+            File replyDir = new File(dir, ".cmake/api/v1/reply");
+            String codemodel = codemodelFile(replyDir);
+            if (codemodel == null) {
+                return null;
+            }
+            if (codemodel.equals(knownCodemodel)) {
+                return new Reply(codemodel, null);
+            }
+            return new Reply(codemodel, parseCodemodel(replyDir, codemodel, configuration));
+        }
+    }
+
+    /**
+     * Finds the code model file answering our query in the latest reply index.
+     *
+     * @return the file name, or <tt>null</tt> if there is no reply
+     */
+    static String codemodelFile(File replyDir) throws IOException {
+        String[] names = replyDir.list();
+        String index = null;
+        if (names != null) {
+            for (String name : names) {
+                // index files are named after the time they were written
+                if (name.startsWith("index-") && name.endsWith(".json") && (index == null || name.compareTo(index) > 0)) {
+                    index = name;
+                }
+            }
+        }
+        if (index == null) {
+            return null;
+        }
+        JsonPullParser json = open(new File(replyDir, index));
+        try {
+            if (!enter(json, "reply") || !enter(json, CLIENT) || !enter(json, CODEMODEL) || !enter(json, "jsonFile")) {
+                return null;
+            }
+            return json.nextString();
+        } finally {
+            json.close();
+        }
+    }
+
+    /**
+     * Moves into the value of the given member of the current object,
+     * entering the object if the parser is positioned before it.
+     *
+     * @return <tt>false</tt> if there is no such member
+     */
+    private static boolean enter(JsonPullParser json, String member) throws IOException {
+        if (json.peek() == JsonPullParser.Token.BEGIN_OBJECT) {
+            json.next();
+        } else if (json.peek() != JsonPullParser.Token.NAME) {
+            return false;
+        }
+        String name;
+        while ((name = json.nextName()) != null) {
+            if (name.equals(member)) {
+                return true;
+            }
+            json.skipValue();
+        }
+        return false;
+    }
+
+    /**
+     * One target of the code model before its file is read.
+     */
+    private static final class TargetRef {
+        final String id;
+        final String jsonFile;
+
+        TargetRef(String id, String jsonFile) {
+            this.id = id;
+            this.jsonFile = jsonFile;
+        }
+    }
+
+    static TargetGraph parseCodemodel(File replyDir, String codemodelFile, String configuration) throws IOException {
+        String sourceRoot = null;
+        String buildRoot = null;
+        String chosen = null;
+        List<TargetRef> targets = null;
+        JsonPullParser json = open(new File(replyDir, codemodelFile));
+        try {
+            json.beginObject();
+            String name;
+            while ((name = json.nextName()) != null) {
+                if (name.equals("paths")) {
+                    json.beginObject();
+                    String path;
+                    while ((path = json.nextName()) != null) {
+                        if (path.equals("source")) {
+                            sourceRoot = json.nextString();
+                        } else if (path.equals("build")) {
+                            buildRoot = json.nextString();
+                        } else {
+                            json.skipValue();
+                        }
+                    }
+                } else if (name.equals("configurations")) {
+                    json.beginArray();
+                    while (json.hasNextElement()) {
+                        String[] configName = new String[1];
+                        List<TargetRef> configTargets = parseConfiguration(json, configName);
+                        // the requested configuration, or else the first one
+                        if (targets == null || (configuration != null && !configuration.equalsIgnoreCase(chosen)
+                                && configuration.equalsIgnoreCase(configName[0]))) {
+                            chosen = configName[0];
+                            targets = configTargets;
+                        }
+                    }
+                } else {
+                    json.skipValue();
+                }
+            }
+        } finally {
+            json.close();
+        }
+        TargetGraph.Builder graph = new TargetGraph.Builder(chosen, sourceRoot, buildRoot);
+        if (targets != null) {
+            for (TargetRef target : targets) {
+                parseTarget(new File(replyDir, target.jsonFile), target.id, graph);
+            }
+        }
+        return graph.build();
+    }
+
+    private static List<TargetRef> parseConfiguration(JsonPullParser json, String[] configName) throws IOException {
+        List<TargetRef> targets = new ArrayList<TargetRef>();
+        json.beginObject();
+        String name;
+        while ((name = json.nextName()) != null) {
+            if (name.equals("name")) {
+                configName[0] = json.nextString();
+            } else if (name.equals("targets")) {
+                json.beginArray();
+                while (json.hasNextElement()) {
+                    String id = null;
+                    String jsonFile = null;
+                    json.beginObject();
+                    String member;
+                    while ((member = json.nextName()) != null) {
+                        if (member.equals("id")) {
+                            id = json.nextString();
+                        } else if (member.equals("jsonFile")) {
+                            jsonFile = json.nextString();
+                        } else {
+                            json.skipValue();
+                        }
+                    }
+                    if (id != null && jsonFile != null) {
+                        targets.add(new TargetRef(id, jsonFile));
+                    }
+                }
+            } else {
+                json.skipValue();
+            }
+        }
+        return targets;
+    }
+
+    private static void parseTarget(File file, String id, TargetGraph.Builder graph) throws IOException {
+        String targetName = null;
+        String type = null;
+        List<String> sources = Collections.emptyList();
+        List<String> artifacts = Collections.emptyList();
+        List<String> dependencies = Collections.emptyList();
+        JsonPullParser json = open(file);
+        try {
+            json.beginObject();
+            String name;
+            while ((name = json.nextName()) != null) {
+                if (name.equals("name")) {
+                    targetName = json.nextString();
+                } else if (name.equals("type")) {
+                    type = json.nextString();
+                } else if (name.equals("sources")) {
+                    sources = members(json, "path");
+                } else if (name.equals("artifacts")) {
+                    artifacts = members(json, "path");
+                } else if (name.equals("dependencies")) {
+                    dependencies = members(json, "id");
+                } else {
+                    json.skipValue();
+                }
+            }
+        } finally {
+            json.close();
+        }
+        graph.addTarget(id, targetName != null ? targetName : id, type, sources, artifacts, dependencies);
+    }
+
+    /**
+     * Reads an array of objects, keeping one string member of each.
+     */
+    private static List<String> members(JsonPullParser json, String member) throws IOException {
+        List<String> values = new ArrayList<String>();
+        json.beginArray();
+        while (json.hasNextElement()) {
+            json.beginObject();
+            String name;
+            while ((name = json.nextName()) != null) {
+                if (name.equals(member)) {
+                    values.add(json.nextString());
+                } else {
+                    json.skipValue();
+                }
+            }
+        }
+        return values;
+    }
+
+    private static JsonPullParser open(File file) throws IOException {
+        return new JsonPullParser(new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8")));
+    }
+}
@@ -0,0 +1,68 @@
+package hudson.plugins.cmake;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Knowledge about cmake generators needed to drive the generated build system.
+ */
+public final class CmakeGenerator {
+
+    public static final String UNIX_MAKEFILES = "Unix Makefiles";
+    public static final String NINJA = "Ninja";
+    public static final String NINJA_MULTI_CONFIG = "Ninja Multi-Config";
+
+    /** Generators offered for completion in the configuration screen. */
+    public static final List<String> KNOWN_GENERATORS = Collections.unmodifiableList(Arrays.asList(
+            UNIX_MAKEFILES,
+            NINJA,
+            NINJA_MULTI_CONFIG,
+            "MinGW Makefiles",
+            "MSYS Makefiles",
+            "NMake Makefiles",
+            "Visual Studio 17 2022",
+            "Visual Studio 16 2019",
+            "Xcode"));
+
+    private CmakeGenerator() {
+    }
+
+    /**
+     * Strips an extra generator prefix such as <tt>CodeBlocks - </tt> or
+     * <tt>Eclipse CDT4 - </tt>.
+     */
+    private static String primary(String generator) {
+        if (generator == null) {
+            return "";
+        }
+        int dash = generator.lastIndexOf(" - ");
+        return (dash >= 0 ? generator.substring(dash + 3) : generator).trim();
+    }
+
+    public static boolean isNinja(String generator) {
+        return primary(generator).startsWith(NINJA);
+    }
+
+    public static boolean isMakefiles(String generator) {
+        return primary(generator).endsWith("Makefiles") && !primary(generator).startsWith("NMake");
+    }
+
+    /**
+     * Multi-config generators select the configuration at build time
+     * (<tt>--config</tt>) instead of through <tt>CMAKE_BUILD_TYPE</tt>.
+     */
+    public static boolean isMultiConfig(String generator) {
+        String primary = primary(generator);
+        return primary.equals(NINJA_MULTI_CONFIG)
+                || primary.startsWith("Visual Studio")
+                || primary.equals("Xcode");
+    }
+
+    /**
+     * @return whether the native build tool understands <tt>-j&lt;N&gt;</tt>
+     */
+    public static boolean acceptsJobsFlag(String generator) {
+        return isNinja(generator) || isMakefiles(generator);
+    }
+}
@@ -3,29 +3,124 @@ package hudson.plugins.cmake;
 import hudson.EnvVars;
 import hudson.FilePath;
 import hudson.Launcher;
+import hudson.Proc;
+import hudson.Util;
 import hudson.model.BuildListener;
+import hudson.remoting.VirtualChannel;
 import hudson.util.ArgumentListBuilder;
 
+import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 
 public class CmakeLauncher {
+    /** How often builds running side by side are checked for completion. */
+    private static final long POLL_MILLIS = 200;
+
+    /** Variables that select the compilers and their flags when a build tree is configured. */
+    private static final String[] SEED_VARIABLES =
+            {"CC", "CXX", "FC", "CUDACXX", "CFLAGS", "CXXFLAGS", "FFLAGS", "LDFLAGS"};
+
     private final Launcher launcher;
     private final EnvVars envs;
     private final FilePath workSpace;
     private final BuildListener listener;
     private final String buildDir;
+    private final CmakeVersion cmakeVersion;
+    private int lastExitCode = PhaseTiming.NO_EXIT_CODE;
+    private boolean lastLaunchSkipped;
+    private DiagnosticsAction diagnostics;
+    private FilePath seedDir;
 
     public CmakeLauncher(Launcher launcher,
                          EnvVars envs,
                          FilePath workSpace,
                          BuildListener listener,
-                         String buildDir) {
+                         String buildDir,
+                         CmakeVersion cmakeVersion) {
         super();
         this.launcher = launcher;
         this.envs = envs;
         this.workSpace = workSpace;
         this.listener = listener;
         this.buildDir = buildDir;
+        this.cmakeVersion = cmakeVersion;
+    }
+
+    public CmakeVersion getCmakeVersion() {
+        return cmakeVersion;
+    }
+
+    /**
+     * @return the exit code of the process started by the last launch, or
+     *         {@link PhaseTiming#NO_EXIT_CODE} if it did not start one
+     */
+    public int getLastExitCode() {
+        return lastExitCode;
+    }
+
+    /**
+     * @return whether the last launch had nothing to do
+     */
+    public boolean wasLastLaunchSkipped() {
+        return lastLaunchSkipped;
+    }
+
+    /**
+     * Scans the output of the processes launched from now on for compiler
+     * and cmake diagnostics and counts them in the given action.
+     */
+    public void setDiagnostics(DiagnosticsAction diagnostics) {
+        this.diagnostics = diagnostics;
+    }
+
+    /**
+     * Seeds configures of fresh build trees from the caches of earlier
+     * configures with the same toolchain, kept in the given directory of the node.
+     */
+    public void setCacheSeed(FilePath seedDir) {
+        this.seedDir = seedDir;
+    }
+
+    /**
+     * Starts a process in the build dir with its output going to the build
+     * log. With diagnostics set, the output is scanned on the node, see
+     * {@link ScannedProcess}.
+     */
+    private Proc start(ArgumentListBuilder args) throws IOException, InterruptedException {
+        final FilePath buildPath = new FilePath(this.workSpace, this.buildDir);
+        RemoteCallCounter.increment();
+        if (diagnostics == null) {
+            return launcher.launch()
+                    .cmds(args)
+                    .envs(envs)
+                    .stdout(listener.getLogger())
+                    .stderr(listener.getLogger())
+                    .pwd(buildPath)
+                    .start();
+        }
+        final VirtualChannel channel = launcher.getChannel();
+        if (channel == null) {
+            throw new IOException("Node is offline");
+        }
+        return ScannedProcess.start(channel, args.toList(), envs, buildPath.getRemote(), listener.getLogger(),
+                diagnostics);
+    }
+
+    private void beginLaunch() {
+        lastExitCode = PhaseTiming.NO_EXIT_CODE;
+        lastLaunchSkipped = false;
+    }
+
+    private boolean skipLaunch(String message) {
+        listener.getLogger().println(message);
+        lastLaunchSkipped = true;
+        return true;
     }
 
 //	public boolean launchCmake(String cmakeCall) throws IOException, InterruptedException {
@@ -45,7 +140,75 @@ public class CmakeLauncher {
                                String theSourceDir,
                                String theInstallDir,
                                String theBuildType,
-                               String cmakeArgs)
+                               String cmakeArgs) throws InterruptedException
+    {
+        return launchCmake(cmakeBin, generator, preloadScript, theSourceDir, theInstallDir, theBuildType,
+                Collections.<String, String>emptyMap(), cmakeArgs);
+    }
+
+    /**
+     * @param definitions cache entries the plugin sets, passed as <tt>-D</tt>
+     *                    before <tt>cmakeArgs</tt> so the job can override them
+     */
+    public boolean launchCmake(String cmakeBin,
+                               String generator,
+                               String preloadScript,
+                               String theSourceDir,
+                               String theInstallDir,
+                               String theBuildType,
+                               Map<String, String> definitions,
+                               String cmakeArgs) throws InterruptedException
+    {
+        beginLaunch();
+        final ArgumentListBuilder args = configureArgs(cmakeBin, generator, preloadScript, theSourceDir,
+                theInstallDir, theBuildType, definitions, cmakeArgs);
+
+        listener.getLogger().println(args.toString());
+
+        final FilePath buildPath = new FilePath(this.workSpace, this.buildDir);
+        final String version = cmakeVersion.toString();
+        try {
+            ConfigureFingerprint.Status status =
+                    ConfigureFingerprint.check(buildPath, args.toList(), preloadScript, version);
+            if (status.isUpToDate()) {
+                return skipLaunch("Skipping configure: " + status.getReason());
+            }
+            listener.getLogger().println("Running configure: " + status.getReason());
+        } catch (IOException e) {
+            listener.getLogger().println("Running configure: cannot check fingerprint (" + e.getMessage() + ")");
+        }
+
+        final List<String> seedKey = seedDir == null ? null : seedKey(args.toList(), version);
+        final ArgumentListBuilder command = seedKey == null ? args
+                : seededCommand(args, buildPath, seedKey, preloadScript);
+
+        int result = 0;
+        try {
+            result = start(command).join();
+            lastExitCode = result;
+            updateFingerprint(buildPath, result == 0 ? args.toList() : null, preloadScript, version);
+            if (result == 0 && seedKey != null) {
+                saveSeed(buildPath, seedKey, preloadScript);
+            }
+        } catch (IOException e) {
+            listener.getLogger().println(e.getMessage());
+            return false;
+        }
+
+        return result == 0;
+    }
+
+    /**
+     * @return the configure command, before the cache seed is applied
+     */
+    static ArgumentListBuilder configureArgs(String cmakeBin,
+                                             String generator,
+                                             String preloadScript,
+                                             String theSourceDir,
+                                             String theInstallDir,
+                                             String theBuildType,
+                                             Map<String, String> definitions,
+                                             String cmakeArgs)
     {
         ArgumentListBuilder args = new ArgumentListBuilder();
 
@@ -63,89 +226,433 @@ public class CmakeLauncher {
 
         args.addKeyValuePair("-D", "CMAKE_BUILD_TYPE", theBuildType, false);
 
+        for (Map.Entry<String, String> definition : definitions.entrySet()) {
+            args.addKeyValuePair("-D", definition.getKey(), definition.getValue(), false);
+        }
+
         if (!cmakeArgs.isEmpty()) args.addTokenized(cmakeArgs);
 
         args.add(theSourceDir);
 
-        listener.getLogger().println(args.toString());
+        return args;
+    }
 
-        int result = 0;
+    /**
+     * @return the toolchain inputs that decide whether an earlier cache can seed a configure
+     */
+    private List<String> seedKey(List<String> args, String version) {
+        final List<String> key = new ArrayList<String>(args);
+        key.add(version);
+        for (String variable : SEED_VARIABLES) {
+            key.add(variable + "=" + Util.fixNull(envs.get(variable)));
+        }
+        return key;
+    }
+
+    /**
+     * @return the configure command, with the generated preload script of
+     *         the seed in place of the job's if there is one to use
+     */
+    private ArgumentListBuilder seededCommand(ArgumentListBuilder args, FilePath buildPath, List<String> seedKey,
+                                              String preloadScript) throws InterruptedException {
+        final CacheSeed.Prepared seed;
         try {
-            result = launcher.launch()
-                    .cmds(args)
-                    .envs(envs)
-                    .stdout(listener.getLogger())
-                    .stderr(listener.getLogger())
-                    .pwd(new FilePath(this.workSpace, this.buildDir))
-                    .join();
+            seed = CacheSeed.prepare(buildPath, seedDir, seedKey, preloadScript);
         } catch (IOException e) {
-            listener.getLogger().println(e.getMessage());
-            return false;
-        } catch (InterruptedException e) {
-            listener.getLogger().println(e.getMessage());
-            return false;
+            listener.getLogger().println("Cannot seed the cache: " + e.getMessage());
+            return args;
+        }
+        if (seed.getScript() == null) {
+            listener.getLogger().println("Not seeding the cache: " + seed.getReason());
+            return args;
         }
+        listener.getLogger().println("Seeding the cache with " + seed.getEntries()
+                + " entries of an earlier configure"
+                + (seed.getStale() > 0 ? ", leaving out " + seed.getStale() + " paths that no longer exist" : ""));
+        final List<String> list = args.toList();
+        final boolean preloaded = list.size() > 2 && list.get(1).equals("-C");
+        final ArgumentListBuilder command = new ArgumentListBuilder();
+        command.add(list.get(0));
+        command.add("-C", seed.getScript());
+        for (String arg : list.subList(preloaded ? 3 : 1, list.size())) {
+            command.add(arg);
+        }
+        return command;
+    }
 
-        return result == 0;
+    private void saveSeed(FilePath buildPath, List<String> seedKey, String preloadScript)
+            throws InterruptedException {
+        try {
+            final int entries = CacheSeed.save(buildPath, seedDir, seedKey, preloadScript);
+            listener.getLogger().println("Saved " + entries + " cache entries to seed later configures");
+        } catch (IOException e) {
+            listener.getLogger().println("Cannot save the cache seed: " + e.getMessage());
+        }
     }
 
-    public boolean launchMake(String makeCommand) {
+    /**
+     * Records the configure fingerprint, or clears it if <tt>args</tt> is <tt>null</tt>.
+     * Failing to do so only costs a configure in the next build.
+     */
+    private void updateFingerprint(FilePath buildPath, List<String> args, String preloadScript, String version)
+            throws InterruptedException {
+        try {
+            if (args != null) {
+                ConfigureFingerprint.record(buildPath, args, preloadScript, version);
+            } else {
+                ConfigureFingerprint.clear(buildPath);
+            }
+        } catch (IOException e) {
+            listener.getLogger().println("Cannot update configure fingerprint: " + e.getMessage());
+        }
+    }
+
+    /**
+     * @param parallelJobs number of parallel jobs to request from the build
+     *                     tool, or <tt>0</tt> to run the command as given
+     */
+    public boolean launchMake(String makeCommand, int parallelJobs) throws InterruptedException {
+        return launchMake(makeCommand, parallelJobs, Collections.<String>emptyList());
+    }
+
+    /**
+     * @param parallelJobs number of parallel jobs to request from the build
+     *                     tool, or <tt>0</tt> to run the command as given
+     * @param targets      targets to build, or an empty list for the default
+     *                     target; see {@link #acceptsTargets(String)}
+     */
+    public boolean launchMake(String makeCommand, int parallelJobs, List<String> targets)
+            throws InterruptedException {
+        beginLaunch();
         if (makeCommand.trim().isEmpty()) {
-            this.listener.getLogger().println("No Make command, skipping...");
-            return true;
+            return skipLaunch("No Make command, skipping...");
         }
 
         ArgumentListBuilder args = new ArgumentListBuilder();
         args.addTokenized(makeCommand);
+        for (String target : targets) {
+            args.add(target);
+        }
+        if (parallelJobs > 0) {
+            args = addParallelJobs(args, parallelJobs);
+        }
 
-        listener.getLogger().println(args.toString());
+        return run(args);
+    }
 
-        int result = 0;
+    /**
+     * Adds the parallel jobs flag understood by the build tool the command
+     * runs, unless the command already asks for a number of jobs.
+     */
+    ArgumentListBuilder addParallelJobs(ArgumentListBuilder args, int jobs) {
+        List<String> cmd = args.toList();
+        if (cmd.isEmpty()) {
+            return args;
+        }
+        for (String arg : cmd) {
+            if (arg.startsWith("-j") || arg.startsWith("--jobs") || arg.equals("--parallel")) {
+                return args;
+            }
+        }
+        String tool = toolName(cmd.get(0));
+        if (isMakeOrNinja(tool)) {
+            return args.add("-j" + jobs);
+        }
+        if (tool.startsWith("cmake") && cmd.contains("--build")) {
+            if (cmakeVersion.supportsBuildParallel()) {
+                ArgumentListBuilder parallel = new ArgumentListBuilder();
+                int nativeArgs = cmd.indexOf("--");
+                for (int i = 0; i < cmd.size(); i++) {
+                    if (i == nativeArgs) {
+                        parallel.add("--parallel").add(String.valueOf(jobs));
+                    }
+                    parallel.add(cmd.get(i));
+                }
+                if (nativeArgs < 0) {
+                    parallel.add("--parallel").add(String.valueOf(jobs));
+                }
+                return parallel;
+            }
+        }
+        return args;
+    }
+
+    /**
+     * Builds the given targets through <tt>cmake --build</tt>, independent of
+     * the generator.
+     *
+     * @param targets      targets to build, or an empty list for the default target
+     * @param parallelJobs number of parallel jobs, or <tt>0</tt> for the tool's default
+     */
+    public boolean launchCmakeBuild(String cmakeBin, String generator, String theBuildType,
+                                    List<String> targets, int parallelJobs) throws InterruptedException {
+        beginLaunch();
+        return run(cmakeBuildArgs(cmakeBin, generator, theBuildType, targets, parallelJobs));
+    }
+
+    /**
+     * Builds several configurations of a multi-config build tree through
+     * <tt>cmake --build --config</tt>, one after the other or all at once.
+     * One after the other stops at the first configuration that fails.
+     *
+     * @param parallelJobs number of parallel jobs of each build, or <tt>0</tt> for the tool's default
+     * @return the build phase of each configuration that was built, in the given order
+     */
+    public List<PhaseTiming> launchCmakeBuilds(String cmakeBin, String generator, List<String> configurations,
+                                               List<String> targets, int parallelJobs, boolean parallel)
+            throws InterruptedException {
+        final List<PhaseTiming> timings = new ArrayList<PhaseTiming>();
+        if (!parallel) {
+            for (String configuration : configurations) {
+                final long start = System.currentTimeMillis();
+                final boolean built = launchCmakeBuild(cmakeBin, generator, configuration, targets, parallelJobs);
+                timings.add(new PhaseTiming(CmakeBuildAction.BUILD, System.currentTimeMillis() - start,
+                        lastExitCode, built, false, configuration));
+                if (!built) {
+                    break;
+                }
+            }
+            return timings;
+        }
+
+        beginLaunch();
+        final long start = System.currentTimeMillis();
+        final Proc[] procs = new Proc[configurations.size()];
+        final long[] ends = new long[procs.length];
+        final int[] exitCodes = new int[procs.length];
+        Arrays.fill(exitCodes, PhaseTiming.NO_EXIT_CODE);
         try {
-            result = this.launcher.launch()
-                    .cmds(args)
-                    .envs(this.envs)
-                    .stdout(this.listener.getLogger())
-                    .stderr(this.listener.getLogger())
-                    .pwd(new FilePath(this.workSpace, this.buildDir))
-                    .join();
+            for (int i = 0; i < procs.length; i++) {
+                ArgumentListBuilder args = cmakeBuildArgs(cmakeBin, generator, configurations.get(i), targets,
+                        parallelJobs);
+                listener.getLogger().println(args.toString());
+                procs[i] = start(args);
+            }
+            // poll so each configuration gets its own end time
+            int running = procs.length;
+            while (running > 0) {
+                for (int i = 0; i < procs.length; i++) {
+                    if (ends[i] == 0 && !procs[i].isAlive()) {
+                        exitCodes[i] = procs[i].join();
+                        ends[i] = System.currentTimeMillis();
+                        running--;
+                    }
+                }
+                if (running > 0) {
+                    Thread.sleep(POLL_MILLIS);
+                }
+            }
         } catch (IOException e) {
             listener.getLogger().println(e.getMessage());
-            return false;
+            kill(procs, ends);
         } catch (InterruptedException e) {
-            listener.getLogger().println(e.getMessage());
+            kill(procs, ends);
+            throw e;
+        }
+        for (int i = 0; i < procs.length; i++) {
+            final long end = ends[i] != 0 ? ends[i] : System.currentTimeMillis();
+            timings.add(new PhaseTiming(CmakeBuildAction.BUILD, end - start, exitCodes[i], exitCodes[i] == 0,
+                    false, configurations.get(i)));
+        }
+        return timings;
+    }
+
+    /**
+     * Kills the builds still running, all of them even if interrupted on the way.
+     */
+    private void kill(Proc[] procs, long[] ends) {
+        boolean interrupted = false;
+        for (int i = 0; i < procs.length; i++) {
+            if (procs[i] != null && ends[i] == 0) {
+                try {
+                    procs[i].kill();
+                } catch (IOException e) {
+                    listener.getLogger().println(e.getMessage());
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private ArgumentListBuilder cmakeBuildArgs(String cmakeBin, String generator, String theBuildType,
+                                               List<String> targets, int parallelJobs) {
+        ArgumentListBuilder args = new ArgumentListBuilder();
+        args.add(cmakeBin, "--build", new FilePath(this.workSpace, this.buildDir).getRemote());
+
+        if (CmakeGenerator.isMultiConfig(generator) && theBuildType != null && theBuildType.length() > 0) {
+            args.add("--config", theBuildType);
+        }
+
+        final List<String> nativeArgs = new ArrayList<String>();
+        if (targets.size() > 1 && !cmakeVersion.supportsBuildTargets()) {
+            // older versions only keep the last --target, make and ninja take them all
+            nativeArgs.addAll(targets);
+        } else {
+            for (String target : targets) {
+                args.add("--target", target);
+            }
+        }
+
+        if (parallelJobs > 0) {
+            if (cmakeVersion.supportsBuildParallel()) {
+                args.add("--parallel", String.valueOf(parallelJobs));
+            } else if (CmakeGenerator.acceptsJobsFlag(generator)) {
+                nativeArgs.add(0, "-j" + parallelJobs);
+            }
+        }
+        if (!nativeArgs.isEmpty()) {
+            args.add("--");
+            for (String arg : nativeArgs) {
+                args.add(arg);
+            }
+        }
+        return args;
+    }
+
+    /**
+     * Runs the tests of the build directory with <tt>ctest -T Test</tt>,
+     * which records the results in <tt>Testing/&lt;tag&gt;/Test.xml</tt>.
+     *
+     * @param parallelJobs number of tests to run in parallel, or <tt>0</tt> to run them one by one
+     * @param shard        the 1-based shard and the number of shards, or <tt>null</tt> to run all tests
+     * @param ctestArgs    further arguments, e.g. to select tests by label
+     */
+    public boolean launchCtest(String ctestBin, String generator, String theBuildType, int parallelJobs,
+                               int[] shard, String ctestArgs) throws InterruptedException {
+        beginLaunch();
+        ArgumentListBuilder args = new ArgumentListBuilder();
+        args.add(ctestBin, "-T", "Test", "--no-compress-output");
+
+        if (CmakeGenerator.isMultiConfig(generator) && theBuildType != null && theBuildType.length() > 0) {
+            args.add("-C", theBuildType);
+        }
+        if (parallelJobs > 0) {
+            args.add("-j" + parallelJobs);
+        }
+        if (shard != null) {
+            // every n-th test starting with the shard's own
+            args.add("-I", shard[0] + ",," + shard[1]);
+        }
+        if (ctestArgs != null && ctestArgs.trim().length() > 0) {
+            args.addTokenized(ctestArgs);
+        }
+
+        return run(args);
+    }
+
+    /**
+     * @return the ctest executable installed with the given cmake executable
+     */
+    public static String ctestBin(String cmakeBin) {
+        int separator = Math.max(cmakeBin.lastIndexOf('/'), cmakeBin.lastIndexOf('\\'));
+        String name = cmakeBin.substring(separator + 1);
+        if (!name.toLowerCase(Locale.ENGLISH).startsWith("cmake")) {
+            return "ctest";
+        }
+        return cmakeBin.substring(0, separator + 1) + "ctest" + name.substring("cmake".length());
+    }
+
+    /**
+     * Installs through <tt>cmake --install</tt>, or the <tt>install</tt>
+     * target on cmake versions that lack it.
+     */
+    public boolean launchCmakeInstall(String cmakeBin, String generator, String installDir, String theBuildType)
+            throws InterruptedException {
+        beginLaunch();
+        if (installDir.isEmpty()) {
+            return skipLaunch("Skipping install...");
+        }
+
+        final String dir = new FilePath(this.workSpace, this.buildDir).getRemote();
+        final boolean multiConfig = CmakeGenerator.isMultiConfig(generator)
+                && theBuildType != null && theBuildType.length() > 0;
+
+        ArgumentListBuilder args = new ArgumentListBuilder();
+        if (cmakeVersion.supportsInstall()) {
+            args.add(cmakeBin, "--install", dir);
+        } else {
+            args.add(cmakeBin, "--build", dir, "--target", "install");
+        }
+        if (multiConfig) {
+            args.add("--config", theBuildType);
+        }
+
+        return run(args);
+    }
+
+    private static String toolName(String executable) {
+        String tool = new File(executable).getName().toLowerCase(Locale.ENGLISH);
+        if (tool.endsWith(".exe")) {
+            tool = tool.substring(0, tool.length() - 4);
+        }
+        return tool;
+    }
+
+    private static boolean isMakeTool(String tool) {
+        return tool.equals("make") || tool.equals("gmake") || tool.equals("mingw32-make");
+    }
+
+    /** make and ninja, which also take the targets to build as arguments. */
+    private static boolean isMakeOrNinja(String tool) {
+        return isMakeTool(tool) || tool.equals("ninja") || tool.equals("ninja-build");
+    }
+
+    /**
+     * @return whether targets to build can be added to the given command
+     */
+    public static boolean acceptsTargets(String command) {
+        ArgumentListBuilder args = new ArgumentListBuilder();
+        args.addTokenized(command);
+        List<String> cmd = args.toList();
+        if (cmd.isEmpty()) {
             return false;
         }
+        return isMakeOrNinja(toolName(cmd.get(0)));
+    }
 
-        return (result == 0);
+    /**
+     * @return whether the given command runs GNU make
+     */
+    public static boolean runsMake(String command) {
+        return makeProgram(command) != null;
     }
 
-    public boolean launchInstall(String installDir, String installCommand) {
+    /**
+     * @return the GNU make executable the given command runs, or <tt>null</tt> if it runs another tool
+     */
+    public static String makeProgram(String command) {
+        ArgumentListBuilder args = new ArgumentListBuilder();
+        args.addTokenized(command);
+        List<String> cmd = args.toList();
+        return !cmd.isEmpty() && isMakeTool(toolName(cmd.get(0))) ? cmd.get(0) : null;
+    }
+
+    public boolean launchInstall(String installDir, String installCommand) throws InterruptedException {
+        beginLaunch();
         if (installDir.isEmpty() || installCommand.trim().isEmpty()) {
-            this.listener.getLogger().println("Skipping Make install...");
-            return true;
+            return skipLaunch("Skipping Make install...");
         }
 
         ArgumentListBuilder args = new ArgumentListBuilder();
         args.addTokenized(installCommand);
 
+        return run(args);
+    }
+
+    private boolean run(ArgumentListBuilder args) throws InterruptedException {
         listener.getLogger().println(args.toString());
 
         int result = 0;
         try {
-            result = this.launcher.launch()
-                    .cmds(args)
-                    .envs(this.envs)
-                    .stdout(this.listener.getLogger())
-                    .stderr(this.listener.getLogger())
-                    .pwd(new FilePath(this.workSpace, this.buildDir))
-                    .join();
+            result = start(args).join();
+            lastExitCode = result;
         } catch (IOException e) {
             listener.getLogger().println(e.getMessage());
             return false;
-        } catch (InterruptedException e) {
-            listener.getLogger().println(e.getMessage());
-            return false;
         }
 
         return (result == 0);
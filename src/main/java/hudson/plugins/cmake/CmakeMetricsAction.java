@@ -0,0 +1,45 @@
+package hudson.plugins.cmake;
+
+import hudson.Extension;
+import hudson.model.Api;
+import hudson.model.RootAction;
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+
+/**
+ * Exposes the {@link BuildMetrics} of the controller in the Prometheus
+ * text format at <tt>/cmakeMetrics/</tt> and through the remote API at
+ * <tt>/cmakeMetrics/api/json</tt>.
+ */
+@Extension
+public class CmakeMetricsAction implements RootAction {
+
+    public void doIndex(StaplerRequest req, StaplerResponse rsp) throws IOException {
+        rsp.setContentType("text/plain; version=0.0.4; charset=UTF-8");
+        final PrintWriter out = rsp.getWriter();
+        BuildMetrics.get().writePrometheus(out);
+        out.flush();
+    }
+
+    public Api getApi() {
+        return new Api(BuildMetrics.get());
+    }
+
+    /**
+     * Not shown in the side panel; the page is meant for monitoring systems.
+     */
+    public String getIconFileName() {
+        return null;
+    }
+
+    public String getDisplayName() {
+        return "CMake Build Metrics";
+    }
+
+    public String getUrlName() {
+        return "cmakeMetrics";
+    }
+}
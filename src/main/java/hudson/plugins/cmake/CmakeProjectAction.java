@@ -0,0 +1,182 @@
+package hudson.plugins.cmake;
+
+import hudson.model.AbstractBuild;
+import hudson.model.AbstractProject;
+import hudson.model.Action;
+import hudson.model.Api;
+import hudson.util.ChartUtil.NumberOnlyBuildLabel;
+import hudson.util.DataSetBuilder;
+import hudson.util.Graph;
+import org.jfree.chart.ChartFactory;
+import org.jfree.chart.JFreeChart;
+import org.jfree.chart.plot.PlotOrientation;
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Trend of the cmake phase timings across the recent builds of a job,
+ * shown as a graph on the job page and available at <tt>.../cmakeTrend/api/json</tt>.
+ */
+@ExportedBean
+public class CmakeProjectAction implements Action {
+
+    /** Number of recent builds considered for the trend. */
+    static final int MAX_BUILDS = 30;
+
+    private final AbstractProject<?, ?> project;
+
+    public CmakeProjectAction(AbstractProject<?, ?> project) {
+        this.project = project;
+    }
+
+    public AbstractProject<?, ?> getProject() {
+        return project;
+    }
+
+    /**
+     * Timings of one build.
+     */
+    @ExportedBean(defaultVisibility = 2)
+    public static final class BuildTimings {
+        private final int number;
+        private final List<PhaseTiming> phases;
+        private final CompilerCacheStats compilerCache;
+
+        BuildTimings(int number, List<PhaseTiming> phases, CompilerCacheStats compilerCache) {
+            this.number = number;
+            this.phases = phases;
+            this.compilerCache = compilerCache;
+        }
+
+        @Exported
+        public int getNumber() {
+            return number;
+        }
+
+        @Exported
+        public List<PhaseTiming> getPhases() {
+            return phases;
+        }
+
+        /**
+         * @return the compiler cache counts of the build, or <tt>null</tt> if it used no cache
+         */
+        @Exported
+        public CompilerCacheStats getCompilerCache() {
+            return compilerCache;
+        }
+    }
+
+    /**
+     * @return the timings of the recent builds, newest first
+     */
+    @Exported
+    public List<BuildTimings> getBuilds() {
+        List<BuildTimings> result = new ArrayList<BuildTimings>();
+        for (AbstractBuild<?, ?> build : recentBuilds()) {
+            CompilerCacheAction cache = build.getAction(CompilerCacheAction.class);
+            result.add(new BuildTimings(build.getNumber(), build.getAction(CmakeBuildAction.class).getPhases(),
+                    cache != null ? cache.getStats() : null));
+        }
+        return result;
+    }
+
+    private List<AbstractBuild<?, ?>> recentBuilds() {
+        List<AbstractBuild<?, ?>> builds = new ArrayList<AbstractBuild<?, ?>>();
+        for (AbstractBuild<?, ?> build = project.getLastBuild();
+             build != null && builds.size() < MAX_BUILDS;
+             build = build.getPreviousBuild()) {
+            if (build.getAction(CmakeBuildAction.class) != null) {
+                builds.add(build);
+            }
+        }
+        return builds;
+    }
+
+    public boolean hasData() {
+        return !recentBuilds().isEmpty();
+    }
+
+    /**
+     * Renders the phase durations of the recent builds in seconds.
+     */
+    public void doGraph(StaplerRequest req, StaplerResponse rsp) throws IOException {
+        final DataSetBuilder<String, NumberOnlyBuildLabel> data = new DataSetBuilder<String, NumberOnlyBuildLabel>();
+        for (AbstractBuild<?, ?> build : recentBuilds()) {
+            CmakeBuildAction action = build.getAction(CmakeBuildAction.class);
+            NumberOnlyBuildLabel label = new NumberOnlyBuildLabel(build);
+            for (String phase : new String[] {
+                    CmakeBuildAction.PATH_PREPARATION,
+                    CmakeBuildAction.SNAPSHOT_RESTORE,
+                    CmakeBuildAction.CONFIGURE,
+                    CmakeBuildAction.BUILD,
+                    CmakeBuildAction.TEST,
+                    CmakeBuildAction.INSTALL,
+                    CmakeBuildAction.INSTALL_SYNC,
+                    CmakeBuildAction.SNAPSHOT_SAVE,
+                    CmakeBuildAction.ABORT}) {
+                data.add(action.getDurationMillis(phase) / 1000.0, phase, label);
+            }
+        }
+        new Graph(-1, 500, 200) {
+            @Override
+            protected JFreeChart createGraph() {
+                return ChartFactory.createStackedAreaChart(null, null, "seconds", data.build(),
+                        PlotOrientation.VERTICAL, true, true, false);
+            }
+        }.doPng(req, rsp);
+    }
+
+    public boolean hasCacheData() {
+        for (AbstractBuild<?, ?> build : recentBuilds()) {
+            if (build.getAction(CompilerCacheAction.class) != null) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Renders the compiler cache hits, misses and uncacheable calls of the recent builds.
+     */
+    public void doCacheGraph(StaplerRequest req, StaplerResponse rsp) throws IOException {
+        final DataSetBuilder<String, NumberOnlyBuildLabel> data = new DataSetBuilder<String, NumberOnlyBuildLabel>();
+        for (AbstractBuild<?, ?> build : recentBuilds()) {
+            CompilerCacheAction action = build.getAction(CompilerCacheAction.class);
+            CompilerCacheStats stats = action != null ? action.getStats() : null;
+            NumberOnlyBuildLabel label = new NumberOnlyBuildLabel(build);
+            data.add(stats != null ? stats.getHits() : 0, "hits", label);
+            data.add(stats != null ? stats.getMisses() : 0, "misses", label);
+            data.add(stats != null ? stats.getUncacheable() : 0, "uncacheable", label);
+        }
+        new Graph(-1, 500, 200) {
+            @Override
+            protected JFreeChart createGraph() {
+                return ChartFactory.createStackedAreaChart(null, null, "compilations", data.build(),
+                        PlotOrientation.VERTICAL, true, true, false);
+            }
+        }.doPng(req, rsp);
+    }
+
+    public Api getApi() {
+        return new Api(this);
+    }
+
+    public String getIconFileName() {
+        return null;
+    }
+
+    public String getDisplayName() {
+        return "CMake Phase Trend";
+    }
+
+    public String getUrlName() {
+        return "cmakeTrend";
+    }
+}
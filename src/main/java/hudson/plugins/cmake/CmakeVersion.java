@@ -0,0 +1,127 @@
+package hudson.plugins.cmake;
+
+import java.io.Serializable;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The version of a <tt>cmake</tt> executable together with the features
+ * later build phases may rely on.
+ */
+public final class CmakeVersion implements Serializable, Comparable<CmakeVersion> {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final Pattern VERSION_PATTERN =
+            Pattern.compile("cmake(?:3)? version (\\d+)\\.(\\d+)(?:\\.(\\d+))?");
+
+    /** Used when the output of <tt>cmake --version</tt> cannot be understood. */
+    public static final CmakeVersion UNKNOWN = new CmakeVersion(0, 0, 0, "unknown");
+
+    private final int major;
+    private final int minor;
+    private final int patch;
+    private final String text;
+
+    public CmakeVersion(int major, int minor, int patch, String text) {
+        this.major = major;
+        this.minor = minor;
+        this.patch = patch;
+        this.text = text;
+    }
+
+    /**
+     * Parses the output of <tt>cmake --version</tt>, e.g. <tt>cmake version 3.22.1</tt>.
+     */
+    public static CmakeVersion parse(String versionOutput) {
+        if (versionOutput == null) {
+            return UNKNOWN;
+        }
+        Matcher m = VERSION_PATTERN.matcher(versionOutput);
+        if (!m.find()) {
+            return UNKNOWN;
+        }
+        int patch = m.group(3) != null ? Integer.parseInt(m.group(3)) : 0;
+        return new CmakeVersion(Integer.parseInt(m.group(1)), Integer.parseInt(m.group(2)), patch,
+                m.group(0).substring(m.group(0).lastIndexOf(' ') + 1));
+    }
+
+    public int getMajor() {
+        return major;
+    }
+
+    public int getMinor() {
+        return minor;
+    }
+
+    public int getPatch() {
+        return patch;
+    }
+
+    public boolean isKnown() {
+        return this != UNKNOWN && major > 0;
+    }
+
+    public boolean isAtLeast(int major, int minor) {
+        return this.major > major || (this.major == major && this.minor >= minor);
+    }
+
+    /** <tt>cmake --build &lt;dir&gt;</tt> */
+    public boolean supportsBuild() {
+        return isAtLeast(2, 8);
+    }
+
+    /** <tt>cmake --build &lt;dir&gt; --parallel [N]</tt> */
+    public boolean supportsBuildParallel() {
+        return isAtLeast(3, 12);
+    }
+
+    /** <tt>cmake --install &lt;dir&gt;</tt> */
+    public boolean supportsInstall() {
+        return isAtLeast(3, 15);
+    }
+
+    /** <tt>cmake --build &lt;dir&gt; --target a --target b</tt> */
+    public boolean supportsBuildTargets() {
+        return isAtLeast(3, 15);
+    }
+
+    /** The CMake File API (<tt>.cmake/api/v1</tt>). */
+    public boolean supportsFileApi() {
+        return isAtLeast(3, 14);
+    }
+
+    /** The "Ninja Multi-Config" generator. */
+    public boolean supportsNinjaMultiConfig() {
+        return isAtLeast(3, 17);
+    }
+
+    public int compareTo(CmakeVersion o) {
+        if (major != o.major) {
+            return major < o.major ? -1 : 1;
+        }
+        if (minor != o.minor) {
+            return minor < o.minor ? -1 : 1;
+        }
+        return patch < o.patch ? -1 : (patch == o.patch ? 0 : 1);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof CmakeVersion)) {
+            return false;
+        }
+        CmakeVersion other = (CmakeVersion) obj;
+        return major == other.major && minor == other.minor && patch == other.patch;
+    }
+
+    @Override
+    public int hashCode() {
+        return (major * 31 + minor) * 31 + patch;
+    }
+
+    @Override
+    public String toString() {
+        return text;
+    }
+}
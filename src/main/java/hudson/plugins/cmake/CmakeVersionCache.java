@@ -0,0 +1,188 @@
+package hudson.plugins.cmake;
+
+import hudson.model.Node;
+import hudson.model.TaskListener;
+import hudson.remoting.Callable;
+import hudson.remoting.VirtualChannel;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Serializable;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Remembers which <tt>cmake</tt> executable a name resolves to on each node
+ * and which version it is, so <tt>cmake --version</tt> only has to run again
+ * when the binary itself changes.
+ *
+ * <p>
+ * Each lookup costs a single remoting call that resolves the executable
+ * on the node and compares its size and modification time with the cached
+ * entry; the version is only probed when those differ. An entry is never
+ * used for a binary that changed, so there is nothing to invalidate.
+ */
+public final class CmakeVersionCache {
+
+    private static final Map<String, Entry> CACHE = new ConcurrentHashMap<String, Entry>();
+
+    private CmakeVersionCache() {
+    }
+
+    /**
+     * A resolved <tt>cmake</tt> executable on a node.
+     */
+    public static final class Entry implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final String path;
+        private final long lastModified;
+        private final long size;
+        private final CmakeVersion version;
+
+        Entry(String path, long lastModified, long size, CmakeVersion version) {
+            this.path = path;
+            this.lastModified = lastModified;
+            this.size = size;
+            this.version = version;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public CmakeVersion getVersion() {
+            return version;
+        }
+
+        boolean isSameBinary(File file) {
+            return file.getAbsolutePath().equals(path)
+                    && file.lastModified() == lastModified
+                    && file.length() == size;
+        }
+
+        boolean isSameBinary(Entry other) {
+            return other.path.equals(path)
+                    && other.lastModified == lastModified
+                    && other.size == size;
+        }
+    }
+
+    /**
+     * Resolves <tt>cmakeBin</tt> on the given node and returns its version,
+     * probing the executable only if it is not cached or has changed.
+     *
+     * @param searchPath the <tt>PATH</tt> of the build, used to resolve a bare executable name
+     * @throws IOException if the executable cannot be found or run
+     */
+    public static Entry get(Node node, String cmakeBin, String searchPath, TaskListener listener)
+            throws IOException, InterruptedException {
+        VirtualChannel channel = node.getChannel();
+        if (channel == null) {
+            throw new IOException("Node " + node.getDisplayName() + " is offline");
+        }
+        final String key = node.getNodeName() + '\0' + cmakeBin + '\0' + searchPath;
+        final Entry cached = CACHE.get(key);
+        RemoteCallCounter.increment();
+        final Entry entry = channel.call(new Probe(cmakeBin, searchPath, cached));
+        if (cached != null && cached.isSameBinary(entry)) {
+            listener.getLogger().println("cmake version " + cached.getVersion() + " (" + cached.getPath() + ", cached)");
+            return cached;
+        }
+        listener.getLogger().println("cmake version " + entry.getVersion() + " (" + entry.getPath() + ")");
+        CACHE.put(key, entry);
+        return entry;
+    }
+
+    private static final class Probe implements Callable<Entry, IOException> {
+        private static final long serialVersionUID = 1L;
+
+        private final String cmakeBin;
+        private final String searchPath;
+        private final Entry cached;
+
+        Probe(String cmakeBin, String searchPath, Entry cached) {
+            this.cmakeBin = cmakeBin;
+            this.searchPath = searchPath;
+            this.cached = cached;
+        }
+
+        public Entry call() throws IOException {
+            File file = resolve(cmakeBin, searchPath);
+            if (file == null) {
+                throw new IOException("Cannot find cmake executable '" + cmakeBin + "'");
+            }
+            if (cached != null && cached.isSameBinary(file)) {
+                return cached;
+            }
+            return new Entry(file.getAbsolutePath(), file.lastModified(), file.length(),
+                    CmakeVersion.parse(runVersion(file)));
+        }
+    }
+
+    /**
+     * Runs <tt>&lt;file&gt; --version</tt> on this machine.
+     *
+     * @return its output
+     */
+    static String runVersion(File file) throws IOException {
+        Process process = new ProcessBuilder(file.getAbsolutePath(), "--version")
+                .redirectErrorStream(true)
+                .start();
+        process.getOutputStream().close();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        InputStream in = process.getInputStream();
+        try {
+            byte[] buf = new byte[1024];
+            int n;
+            while ((n = in.read(buf)) >= 0) {
+                out.write(buf, 0, n);
+            }
+        } finally {
+            in.close();
+        }
+        try {
+            process.waitFor();
+        } catch (InterruptedException e) {
+            process.destroy();
+            throw new IOException("Interrupted while running " + file + " --version");
+        }
+        return out.toString();
+    }
+
+    /**
+     * Resolves an executable name the way a shell would, using the given
+     * <tt>PATH</tt>. Must be called on the node the executable lives on.
+     *
+     * @return the executable, or <tt>null</tt> if it cannot be found
+     */
+    static File resolve(String executable, String searchPath) {
+        File file = new File(executable);
+        if (executable.indexOf('/') >= 0 || executable.indexOf(File.separatorChar) >= 0) {
+            return file.isFile() ? file.getAbsoluteFile() : null;
+        }
+        String path = searchPath != null ? searchPath : System.getenv("PATH");
+        if (path == null) {
+            return null;
+        }
+        boolean windows = File.pathSeparatorChar == ';';
+        for (String dir : path.split(File.pathSeparator)) {
+            if (dir.length() == 0) {
+                continue;
+            }
+            File candidate = new File(dir, executable);
+            if (candidate.isFile()) {
+                return candidate.getAbsoluteFile();
+            }
+            if (windows) {
+                candidate = new File(dir, executable + ".exe");
+                if (candidate.isFile()) {
+                    return candidate.getAbsoluteFile();
+                }
+            }
+        }
+        return null;
+    }
+}
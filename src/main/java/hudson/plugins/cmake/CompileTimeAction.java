@@ -0,0 +1,100 @@
+package hudson.plugins.cmake;
+
+import hudson.model.AbstractBuild;
+import hudson.model.Action;
+import hudson.model.Api;
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+/**
+ * The compile time hotspots of a build, compared with the previous build
+ * that has a report. Available at <tt>.../cmakeCompileTime/api/json</tt>.
+ */
+@ExportedBean
+public class CompileTimeAction implements Action {
+
+    private final CompileTimeReport report;
+    private final CompileTimeReport previous;
+    private final int previousNumber;
+
+    public CompileTimeAction(CompileTimeReport report, AbstractBuild<?, ?> build) {
+        this.report = report;
+        CompileTimeReport last = null;
+        int lastNumber = -1;
+        for (AbstractBuild<?, ?> b = build.getPreviousBuild(); b != null; b = b.getPreviousBuild()) {
+            CompileTimeAction action = b.getAction(CompileTimeAction.class);
+            if (action != null) {
+                last = action.getReport();
+                lastNumber = b.getNumber();
+                break;
+            }
+        }
+        this.previous = last;
+        this.previousNumber = lastNumber;
+    }
+
+    @Exported
+    public CompileTimeReport getReport() {
+        return report;
+    }
+
+    @Exported
+    public CompileTimeReport getPrevious() {
+        return previous;
+    }
+
+    /**
+     * @return the number of the build this one is compared with, or <tt>-1</tt>
+     */
+    @Exported
+    public int getPreviousNumber() {
+        return previousNumber;
+    }
+
+    /**
+     * @return the change in milliseconds of a target or translation unit
+     *         since the previous build, or <tt>null</tt> if it was not
+     *         among the slowest items there
+     */
+    public Long getDelta(String name) {
+        if (previous == null) {
+            return null;
+        }
+        Long now = find(report, name);
+        Long old = find(previous, name);
+        if (now == null || old == null) {
+            return null;
+        }
+        return now.longValue() - old.longValue();
+    }
+
+    private static Long find(CompileTimeReport report, String name) {
+        for (CompileTimeReport.Item item : report.getSlowestTargets()) {
+            if (item.getName().equals(name)) {
+                return item.getMillis();
+            }
+        }
+        for (CompileTimeReport.Item item : report.getSlowestUnits()) {
+            if (item.getName().equals(name)) {
+                return item.getMillis();
+            }
+        }
+        return null;
+    }
+
+    public Api getApi() {
+        return new Api(this);
+    }
+
+    public String getIconFileName() {
+        return "clock.gif";
+    }
+
+    public String getDisplayName() {
+        return "Compile Time Hotspots";
+    }
+
+    public String getUrlName() {
+        return "cmakeCompileTime";
+    }
+}
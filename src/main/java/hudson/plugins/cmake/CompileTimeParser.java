@@ -0,0 +1,410 @@
+package hudson.plugins.cmake;
+
+import hudson.FilePath;
+import hudson.remoting.VirtualChannel;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Reads the per-step timings a build leaves behind in the build tree and
+ * condenses them into a {@link CompileTimeReport}.
+ *
+ * <p>
+ * With Ninja the timings come from <tt>.ninja_log</tt>; other generators
+ * are covered when the compiler writes <tt>-ftime-trace</tt> JSON files
+ * next to the object files. Both are read as streams and only a fixed
+ * number of entries is kept, so the memory needed does not depend on the
+ * number of steps.
+ */
+public final class CompileTimeParser {
+
+    static final String NINJA_LOG = ".ninja_log";
+
+    /** Maximum number of distinct targets tracked; the rest is summed up as "(other)". */
+    static final int MAX_TARGETS = 10000;
+
+    private CompileTimeParser() {
+    }
+
+    /**
+     * Position in the build tree's timing data before a build, so only the
+     * steps of that build are reported.
+     */
+    public static final class Mark implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        final long ninjaLogLength;
+        final long startedAt;
+
+        Mark(long ninjaLogLength, long startedAt) {
+            this.ninjaLogLength = ninjaLogLength;
+            this.startedAt = startedAt;
+        }
+    }
+
+    public static Mark mark(FilePath buildDir) throws IOException, InterruptedException {
+        RemoteCallCounter.increment();
+        return buildDir.act(new FilePath.FileCallable<Mark>() {
+            private static final long serialVersionUID = 1L;
+
+            public Mark invoke(File dir, VirtualChannel channel) {
+                File log = new File(dir, NINJA_LOG);
+                return new Mark(log.isFile() ? log.length() : 0, System.currentTimeMillis());
+            }
+        });
+    }
+
+    /**
+     * @return the report of the steps run since <tt>mark</tt>
+     */
+    public static CompileTimeReport parse(FilePath buildDir, final Mark mark, final int topN)
+            throws IOException, InterruptedException {
+        RemoteCallCounter.increment();
+        return buildDir.act(new FilePath.FileCallable<CompileTimeReport>() {
+            private static final long serialVersionUID = 1L;
+
+            public CompileTimeReport invoke(File dir, VirtualChannel channel) throws IOException {
+                File log = new File(dir, NINJA_LOG);
+                if (log.isFile()) {
+                    return parseNinjaLog(log, mark.ninjaLogLength, topN);
+                }
+                return parseTimeTraces(dir, mark.startedAt, topN);
+            }
+        });
+    }
+
+    /**
+     * Collects step timings, keeping only the top entries and per-target totals.
+     */
+    static final class Accumulator {
+        private final int topN;
+        private final PriorityQueue<CompileTimeReport.Item> units;
+        private final Map<String, long[]> targets = new HashMap<String, long[]>();
+        private final CriticalPath criticalPath = new CriticalPath();
+        private long steps;
+        private long firstStart = Long.MAX_VALUE;
+        private long lastEnd = Long.MIN_VALUE;
+
+        Accumulator(int topN) {
+            this.topN = topN;
+            // reversed, so the head is the fastest of the kept entries
+            this.units = new PriorityQueue<CompileTimeReport.Item>(topN + 1,
+                    Collections.reverseOrder());
+        }
+
+        void add(String output, long start, long end) {
+            final long millis = end - start;
+            steps++;
+            firstStart = Math.min(firstStart, start);
+            lastEnd = Math.max(lastEnd, end);
+            criticalPath.add(start, end);
+
+            if (units.size() < topN || units.peek().getMillis() < millis) {
+                units.add(new CompileTimeReport.Item(output, millis));
+                if (units.size() > topN) {
+                    units.poll();
+                }
+            }
+
+            String target = targetOf(output);
+            long[] total = targets.get(target);
+            if (total == null) {
+                if (targets.size() >= MAX_TARGETS) {
+                    target = "(other)";
+                    total = targets.get(target);
+                }
+                if (total == null) {
+                    total = new long[1];
+                    targets.put(target, total);
+                }
+            }
+            total[0] += millis;
+        }
+
+        CompileTimeReport toReport(String source, boolean criticalPathKnown) {
+            List<CompileTimeReport.Item> slowestUnits = new ArrayList<CompileTimeReport.Item>(units);
+            Collections.sort(slowestUnits);
+
+            PriorityQueue<CompileTimeReport.Item> slowest = new PriorityQueue<CompileTimeReport.Item>(topN + 1,
+                    Collections.reverseOrder());
+            for (Map.Entry<String, long[]> e : targets.entrySet()) {
+                slowest.add(new CompileTimeReport.Item(e.getKey(), e.getValue()[0]));
+                if (slowest.size() > topN) {
+                    slowest.poll();
+                }
+            }
+            List<CompileTimeReport.Item> slowestTargets = new ArrayList<CompileTimeReport.Item>(slowest);
+            Collections.sort(slowestTargets);
+
+            return new CompileTimeReport(source, steps,
+                    steps > 0 ? lastEnd - firstStart : 0,
+                    criticalPathKnown ? criticalPath.length() : -1,
+                    slowestTargets, slowestUnits);
+        }
+    }
+
+    /**
+     * Length of the longest chain of steps that ran one after the other,
+     * computed on a fixed time grid with a Fenwick tree of prefix maxima so
+     * memory grows with the duration of the build rather than the number of steps.
+     */
+    static final class CriticalPath {
+        private static final long RESOLUTION_MILLIS = 100;
+        /** Twelve hours at the resolution above; later steps are clamped to the last slot. */
+        private static final int MAX_SLOTS = 12 * 60 * 60 * 10;
+
+        private long[] tree = new long[1024];
+        private long longest;
+
+        void add(long start, long end) {
+            long chain = prefixMax(slot(start)) + (end - start);
+            longest = Math.max(longest, chain);
+            update(slot(end), chain);
+        }
+
+        long length() {
+            return longest;
+        }
+
+        private static int slot(long millis) {
+            return (int) Math.min(Math.max(0, millis / RESOLUTION_MILLIS), MAX_SLOTS - 1);
+        }
+
+        private long prefixMax(int slot) {
+            long max = 0;
+            for (int i = Math.min(slot + 1, tree.length - 1); i > 0; i -= i & -i) {
+                max = Math.max(max, tree[i]);
+            }
+            return max;
+        }
+
+        private void update(int slot, long value) {
+            if (slot + 1 >= tree.length) {
+                grow(slot + 2);
+            }
+            for (int i = slot + 1; i < tree.length; i += i & -i) {
+                tree[i] = Math.max(tree[i], value);
+            }
+        }
+
+        /**
+         * Growing a prefix-max Fenwick tree only needs each existing node
+         * pushed to its parents within the new size.
+         */
+        private void grow(int minSize) {
+            int size = tree.length;
+            while (size < minSize) {
+                size *= 2;
+            }
+            long[] old = tree;
+            tree = new long[size];
+            for (int i = 1; i < old.length; i++) {
+                if (old[i] == 0) {
+                    continue;
+                }
+                for (int j = i; j < size; j += j & -j) {
+                    tree[j] = Math.max(tree[j], old[i]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Parses the entries appended to <tt>.ninja_log</tt> after <tt>offset</tt>.
+     * Entries are written as steps finish and ninja restarts its clock for
+     * every run, so when end times jump back only the last run is kept.
+     */
+    static CompileTimeReport parseNinjaLog(File log, long offset, int topN) throws IOException {
+        InputStream in = new FileInputStream(log);
+        try {
+            if (offset > log.length()) {
+                // the log was recompacted; ninja's restarted clock tells the runs apart
+                offset = 0;
+            }
+            long skipped = 0;
+            while (skipped < offset) {
+                long n = in.skip(offset - skipped);
+                if (n <= 0) {
+                    break;
+                }
+                skipped += n;
+            }
+            BufferedReader r = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+            Accumulator acc = new Accumulator(topN);
+            String line;
+            long lastStart = -1;
+            long lastEnd = -1;
+            long maxEnd = -1;
+            while ((line = r.readLine()) != null) {
+                if (line.length() == 0 || line.charAt(0) == '#') {
+                    continue;
+                }
+                String[] fields = line.split("\t", 5);
+                if (fields.length < 4) {
+                    continue;
+                }
+                long start;
+                long end;
+                try {
+                    start = Long.parseLong(fields[0]);
+                    end = Long.parseLong(fields[1]);
+                } catch (NumberFormatException e) {
+                    continue;
+                }
+                if (start == lastStart && end == lastEnd) {
+                    // another output of the same edge
+                    continue;
+                }
+                if (end < maxEnd) {
+                    acc = new Accumulator(topN);
+                    maxEnd = -1;
+                }
+                lastStart = start;
+                lastEnd = end;
+                maxEnd = Math.max(maxEnd, end);
+                acc.add(fields[3], start, end);
+            }
+            return acc.toReport(NINJA_LOG, true);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Reads the <tt>-ftime-trace</tt> files written since <tt>since</tt>
+     * below the <tt>CMakeFiles/&lt;target&gt;.dir</tt> directories.
+     */
+    static CompileTimeReport parseTimeTraces(File buildDir, long since, int topN) throws IOException {
+        Accumulator acc = new Accumulator(topN);
+        List<File> pending = new ArrayList<File>();
+        pending.add(buildDir);
+        final String root = buildDir.getAbsolutePath();
+        while (!pending.isEmpty()) {
+            File dir = pending.remove(pending.size() - 1);
+            File[] children = dir.listFiles();
+            if (children == null) {
+                continue;
+            }
+            for (File child : children) {
+                if (child.isDirectory()) {
+                    pending.add(child);
+                } else if (child.getName().endsWith(".json")
+                        && child.getPath().indexOf(".dir" + File.separator) >= 0
+                        && child.lastModified() >= since) {
+                    long micros = readTotalCompileTime(child);
+                    if (micros >= 0) {
+                        String name = child.getAbsolutePath().substring(root.length() + 1);
+                        name = name.substring(0, name.length() - ".json".length()).replace(File.separatorChar, '/');
+                        acc.add(name, 0, micros / 1000);
+                    }
+                }
+            }
+        }
+        return acc.toReport("-ftime-trace", false);
+    }
+
+    /**
+     * Scans a Chrome trace event file for the <tt>Total ExecuteCompiler</tt>
+     * event without building a tree of the document.
+     *
+     * @return its duration in microseconds, or <tt>-1</tt> if not found
+     */
+    static long readTotalCompileTime(File file) throws IOException {
+        Reader r = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+        try {
+            int depth = 0;
+            String key = null;
+            String name = null;
+            long dur = -1;
+            StringBuilder token = new StringBuilder();
+            boolean expectingValue = false;
+            int c;
+            while ((c = r.read()) >= 0) {
+                switch (c) {
+                case '{':
+                case '[':
+                    depth++;
+                    expectingValue = false;
+                    if (depth == 3) {
+                        name = null;
+                        dur = -1;
+                    }
+                    break;
+                case '}':
+                case ']':
+                    if (depth == 3 && "Total ExecuteCompiler".equals(name) && dur >= 0) {
+                        return dur;
+                    }
+                    depth--;
+                    break;
+                case '"':
+                    token.setLength(0);
+                    while ((c = r.read()) >= 0 && c != '"') {
+                        if (c == '\\') {
+                            c = r.read();
+                        }
+                        token.append((char) c);
+                    }
+                    if (depth == 3 && expectingValue && "name".equals(key)) {
+                        name = token.toString();
+                    } else if (!expectingValue) {
+                        key = token.toString();
+                    }
+                    break;
+                case ':':
+                    expectingValue = true;
+                    break;
+                case ',':
+                    expectingValue = false;
+                    break;
+                default:
+                    if (depth == 3 && expectingValue && "dur".equals(key) && c >= '0' && c <= '9') {
+                        long value = c - '0';
+                        while ((c = r.read()) >= '0' && c <= '9') {
+                            value = value * 10 + (c - '0');
+                        }
+                        dur = value;
+                        expectingValue = c != ',';
+                        if (c == '}' && "Total ExecuteCompiler".equals(name)) {
+                            return dur;
+                        }
+                        if (c == '}') {
+                            depth--;
+                        }
+                    }
+                    break;
+                }
+            }
+            return -1;
+        } finally {
+            r.close();
+        }
+    }
+
+    /**
+     * @return the target an output belongs to, taken from the
+     *         <tt>CMakeFiles/&lt;target&gt;.dir</tt> part of its path
+     */
+    static String targetOf(String output) {
+        String path = output.replace('\\', '/');
+        int dir = path.indexOf(".dir/");
+        if (dir >= 0) {
+            int start = path.lastIndexOf('/', dir) + 1;
+            return path.substring(start, dir);
+        }
+        return path;
+    }
+}
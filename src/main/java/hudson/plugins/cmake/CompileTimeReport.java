@@ -0,0 +1,108 @@
+package hudson.plugins.cmake;
+
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Where the time of a build went: the slowest targets and translation
+ * units, the wall clock span of the build and an estimate of its critical path.
+ */
+@ExportedBean
+public final class CompileTimeReport implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Time spent on a target or a translation unit.
+     */
+    @ExportedBean(defaultVisibility = 2)
+    public static final class Item implements Serializable, Comparable<Item> {
+        private static final long serialVersionUID = 1L;
+
+        private final String name;
+        private final long millis;
+
+        public Item(String name, long millis) {
+            this.name = name;
+            this.millis = millis;
+        }
+
+        @Exported
+        public String getName() {
+            return name;
+        }
+
+        @Exported
+        public long getMillis() {
+            return millis;
+        }
+
+        /** Orders items by descending time. */
+        public int compareTo(Item o) {
+            return millis > o.millis ? -1 : (millis == o.millis ? name.compareTo(o.name) : 1);
+        }
+    }
+
+    private final String source;
+    private final long steps;
+    private final long wallMillis;
+    private final long criticalPathMillis;
+    private final List<Item> slowestTargets;
+    private final List<Item> slowestUnits;
+
+    public CompileTimeReport(String source, long steps, long wallMillis, long criticalPathMillis,
+                             List<Item> slowestTargets, List<Item> slowestUnits) {
+        this.source = source;
+        this.steps = steps;
+        this.wallMillis = wallMillis;
+        this.criticalPathMillis = criticalPathMillis;
+        this.slowestTargets = new ArrayList<Item>(slowestTargets);
+        this.slowestUnits = new ArrayList<Item>(slowestUnits);
+    }
+
+    /**
+     * @return where the timings came from, e.g. <tt>.ninja_log</tt>
+     */
+    @Exported
+    public String getSource() {
+        return source;
+    }
+
+    @Exported
+    public long getSteps() {
+        return steps;
+    }
+
+    @Exported
+    public long getWallMillis() {
+        return wallMillis;
+    }
+
+    /**
+     * @return the longest chain of build steps that ran one after the other,
+     *         or <tt>-1</tt> if the timings don't tell
+     */
+    @Exported
+    public long getCriticalPathMillis() {
+        return criticalPathMillis;
+    }
+
+    @Exported
+    public List<Item> getSlowestTargets() {
+        return Collections.unmodifiableList(slowestTargets);
+    }
+
+    @Exported
+    public List<Item> getSlowestUnits() {
+        return Collections.unmodifiableList(slowestUnits);
+    }
+
+    public boolean isEmpty() {
+        return steps == 0;
+    }
+}
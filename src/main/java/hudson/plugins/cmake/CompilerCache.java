@@ -0,0 +1,297 @@
+package hudson.plugins.cmake;
+
+import hudson.model.Node;
+import hudson.model.TaskListener;
+import hudson.remoting.Callable;
+import hudson.remoting.VirtualChannel;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A compiler cache (ccache or sccache) found on a node, used as the
+ * compiler launcher of a cmake build. Remembers the statistics of the cache
+ * when it was found, so the counts of the build can be told afterwards.
+ */
+public final class CompilerCache implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    public static final String NONE = "";
+    public static final String AUTO = "auto";
+    public static final String CCACHE = "ccache";
+    public static final String SCCACHE = "sccache";
+
+    static final String CCACHE_BASEDIR = "CCACHE_BASEDIR";
+    static final String CCACHE_NOHASHDIR = "CCACHE_NOHASHDIR";
+
+    /** Languages whose compiler is run through the cache. */
+    static final String[] LANGUAGES = { "C", "CXX", "CUDA" };
+
+    /** ccache counters of compiler calls it did not cache. */
+    private static final Set<String> CCACHE_UNCACHEABLE = new HashSet<String>(Arrays.asList(
+            "autoconf_test", "bad_compiler_arguments", "bad_output_file", "called_for_link",
+            "called_for_preprocessing", "compile_failed", "compiler_check_failed",
+            "compiler_produced_empty_output", "compiler_produced_no_output", "compiler_produced_stdout",
+            "could_not_find_compiler", "could_not_use_modules", "could_not_use_precompiled_header",
+            "disabled", "error_hashing_extra_file", "internal_error", "missing_cache_file",
+            "modified_input_file", "multiple_source_files", "no_input_file", "output_to_stdout",
+            "preprocessor_error", "unsupported_code_directive", "unsupported_compiler_option",
+            "unsupported_environment", "unsupported_source_encoding", "unsupported_source_language"));
+
+    private static final Pattern SCCACHE_COUNTER =
+            Pattern.compile("^(Cache hits|Cache misses|Non-cacheable calls)\\s+(\\d+)\\s*$");
+
+    private final String tool;
+    private final String path;
+    /** Statistics when the cache was found, <tt>null</tt> if it cannot report any. */
+    private final CompilerCacheStats baseline;
+
+    CompilerCache(String tool, String path, CompilerCacheStats baseline) {
+        this.tool = tool;
+        this.path = path;
+        this.baseline = baseline;
+    }
+
+    public String getTool() {
+        return tool;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * Looks for the requested compiler cache on the node and reads its
+     * statistics, in one call to the node.
+     *
+     * @param requested {@link #CCACHE}, {@link #SCCACHE} or {@link #AUTO} for
+     *                  whichever is installed, preferring ccache
+     * @param envs the environment of the build, with the cache settings of the node applied
+     * @return the cache, or <tt>null</tt> if it is not installed
+     */
+    public static CompilerCache detect(Node node, String requested, Map<String, String> envs, TaskListener listener)
+            throws IOException, InterruptedException {
+        VirtualChannel channel = node.getChannel();
+        if (channel == null) {
+            throw new IOException("Node " + node.getDisplayName() + " is offline");
+        }
+        List<String> tools = AUTO.equals(requested) ? Arrays.asList(CCACHE, SCCACHE) : Arrays.asList(requested);
+        RemoteCallCounter.increment();
+        CompilerCache cache = channel.call(new Detect(tools, new HashMap<String, String>(envs)));
+        if (cache == null) {
+            listener.getLogger().println("Compiler cache: " + requested + " not found, building without it");
+        } else {
+            listener.getLogger().println("Compiler cache: " + cache.path
+                    + (cache.baseline != null ? "" : " (no statistics, needs ccache 3.7 or newer)"));
+        }
+        return cache;
+    }
+
+    /**
+     * Applies the cache settings of the node, if it has any, to the build environment.
+     */
+    public static void configure(Node node, Map<String, String> envs) {
+        CompilerCacheNodeProperty property = node.getNodeProperties().get(CompilerCacheNodeProperty.class);
+        if (property != null) {
+            property.apply(envs);
+        }
+    }
+
+    /**
+     * Lets ccache share hits between builds of the same project in different
+     * workspaces: the paths under the base dir are hashed relative to the
+     * working directory of the compiler, and that directory is left out of
+     * the hash even when debug information is generated. sccache has no such
+     * setting and only hits for the same absolute paths. A base dir set by
+     * the node or the job is kept.
+     *
+     * @return whether the base dir was set
+     */
+    static boolean setBaseDir(Map<String, String> envs, String baseDir) {
+        if (envs.containsKey(CCACHE_BASEDIR)) {
+            return false;
+        }
+        envs.put(CCACHE_BASEDIR, baseDir);
+        if (!envs.containsKey(CCACHE_NOHASHDIR)) {
+            envs.put(CCACHE_NOHASHDIR, "1");
+        }
+        return true;
+    }
+
+    /**
+     * Makes cmake launch the compilers of all supported languages through the cache.
+     */
+    public void addDefinitions(Map<String, String> definitions) {
+        for (String language : LANGUAGES) {
+            definitions.put("CMAKE_" + language + "_COMPILER_LAUNCHER", path);
+        }
+    }
+
+    /**
+     * @return the counts since the cache was found, or <tt>null</tt> if the
+     *         cache cannot report them
+     */
+    public CompilerCacheStats statsSinceDetected(Node node, Map<String, String> envs)
+            throws IOException, InterruptedException {
+        if (baseline == null) {
+            return null;
+        }
+        VirtualChannel channel = node.getChannel();
+        if (channel == null) {
+            throw new IOException("Node " + node.getDisplayName() + " is offline");
+        }
+        RemoteCallCounter.increment();
+        CompilerCacheStats now = channel.call(new ReadStats(tool, path, new HashMap<String, String>(envs)));
+        return now != null ? now.minus(baseline) : null;
+    }
+
+    private static final class Detect implements Callable<CompilerCache, IOException> {
+        private static final long serialVersionUID = 1L;
+
+        private final List<String> tools;
+        private final Map<String, String> envs;
+
+        Detect(List<String> tools, Map<String, String> envs) {
+            this.tools = tools;
+            this.envs = envs;
+        }
+
+        public CompilerCache call() throws IOException {
+            for (String tool : tools) {
+                File file = CmakeVersionCache.resolve(tool, envs.get("PATH"));
+                if (file != null) {
+                    String path = file.getAbsolutePath();
+                    return new CompilerCache(tool, path, readStats(tool, path, envs));
+                }
+            }
+            return null;
+        }
+    }
+
+    private static final class ReadStats implements Callable<CompilerCacheStats, IOException> {
+        private static final long serialVersionUID = 1L;
+
+        private final String tool;
+        private final String path;
+        private final Map<String, String> envs;
+
+        ReadStats(String tool, String path, Map<String, String> envs) {
+            this.tool = tool;
+            this.path = path;
+            this.envs = envs;
+        }
+
+        public CompilerCacheStats call() throws IOException {
+            return readStats(tool, path, envs);
+        }
+    }
+
+    /**
+     * Runs the cache's statistics command. Must be called on the node.
+     *
+     * @return the totals of the cache, or <tt>null</tt> if it cannot tell
+     */
+    static CompilerCacheStats readStats(String tool, String path, Map<String, String> envs) throws IOException {
+        if (SCCACHE.equals(tool)) {
+            String output = run(envs, path, "--show-stats");
+            return output != null ? parseSccache(output) : null;
+        }
+        String output = run(envs, path, "--print-stats");
+        return output != null ? parseCcache(output) : null;
+    }
+
+    /**
+     * Parses the tab separated output of <tt>ccache --print-stats</tt>.
+     */
+    static CompilerCacheStats parseCcache(String output) {
+        long hits = 0;
+        long misses = 0;
+        long uncacheable = 0;
+        for (String line : output.split("\r?\n")) {
+            int tab = line.indexOf('\t');
+            if (tab < 0) {
+                continue;
+            }
+            String key = line.substring(0, tab).trim();
+            long value;
+            try {
+                value = Long.parseLong(line.substring(tab + 1).trim());
+            } catch (NumberFormatException e) {
+                continue;
+            }
+            // ccache 4 names the hit counters the other way round than ccache 3
+            if (key.equals("direct_cache_hit") || key.equals("preprocessed_cache_hit")
+                    || key.equals("cache_hit_direct") || key.equals("cache_hit_preprocessed")) {
+                hits += value;
+            } else if (key.equals("cache_miss")) {
+                misses += value;
+            } else if (CCACHE_UNCACHEABLE.contains(key)) {
+                uncacheable += value;
+            }
+        }
+        return new CompilerCacheStats(CCACHE, hits, misses, uncacheable);
+    }
+
+    /**
+     * Parses the totals from the human readable output of <tt>sccache --show-stats</tt>.
+     */
+    static CompilerCacheStats parseSccache(String output) {
+        long hits = 0;
+        long misses = 0;
+        long uncacheable = 0;
+        for (String line : output.split("\r?\n")) {
+            Matcher m = SCCACHE_COUNTER.matcher(line.trim());
+            if (!m.matches()) {
+                continue;
+            }
+            long value = Long.parseLong(m.group(2));
+            if (m.group(1).equals("Cache hits")) {
+                hits = value;
+            } else if (m.group(1).equals("Cache misses")) {
+                misses = value;
+            } else {
+                uncacheable = value;
+            }
+        }
+        return new CompilerCacheStats(SCCACHE, hits, misses, uncacheable);
+    }
+
+    /**
+     * @return the output of the command, or <tt>null</tt> if it failed
+     */
+    private static String run(Map<String, String> envs, String... cmd) throws IOException {
+        ProcessBuilder pb = new ProcessBuilder(cmd).redirectErrorStream(true);
+        pb.environment().putAll(envs);
+        Process process = pb.start();
+        process.getOutputStream().close();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        InputStream in = process.getInputStream();
+        try {
+            byte[] buf = new byte[4096];
+            int n;
+            while ((n = in.read(buf)) >= 0) {
+                out.write(buf, 0, n);
+            }
+        } finally {
+            in.close();
+        }
+        try {
+            return process.waitFor() == 0 ? out.toString() : null;
+        } catch (InterruptedException e) {
+            process.destroy();
+            throw new IOException("Interrupted while running " + cmd[0]);
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package hudson.plugins.cmake;
+
+import hudson.model.AbstractBuild;
+import hudson.model.Action;
+import hudson.model.Api;
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+/**
+ * Compiler cache hits, misses and uncacheable calls of the cmake build
+ * steps of one build. Available at <tt>.../cmakeCompilerCache/api/json</tt>.
+ */
+@ExportedBean
+public class CompilerCacheAction implements Action {
+
+    private CompilerCacheStats stats;
+
+    /**
+     * Adds the counts of a build step to the action of the given build,
+     * attaching a new one if needed.
+     */
+    public static void add(AbstractBuild<?, ?> build, CompilerCacheStats stats) {
+        synchronized (build) {
+            CompilerCacheAction action = build.getAction(CompilerCacheAction.class);
+            if (action == null) {
+                action = new CompilerCacheAction();
+                build.addAction(action);
+            }
+            action.add(stats);
+        }
+    }
+
+    private synchronized void add(CompilerCacheStats stats) {
+        this.stats = this.stats == null ? stats : this.stats.plus(stats);
+    }
+
+    @Exported
+    public synchronized CompilerCacheStats getStats() {
+        return stats;
+    }
+
+    public Api getApi() {
+        return new Api(this);
+    }
+
+    public String getIconFileName() {
+        return "orange-square.gif";
+    }
+
+    public String getDisplayName() {
+        return "Compiler Cache";
+    }
+
+    public String getUrlName() {
+        return "cmakeCompilerCache";
+    }
+}
@@ -0,0 +1,58 @@
+package hudson.plugins.cmake;
+
+import hudson.Extension;
+import hudson.model.Node;
+import hudson.slaves.NodeProperty;
+import hudson.slaves.NodePropertyDescriptor;
+import org.kohsuke.stapler.DataBoundConstructor;
+
+import java.util.Map;
+
+/**
+ * Where the compiler cache of a node keeps its files and how large it may
+ * grow, applied to the cmake builds that use ccache or sccache on the node.
+ */
+public class CompilerCacheNodeProperty extends NodeProperty<Node> {
+
+    private final String cacheDir;
+    private final String maxSize;
+
+    @DataBoundConstructor
+    public CompilerCacheNodeProperty(String cacheDir, String maxSize) {
+        this.cacheDir = cacheDir;
+        this.maxSize = maxSize;
+    }
+
+    public String getCacheDir() {
+        return cacheDir;
+    }
+
+    public String getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Sets the cache directory and size limit of both ccache and sccache in
+     * the build environment. Both settings may refer to build variables.
+     */
+    void apply(Map<String, String> envs) {
+        if (cacheDir != null && cacheDir.trim().length() > 0) {
+            String dir = EnvVarReplacer.replace(cacheDir.trim(), envs);
+            envs.put("CCACHE_DIR", dir);
+            envs.put("SCCACHE_DIR", dir);
+        }
+        if (maxSize != null && maxSize.trim().length() > 0) {
+            String size = EnvVarReplacer.replace(maxSize.trim(), envs);
+            envs.put("CCACHE_MAXSIZE", size);
+            envs.put("SCCACHE_CACHE_SIZE", size);
+        }
+    }
+
+    @Extension
+    public static final class DescriptorImpl extends NodePropertyDescriptor {
+        @Override
+        public String getDisplayName() {
+            return "CMake compiler cache";
+        }
+    }
+}
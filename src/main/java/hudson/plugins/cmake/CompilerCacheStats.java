@@ -0,0 +1,90 @@
+package hudson.plugins.cmake;
+
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+import java.io.Serializable;
+
+/**
+ * Hit, miss and uncacheable counts of a compiler cache, either the totals
+ * reported by the cache or the difference over a build.
+ */
+@ExportedBean(defaultVisibility = 2)
+public final class CompilerCacheStats implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String tool;
+    private final long hits;
+    private final long misses;
+    private final long uncacheable;
+
+    public CompilerCacheStats(String tool, long hits, long misses, long uncacheable) {
+        this.tool = tool;
+        this.hits = hits;
+        this.misses = misses;
+        this.uncacheable = uncacheable;
+    }
+
+    /**
+     * @return <tt>ccache</tt> or <tt>sccache</tt>
+     */
+    @Exported
+    public String getTool() {
+        return tool;
+    }
+
+    @Exported
+    public long getHits() {
+        return hits;
+    }
+
+    @Exported
+    public long getMisses() {
+        return misses;
+    }
+
+    /**
+     * @return compiler calls the cache could not handle, e.g. links or
+     *         unsupported options
+     */
+    @Exported
+    public long getUncacheable() {
+        return uncacheable;
+    }
+
+    /**
+     * @return the share of cacheable compilations served from the cache in
+     *         percent, or <tt>-1</tt> if there were none
+     */
+    @Exported
+    public int getHitRate() {
+        long cacheable = hits + misses;
+        return cacheable > 0 ? (int) (hits * 100 / cacheable) : -1;
+    }
+
+    /**
+     * @return the counts since <tt>before</tt>; counters that went back
+     *         because the cache was zeroed meanwhile count from zero
+     */
+    public CompilerCacheStats minus(CompilerCacheStats before) {
+        return new CompilerCacheStats(tool,
+                since(hits, before.hits), since(misses, before.misses), since(uncacheable, before.uncacheable));
+    }
+
+    public CompilerCacheStats plus(CompilerCacheStats other) {
+        return new CompilerCacheStats(tool,
+                hits + other.hits, misses + other.misses, uncacheable + other.uncacheable);
+    }
+
+    private static long since(long now, long before) {
+        return now >= before ? now - before : now;
+    }
+
+    @Override
+    public String toString() {
+        int rate = getHitRate();
+        return tool + ": " + hits + " hits, " + misses + " misses, " + uncacheable + " uncacheable"
+                + (rate >= 0 ? " (" + rate + "% hit rate)" : "");
+    }
+}
@@ -0,0 +1,356 @@
+package hudson.plugins.cmake;
+
+import hudson.FilePath;
+import hudson.remoting.VirtualChannel;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Serializable;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Fingerprint of everything that influences the cmake configure step: the
+ * command line, the contents of the preload script, the cmake version and
+ * the size and modification time of every file cmake itself recorded as a
+ * dependency of the generated build system.
+ *
+ * <p>
+ * The fingerprint is stored next to <tt>CMakeCache.txt</tt> after a
+ * successful configure. If it still matches before the next configure, the
+ * step can be skipped and the generator's own re-check takes care of any
+ * change cmake tracks itself.
+ */
+public final class ConfigureFingerprint {
+
+    static final String FINGERPRINT_FILE = "cmakebuilder-configure.sha1";
+    private static final String CMAKE_CACHE = "CMakeCache.txt";
+    private static final String MAKEFILE_DEPENDS = "CMakeFiles/Makefile.cmake";
+    private static final String NINJA_BUILD = "build.ninja";
+
+    private ConfigureFingerprint() {
+    }
+
+    /**
+     * Outcome of comparing the current configure inputs with the stored fingerprint.
+     */
+    public static final class Status implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final boolean upToDate;
+        private final String reason;
+
+        Status(boolean upToDate, String reason) {
+            this.upToDate = upToDate;
+            this.reason = reason;
+        }
+
+        public boolean isUpToDate() {
+            return upToDate;
+        }
+
+        public String getReason() {
+            return reason;
+        }
+    }
+
+    /**
+     * Checks whether the build tree in <tt>buildDir</tt> was configured with
+     * exactly these inputs.
+     */
+    public static Status check(FilePath buildDir, List<String> args, String preloadScript, String cmakeVersion)
+            throws IOException, InterruptedException {
+        RemoteCallCounter.increment();
+        return buildDir.act(new Check(args, preloadScript, cmakeVersion));
+    }
+
+    /**
+     * Stores the fingerprint of the inputs after a successful configure.
+     */
+    public static void record(FilePath buildDir, List<String> args, String preloadScript, String cmakeVersion)
+            throws IOException, InterruptedException {
+        RemoteCallCounter.increment();
+        buildDir.act(new Record(args, preloadScript, cmakeVersion));
+    }
+
+    /**
+     * Removes a stored fingerprint, forcing the next build to configure.
+     */
+    public static void clear(FilePath buildDir) throws IOException, InterruptedException {
+        RemoteCallCounter.increment();
+        buildDir.child(FINGERPRINT_FILE).delete();
+    }
+
+    private abstract static class Compute implements FilePath.FileCallable<Status> {
+        private static final long serialVersionUID = 1L;
+
+        private final List<String> args;
+        private final String preloadScript;
+        private final String cmakeVersion;
+
+        Compute(List<String> args, String preloadScript, String cmakeVersion) {
+            this.args = new ArrayList<String>(args);
+            this.preloadScript = preloadScript;
+            this.cmakeVersion = cmakeVersion;
+        }
+
+        /**
+         * @return the hex encoded fingerprint, or <tt>null</tt> if the build
+         *         tree does not tell which files cmake depends on
+         */
+        String compute(File buildDir) throws IOException {
+            List<String> depends = readDependencies(buildDir);
+            if (depends == null) {
+                return null;
+            }
+            MessageDigest md = sha1();
+            update(md, "version", cmakeVersion);
+            for (String arg : args) {
+                update(md, "arg", arg);
+            }
+            if (preloadScript != null && preloadScript.trim().length() > 0) {
+                File script = resolve(buildDir, preloadScript.trim());
+                update(md, "preload", script.getPath());
+                if (script.isFile()) {
+                    digestFile(md, script);
+                }
+            }
+            for (String depend : depends) {
+                File file = resolve(buildDir, depend);
+                update(md, "depend", depend);
+                update(md, "stamp", file.exists() ? file.lastModified() + ":" + file.length() : "missing");
+            }
+            return toHex(md.digest());
+        }
+    }
+
+    private static final class Check extends Compute {
+        private static final long serialVersionUID = 1L;
+
+        Check(List<String> args, String preloadScript, String cmakeVersion) {
+            super(args, preloadScript, cmakeVersion);
+        }
+
+        public Status invoke(File buildDir, VirtualChannel channel) throws IOException {
+            if (!new File(buildDir, CMAKE_CACHE).isFile()) {
+                return new Status(false, "no " + CMAKE_CACHE + " in build dir");
+            }
+            File stored = new File(buildDir, FINGERPRINT_FILE);
+            if (!stored.isFile()) {
+                return new Status(false, "no configure fingerprint recorded");
+            }
+            String current = compute(buildDir);
+            if (current == null) {
+                return new Status(false, "generator does not record configure dependencies");
+            }
+            if (!current.equals(readFirstLine(stored))) {
+                return new Status(false, "configure inputs changed");
+            }
+            return new Status(true, "arguments, preload script, cmake version and CMake inputs unchanged");
+        }
+    }
+
+    private static final class Record extends Compute {
+        private static final long serialVersionUID = 1L;
+
+        Record(List<String> args, String preloadScript, String cmakeVersion) {
+            super(args, preloadScript, cmakeVersion);
+        }
+
+        public Status invoke(File buildDir, VirtualChannel channel) throws IOException {
+            File stored = new File(buildDir, FINGERPRINT_FILE);
+            String current = compute(buildDir);
+            if (current == null) {
+                stored.delete();
+                return new Status(false, "generator does not record configure dependencies");
+            }
+            Writer w = new FileWriter(stored);
+            try {
+                w.write(current);
+                w.write('\n');
+            } finally {
+                w.close();
+            }
+            return new Status(true, "recorded");
+        }
+    }
+
+    /**
+     * Reads the files cmake re-runs itself for, as recorded by the Makefile
+     * or Ninja generators.
+     *
+     * @return the dependencies relative to <tt>buildDir</tt> or absolute, or
+     *         <tt>null</tt> if no dependency list was found
+     */
+    static List<String> readDependencies(File buildDir) throws IOException {
+        File makefileDepends = new File(buildDir, MAKEFILE_DEPENDS);
+        if (makefileDepends.isFile()) {
+            return readMakefileDepends(makefileDepends);
+        }
+        File ninja = new File(buildDir, NINJA_BUILD);
+        if (ninja.isFile()) {
+            return readNinjaDepends(ninja);
+        }
+        return null;
+    }
+
+    /**
+     * Parses the <tt>set(CMAKE_MAKEFILE_DEPENDS ...)</tt> block of <tt>CMakeFiles/Makefile.cmake</tt>.
+     */
+    private static List<String> readMakefileDepends(File file) throws IOException {
+        List<String> depends = new ArrayList<String>();
+        BufferedReader r = new BufferedReader(new FileReader(file));
+        try {
+            String line;
+            boolean inBlock = false;
+            while ((line = r.readLine()) != null) {
+                line = line.trim();
+                if (!inBlock) {
+                    inBlock = line.startsWith("set(CMAKE_MAKEFILE_DEPENDS");
+                    continue;
+                }
+                if (line.startsWith(")")) {
+                    break;
+                }
+                if (line.length() > 1 && line.charAt(0) == '"' && line.endsWith("\"")) {
+                    depends.add(line.substring(1, line.length() - 1));
+                }
+            }
+        } finally {
+            r.close();
+        }
+        return depends;
+    }
+
+    /**
+     * Parses the implicit inputs of the <tt>build build.ninja: RERUN_CMAKE</tt> edge.
+     */
+    private static List<String> readNinjaDepends(File file) throws IOException {
+        StringBuilder edge = null;
+        BufferedReader r = new BufferedReader(new FileReader(file));
+        try {
+            String line;
+            while ((line = r.readLine()) != null) {
+                if (edge == null) {
+                    if (!line.startsWith("build build.ninja") || line.indexOf("RERUN_CMAKE") < 0) {
+                        continue;
+                    }
+                    edge = new StringBuilder();
+                } else {
+                    line = line.trim();
+                }
+                if (line.endsWith("$") && !line.endsWith("$$")) {
+                    edge.append(line, 0, line.length() - 1).append(' ');
+                } else {
+                    edge.append(line);
+                    break;
+                }
+            }
+        } finally {
+            r.close();
+        }
+        if (edge == null) {
+            return null;
+        }
+
+        List<String> depends = new ArrayList<String>();
+        boolean implicit = false;
+        for (String token : splitNinjaPaths(edge.toString())) {
+            if (token.equals("|")) {
+                implicit = true;
+            } else if (token.equals("||")) {
+                break;
+            } else if (implicit) {
+                depends.add(token);
+            }
+        }
+        return depends;
+    }
+
+    private static List<String> splitNinjaPaths(String edge) {
+        List<String> tokens = new ArrayList<String>();
+        StringBuilder current = new StringBuilder();
+        for (int i = 0; i < edge.length(); i++) {
+            char c = edge.charAt(i);
+            if (c == '$' && i + 1 < edge.length()) {
+                current.append(edge.charAt(++i));
+            } else if (c == ' ') {
+                if (current.length() > 0) {
+                    tokens.add(current.toString());
+                    current.setLength(0);
+                }
+            } else {
+                current.append(c);
+            }
+        }
+        if (current.length() > 0) {
+            tokens.add(current.toString());
+        }
+        return tokens;
+    }
+
+    private static File resolve(File buildDir, String path) {
+        File file = new File(path);
+        return file.isAbsolute() ? file : new File(buildDir, path);
+    }
+
+    private static String readFirstLine(File file) throws IOException {
+        BufferedReader r = new BufferedReader(new FileReader(file));
+        try {
+            String line = r.readLine();
+            return line != null ? line.trim() : "";
+        } finally {
+            r.close();
+        }
+    }
+
+    static MessageDigest sha1() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static void update(MessageDigest md, String tag, String value) {
+        try {
+            md.update(tag.getBytes("UTF-8"));
+            md.update((byte) 0);
+            md.update(String.valueOf(value).getBytes("UTF-8"));
+            md.update((byte) 0);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static void digestFile(MessageDigest md, File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            byte[] buf = new byte[8192];
+            int n;
+            while ((n = in.read(buf)) >= 0) {
+                md.update(buf, 0, n);
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+            sb.append(Character.forDigit(b & 0xf, 16));
+        }
+        return sb.toString();
+    }
+}
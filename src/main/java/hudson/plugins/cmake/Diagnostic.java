@@ -0,0 +1,89 @@
+package hudson.plugins.cmake;
+
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+import java.io.Serializable;
+
+/**
+ * A warning or an error reported by a compiler or by cmake.
+ */
+@ExportedBean(defaultVisibility = 2)
+public final class Diagnostic implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    public static final String WARNING = "warning";
+    public static final String ERROR = "error";
+
+    private final String file;
+    private final int line;
+    private final String severity;
+    private final String category;
+    private final String message;
+    private final String target;
+
+    public Diagnostic(String file, int line, String severity, String category, String message, String target) {
+        this.file = file;
+        this.line = line;
+        this.severity = severity;
+        this.category = category;
+        this.message = message;
+        this.target = target;
+    }
+
+    /**
+     * @return the file as printed by the tool, or <tt>null</tt> if it named none
+     */
+    @Exported
+    public String getFile() {
+        return file;
+    }
+
+    /**
+     * @return the line, or <tt>0</tt> if unknown
+     */
+    @Exported
+    public int getLine() {
+        return line;
+    }
+
+    /**
+     * @return {@link #WARNING} or {@link #ERROR}
+     */
+    @Exported
+    public String getSeverity() {
+        return severity;
+    }
+
+    /**
+     * @return the warning option (<tt>-Wunused-variable</tt>), the MSVC code
+     *         (<tt>C4996</tt>), <tt>cmake</tt>, or {@link #ERROR} for errors without one
+     */
+    @Exported
+    public String getCategory() {
+        return category;
+    }
+
+    @Exported
+    public String getMessage() {
+        return message;
+    }
+
+    /**
+     * @return the target that was being built, or <tt>null</tt> if unknown
+     */
+    @Exported
+    public String getTarget() {
+        return target;
+    }
+
+    public boolean isError() {
+        return ERROR.equals(severity);
+    }
+
+    @Override
+    public String toString() {
+        return (file != null ? file + ":" + line + ": " : "") + severity + ": " + message + " [" + category + "]";
+    }
+}
@@ -0,0 +1,207 @@
+package hudson.plugins.cmake;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The warnings and errors counted per file, category and target, with a
+ * bounded set of the diagnostics seen last to count repeats only once.
+ * Filled on the node while the output of a process is scanned and added
+ * to the {@link DiagnosticsAction} of the build when the process ends.
+ *
+ * <p>
+ * At most {@link #MAX_KEYS} files, categories and targets are counted by
+ * name and the rest as {@link #OTHER}, and only the first
+ * {@link #MAX_SAMPLES} diagnostics of each severity are kept. The seen
+ * set is not part of the serialized form; {@link #getSeen()} and
+ * {@link #see(long[])} pass it along explicitly.
+ */
+final class DiagnosticCounts implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    static final int MAX_SEEN = 32768;
+    static final int MAX_KEYS = 1000;
+    static final int MAX_SAMPLES = 100;
+    static final String OTHER = "(other)";
+
+    private int warnings;
+    private int errors;
+    private int repeated;
+    private final Map<String, int[]> files = new HashMap<String, int[]>();
+    private final Map<String, int[]> categories = new HashMap<String, int[]>();
+    private final Map<String, int[]> targets = new HashMap<String, int[]>();
+    private final List<Diagnostic> warningSamples = new ArrayList<Diagnostic>();
+    private final List<Diagnostic> errorSamples = new ArrayList<Diagnostic>();
+
+    /** Hashes of the diagnostics seen last. */
+    private transient Seen seen;
+
+    private static final class Seen extends LinkedHashMap<Long, Boolean> {
+        private static final long serialVersionUID = 1L;
+
+        Seen() {
+            super(1024, 0.75f, true);
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, Boolean> eldest) {
+            return size() > MAX_SEEN;
+        }
+    }
+
+    private Seen seen() {
+        if (seen == null) {
+            seen = new Seen();
+        }
+        return seen;
+    }
+
+    /**
+     * Counts a diagnostic unless it was seen before.
+     */
+    synchronized void record(Diagnostic diagnostic) {
+        if (seen().put(hash(diagnostic), Boolean.TRUE) != null) {
+            repeated++;
+            return;
+        }
+        final boolean error = diagnostic.isError();
+        if (error) {
+            errors++;
+        } else {
+            warnings++;
+        }
+        count(files, diagnostic.getFile(), error ? 0 : 1, error ? 1 : 0);
+        count(categories, diagnostic.getCategory(), error ? 0 : 1, error ? 1 : 0);
+        count(targets, diagnostic.getTarget(), error ? 0 : 1, error ? 1 : 0);
+        List<Diagnostic> samples = error ? errorSamples : warningSamples;
+        if (samples.size() < MAX_SAMPLES) {
+            samples.add(diagnostic);
+        }
+    }
+
+    /**
+     * Adds the counts and samples of another scan.
+     */
+    synchronized void add(DiagnosticCounts other) {
+        synchronized (other) {
+            warnings += other.warnings;
+            errors += other.errors;
+            repeated += other.repeated;
+            addCounts(files, other.files);
+            addCounts(categories, other.categories);
+            addCounts(targets, other.targets);
+            addSamples(warningSamples, other.warningSamples);
+            addSamples(errorSamples, other.errorSamples);
+        }
+    }
+
+    /**
+     * @return the hashes of the diagnostics seen last, least recent first
+     */
+    synchronized long[] getSeen() {
+        final long[] hashes = new long[seen().size()];
+        int i = 0;
+        for (Long hash : seen.keySet()) {
+            hashes[i++] = hash;
+        }
+        return hashes;
+    }
+
+    /**
+     * Marks diagnostics as seen, so they are counted as repeats.
+     */
+    synchronized void see(long[] hashes) {
+        final Seen set = seen();
+        for (long hash : hashes) {
+            set.put(hash, Boolean.TRUE);
+        }
+    }
+
+    private static void addCounts(Map<String, int[]> counts, Map<String, int[]> other) {
+        for (Map.Entry<String, int[]> entry : other.entrySet()) {
+            count(counts, entry.getKey(), entry.getValue()[0], entry.getValue()[1]);
+        }
+    }
+
+    private static void addSamples(List<Diagnostic> samples, List<Diagnostic> other) {
+        for (int i = 0; i < other.size() && samples.size() < MAX_SAMPLES; i++) {
+            samples.add(other.get(i));
+        }
+    }
+
+    private static void count(Map<String, int[]> counts, String key, int warnings, int errors) {
+        if (key == null) {
+            return;
+        }
+        int[] count = counts.get(key);
+        if (count == null) {
+            if (counts.size() >= MAX_KEYS - 1) {
+                key = OTHER;
+                count = counts.get(key);
+            }
+            if (count == null) {
+                count = new int[2];
+                counts.put(key, count);
+            }
+        }
+        count[0] += warnings;
+        count[1] += errors;
+    }
+
+    /** 64 bit FNV-1a over location, category and message. */
+    private static long hash(Diagnostic diagnostic) {
+        String key = diagnostic.getFile() + '\0' + diagnostic.getLine() + '\0' + diagnostic.getCategory()
+                + '\0' + diagnostic.getMessage();
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            hash ^= key.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    synchronized int getWarnings() {
+        return warnings;
+    }
+
+    synchronized int getErrors() {
+        return errors;
+    }
+
+    synchronized int getRepeated() {
+        return repeated;
+    }
+
+    synchronized Map<String, int[]> getFiles() {
+        return copy(files);
+    }
+
+    synchronized Map<String, int[]> getCategories() {
+        return copy(categories);
+    }
+
+    synchronized Map<String, int[]> getTargets() {
+        return copy(targets);
+    }
+
+    synchronized List<Diagnostic> getWarningSamples() {
+        return new ArrayList<Diagnostic>(warningSamples);
+    }
+
+    synchronized List<Diagnostic> getErrorSamples() {
+        return new ArrayList<Diagnostic>(errorSamples);
+    }
+
+    private static Map<String, int[]> copy(Map<String, int[]> counts) {
+        final Map<String, int[]> copy = new HashMap<String, int[]>();
+        for (Map.Entry<String, int[]> entry : counts.entrySet()) {
+            copy.put(entry.getKey(), entry.getValue().clone());
+        }
+        return copy;
+    }
+}
@@ -0,0 +1,188 @@
+package hudson.plugins.cmake;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Passes the output of a build tool on unchanged and picks the compiler
+ * and cmake diagnostics out of it line by line as it goes by, so the log
+ * never has to be searched afterwards. Only the current line is buffered,
+ * up to {@link #MAX_LINE_BYTES}; the counting is left to {@link DiagnosticCounts}.
+ * It runs on the node the process runs on, see {@link ScannedProcess}.
+ *
+ * <p>
+ * The target a diagnostic belongs to is taken from the last progress line
+ * of make or ninja naming a <tt>CMakeFiles/&lt;target&gt;.dir</tt>, or from
+ * the project MSBuild appends. Ninja prints the output of a step right
+ * after its progress line; with make running parallel jobs the target may
+ * be off.
+ */
+public final class DiagnosticScanner extends OutputStream {
+
+    static final int MAX_LINE_BYTES = 4096;
+    static final int MAX_MESSAGE_CHARS = 500;
+
+    /** <tt>file:line[:column]: warning: message [-Wflag]</tt> of GCC and Clang. */
+    private static final Pattern GCC = Pattern.compile(
+            "^(.+?):(\\d+)(?::\\d+)?:\\s+(warning|error|fatal error):\\s+(.*?)(?:\\s+\\[([^\\]]+)\\])?\\s*$");
+    /** <tt>file(line[,column]): warning C4996: message [project]</tt> of MSVC. */
+    private static final Pattern MSVC = Pattern.compile(
+            "^\\s*(?:\\d+>)?(.+?)\\((\\d+)(?:,\\d+)?\\)\\s*:\\s*(warning|error|fatal error)\\s+([A-Za-z]+\\d+)\\s*:"
+                    + "\\s*(.*?)(?:\\s+\\[([^\\]]+)\\])?\\s*$");
+    /** <tt>CMake Warning (dev) at file:line (command):</tt>, the message follows indented. */
+    private static final Pattern CMAKE = Pattern.compile(
+            "^CMake (Warning|Error|Deprecation Warning|Deprecation Error)(?: \\(dev\\))?"
+                    + "(?: at (.+?):(\\d+)(?: \\(.*\\))?)?:?\\s*$");
+    private static final Pattern TARGET = Pattern.compile("CMakeFiles[/\\\\]([^/\\\\]+)\\.dir[/\\\\]");
+
+    private final OutputStream out;
+    private final DiagnosticCounts diagnostics;
+    private final Charset charset = Charset.defaultCharset();
+    private final byte[] line = new byte[MAX_LINE_BYTES];
+    private int length;
+    private String target;
+    /** A cmake diagnostic waiting for its message on the next lines. */
+    private Diagnostic cmake;
+
+    DiagnosticScanner(OutputStream out, DiagnosticCounts diagnostics) {
+        this.out = out;
+        this.diagnostics = diagnostics;
+    }
+
+    @Override
+    public synchronized void write(int b) throws IOException {
+        out.write(b);
+        append(b);
+    }
+
+    @Override
+    public synchronized void write(byte[] b, int off, int len) throws IOException {
+        out.write(b, off, len);
+        for (int i = off; i < off + len; i++) {
+            append(b[i]);
+        }
+    }
+
+    private void append(int b) {
+        if (b == '\n') {
+            endLine();
+        } else if (length < MAX_LINE_BYTES) {
+            line[length++] = (byte) b;
+        }
+    }
+
+    private void endLine() {
+        int end = length;
+        if (end > 0 && line[end - 1] == '\r') {
+            end--;
+        }
+        length = 0;
+        scan(new String(line, 0, end, charset));
+    }
+
+    @Override
+    public synchronized void flush() throws IOException {
+        out.flush();
+    }
+
+    /**
+     * Scans the last line even if it was not terminated and reports a
+     * pending cmake diagnostic. Does not close the stream passed on to,
+     * which usually is the build log.
+     */
+    public synchronized void finish() throws IOException {
+        if (length > 0) {
+            endLine();
+        }
+        reportCmake(null);
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        finish();
+    }
+
+    void scan(String text) {
+        if (cmake != null) {
+            if (text.trim().length() == 0) {
+                return;
+            }
+            reportCmake(text.trim());
+        }
+        Matcher matcher = TARGET.matcher(text);
+        if ((text.startsWith("[") || text.startsWith("FAILED: ")) && matcher.find()) {
+            target = matcher.group(1);
+            return;
+        }
+        // both patterns need "warning" or "error" in the line
+        if (text.indexOf("warning") < 0 && text.indexOf("error") < 0 && !text.startsWith("CMake ")) {
+            return;
+        }
+        matcher = GCC.matcher(text);
+        if (matcher.matches()) {
+            diagnostics.record(new Diagnostic(matcher.group(1), Integer.parseInt(matcher.group(2)),
+                    severity(matcher.group(3)), gccCategory(matcher.group(5), matcher.group(3)),
+                    message(matcher.group(4)), target));
+            return;
+        }
+        matcher = MSVC.matcher(text);
+        if (matcher.matches()) {
+            diagnostics.record(new Diagnostic(matcher.group(1), Integer.parseInt(matcher.group(2)),
+                    severity(matcher.group(3)), matcher.group(4).toUpperCase(Locale.ENGLISH),
+                    message(matcher.group(5)), matcher.group(6) != null ? msbuildProject(matcher.group(6)) : target));
+            return;
+        }
+        matcher = CMAKE.matcher(text);
+        if (matcher.matches()) {
+            final int lineNumber = matcher.group(3) != null ? Integer.parseInt(matcher.group(3)) : 0;
+            cmake = new Diagnostic(matcher.group(2), lineNumber,
+                    matcher.group(1).endsWith("Error") ? Diagnostic.ERROR : Diagnostic.WARNING,
+                    matcher.group(1).startsWith("Deprecation") ? "cmake-deprecated" : "cmake", null, null);
+        }
+    }
+
+    private void reportCmake(String message) {
+        if (cmake != null) {
+            diagnostics.record(new Diagnostic(cmake.getFile(), cmake.getLine(), cmake.getSeverity(),
+                    cmake.getCategory(), message != null ? message(message) : "", null));
+            cmake = null;
+        }
+    }
+
+    private static String severity(String text) {
+        return text.equals("warning") ? Diagnostic.WARNING : Diagnostic.ERROR;
+    }
+
+    /**
+     * @return the warning option of <tt>[-Wunused]</tt>, <tt>[-Werror=unused]</tt>
+     *         or <tt>[-Werror,-Wunused]</tt>
+     */
+    private static String gccCategory(String option, String severity) {
+        if (option == null || !option.startsWith("-W")) {
+            return severity.equals("warning") ? Diagnostic.WARNING : Diagnostic.ERROR;
+        }
+        String category = option.substring(option.lastIndexOf(',') + 1);
+        if (category.startsWith("-Werror=")) {
+            category = "-W" + category.substring("-Werror=".length());
+        }
+        return category;
+    }
+
+    /**
+     * @return the name of the project file MSBuild appends, without the directory and extension
+     */
+    private static String msbuildProject(String path) {
+        String name = path.substring(Math.max(path.lastIndexOf('/'), path.lastIndexOf('\\')) + 1);
+        int dot = name.lastIndexOf('.');
+        return dot > 0 ? name.substring(0, dot) : name;
+    }
+
+    private static String message(String text) {
+        return text.length() > MAX_MESSAGE_CHARS ? text.substring(0, MAX_MESSAGE_CHARS) : text;
+    }
+}
@@ -0,0 +1,181 @@
+package hudson.plugins.cmake;
+
+import hudson.model.AbstractBuild;
+import hudson.model.Action;
+import hudson.model.Api;
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compiler and cmake warnings and errors of the cmake build steps of one
+ * build, counted per file, category and target as {@link DiagnosticScanner}
+ * finds them in the output on the node. Available at
+ * <tt>.../cmakeDiagnostics/api/json</tt>.
+ *
+ * <p>
+ * The memory needed is bounded, see {@link DiagnosticCounts}: a diagnostic
+ * reported again, as one in a header included by many sources is, is only
+ * counted once as long as it is among the last
+ * {@link DiagnosticCounts#MAX_SEEN} distinct ones. Processes running side by
+ * side, as the configurations of a multi-configuration build do, count the
+ * diagnostics they have in common once each.
+ */
+@ExportedBean
+public class DiagnosticsAction implements Action {
+
+    private static final int TOP = 20;
+
+    /**
+     * Number of warnings and errors counted for a file, category or target.
+     */
+    @ExportedBean(defaultVisibility = 2)
+    public static final class Count implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final String name;
+        private final int warnings;
+        private final int errors;
+
+        Count(String name, int warnings, int errors) {
+            this.name = name;
+            this.warnings = warnings;
+            this.errors = errors;
+        }
+
+        @Exported
+        public String getName() {
+            return name;
+        }
+
+        @Exported
+        public int getWarnings() {
+            return warnings;
+        }
+
+        @Exported
+        public int getErrors() {
+            return errors;
+        }
+    }
+
+    private final DiagnosticCounts counts = new DiagnosticCounts();
+
+    /**
+     * @return the action of the given build, attaching a new one if needed
+     */
+    public static DiagnosticsAction of(AbstractBuild<?, ?> build) {
+        synchronized (build) {
+            DiagnosticsAction action = build.getAction(DiagnosticsAction.class);
+            if (action == null) {
+                action = new DiagnosticsAction();
+                build.addAction(action);
+            }
+            return action;
+        }
+    }
+
+    /**
+     * @return the hashes of the diagnostics seen last, for a scan to count them as repeats
+     */
+    long[] getSeen() {
+        return counts.getSeen();
+    }
+
+    /**
+     * Adds the counts of the scan of the output of a process.
+     *
+     * @param seen the diagnostics the scan has seen
+     */
+    void add(DiagnosticCounts scan, long[] seen) {
+        counts.add(scan);
+        counts.see(seen);
+    }
+
+    @Exported
+    public int getWarnings() {
+        return counts.getWarnings();
+    }
+
+    @Exported
+    public int getErrors() {
+        return counts.getErrors();
+    }
+
+    /**
+     * @return the number of diagnostics not counted because they were reported before
+     */
+    @Exported
+    public int getRepeated() {
+        return counts.getRepeated();
+    }
+
+    @Exported
+    public List<Count> getFiles() {
+        return top(counts.getFiles());
+    }
+
+    @Exported
+    public List<Count> getCategories() {
+        return top(counts.getCategories());
+    }
+
+    @Exported
+    public List<Count> getTargets() {
+        return top(counts.getTargets());
+    }
+
+    @Exported
+    public List<Diagnostic> getErrorSamples() {
+        return Collections.unmodifiableList(counts.getErrorSamples());
+    }
+
+    @Exported
+    public List<Diagnostic> getWarningSamples() {
+        return Collections.unmodifiableList(counts.getWarningSamples());
+    }
+
+    /**
+     * @return the entries with the most errors, then warnings
+     */
+    private static List<Count> top(Map<String, int[]> counts) {
+        List<Count> sorted = new ArrayList<Count>();
+        for (Map.Entry<String, int[]> entry : counts.entrySet()) {
+            sorted.add(new Count(entry.getKey(), entry.getValue()[0], entry.getValue()[1]));
+        }
+        Collections.sort(sorted, new Comparator<Count>() {
+            public int compare(Count a, Count b) {
+                if (a.errors != b.errors) {
+                    return a.errors > b.errors ? -1 : 1;
+                }
+                if (a.warnings != b.warnings) {
+                    return a.warnings > b.warnings ? -1 : 1;
+                }
+                return a.name.compareTo(b.name);
+            }
+        });
+        return sorted.subList(0, Math.min(TOP, sorted.size()));
+    }
+
+    public Api getApi() {
+        return new Api(this);
+    }
+
+    public String getIconFileName() {
+        return "warning.gif";
+    }
+
+    public String getDisplayName() {
+        return "Compiler Warnings";
+    }
+
+    public String getUrlName() {
+        return "cmakeDiagnostics";
+    }
+}
@@ -0,0 +1,198 @@
+package hudson.plugins.cmake;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.UUID;
+
+/**
+ * Keeps snapshots as files in a directory with the same path on every
+ * node, either a local directory or a shared mount. The least recently
+ * used snapshots are deleted once the directory exceeds its size or
+ * number of snapshots.
+ */
+public class DirectorySnapshotStore implements SnapshotStore {
+
+    private static final long serialVersionUID = 1L;
+
+    static final String SUFFIX = ".tar.gz";
+    private static final String UPLOAD_PREFIX = ".upload-";
+
+    /** Uploads older than this are left over from crashed builds. */
+    private static final long STALE_UPLOAD_MILLIS = 24 * 60 * 60 * 1000L;
+
+    private final String directory;
+    private final long maxBytes;
+    private final int maxSnapshots;
+
+    /**
+     * @param maxBytes     total size of the snapshots, <tt>0</tt> for no limit
+     * @param maxSnapshots number of snapshots, <tt>0</tt> for no limit
+     */
+    public DirectorySnapshotStore(String directory, long maxBytes, int maxSnapshots) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        this.maxSnapshots = maxSnapshots;
+    }
+
+    public String getDirectory() {
+        return directory;
+    }
+
+    public Snapshot find(SnapshotKey key, String platform) throws IOException {
+        final File dir = new File(directory);
+        final String prefix = key.compatibleId(platform) + "-";
+        File exact = key.isRevisionKnown() ? new File(dir, prefix + key.revisionId() + SUFFIX) : null;
+        File found = exact != null && exact.isFile() ? exact : null;
+        if (found == null) {
+            File[] compatible = dir.listFiles();
+            if (compatible == null) {
+                return null;
+            }
+            for (File file : compatible) {
+                if (file.getName().startsWith(prefix) && file.getName().endsWith(SUFFIX)
+                        && (found == null || file.lastModified() > found.lastModified())) {
+                    found = file;
+                }
+            }
+            if (found == null) {
+                return null;
+            }
+        }
+        // the modification time is the time of last use
+        found.setLastModified(System.currentTimeMillis());
+        return new FileSnapshot(found, found.equals(exact));
+    }
+
+    public boolean contains(SnapshotKey key, String platform) {
+        return key.isRevisionKnown()
+                && new File(directory, key.compatibleId(platform) + "-" + key.revisionId() + SUFFIX).isFile();
+    }
+
+    public Upload create(SnapshotKey key, String platform) throws IOException {
+        final File dir = new File(directory);
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Unable to create " + dir);
+        }
+        final File target = new File(dir, key.compatibleId(platform) + "-" + key.revisionId() + SUFFIX);
+        final File temp = new File(dir, UPLOAD_PREFIX + UUID.randomUUID() + ".tmp");
+        return new FileUpload(temp, target);
+    }
+
+    private static final class FileSnapshot implements Snapshot {
+        private final File file;
+        private final boolean exact;
+
+        FileSnapshot(File file, boolean exact) {
+            this.file = file;
+            this.exact = exact;
+        }
+
+        public boolean isExact() {
+            return exact;
+        }
+
+        public String getName() {
+            return file.getName();
+        }
+
+        public InputStream open() throws IOException {
+            return new FileInputStream(file);
+        }
+    }
+
+    private final class FileUpload implements Upload {
+        private final File temp;
+        private final File target;
+        private final OutputStream out;
+
+        FileUpload(File temp, File target) throws IOException {
+            this.temp = temp;
+            this.target = target;
+            this.out = new BufferedOutputStream(new FileOutputStream(temp), 64 * 1024);
+        }
+
+        public OutputStream getStream() {
+            return out;
+        }
+
+        public void commit() throws IOException {
+            out.close();
+            if (!temp.renameTo(target)) {
+                // renaming onto an existing file fails on some platforms
+                target.delete();
+                if (!temp.renameTo(target)) {
+                    temp.delete();
+                    throw new IOException("Unable to store snapshot " + target);
+                }
+            }
+            evict();
+        }
+
+        public void abort() {
+            try {
+                out.close();
+            } catch (IOException e) {
+                // dropped anyway
+            }
+            temp.delete();
+        }
+    }
+
+    /**
+     * Deletes the least recently used snapshots until the store is within
+     * its limits, and uploads abandoned by crashed builds.
+     */
+    void evict() {
+        File[] files = new File(directory).listFiles();
+        if (files == null) {
+            return;
+        }
+        final long now = System.currentTimeMillis();
+        int snapshots = 0;
+        long bytes = 0;
+        for (File file : files) {
+            if (file.getName().startsWith(UPLOAD_PREFIX)) {
+                if (now - file.lastModified() > STALE_UPLOAD_MILLIS) {
+                    file.delete();
+                }
+            } else if (file.getName().endsWith(SUFFIX)) {
+                snapshots++;
+                bytes += file.length();
+            }
+        }
+        if (!isOverLimit(bytes, snapshots)) {
+            return;
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            public int compare(File a, File b) {
+                long x = a.lastModified();
+                long y = b.lastModified();
+                return x < y ? -1 : (x == y ? 0 : 1);
+            }
+        });
+        for (File file : files) {
+            if (!isOverLimit(bytes, snapshots)) {
+                break;
+            }
+            if (!file.getName().endsWith(SUFFIX)) {
+                continue;
+            }
+            long length = file.length();
+            if (file.delete()) {
+                snapshots--;
+                bytes -= length;
+            }
+        }
+    }
+
+    private boolean isOverLimit(long bytes, int snapshots) {
+        return (maxBytes > 0 && bytes > maxBytes) || (maxSnapshots > 0 && snapshots > maxSnapshots);
+    }
+}
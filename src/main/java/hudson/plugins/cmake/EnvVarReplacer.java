@@ -1,17 +1,46 @@
 package hudson.plugins.cmake;
 
+import java.util.LinkedHashMap;
 import java.util.Map;
-import java.util.Set;
 
 public class EnvVarReplacer {
-	
+
+	private static final int MAX_CACHED_TEMPLATES = 256;
+
+	/** The most recently used templates, by their source string. Guarded by itself. */
+	private static final Map<String, EnvVarTemplate> TEMPLATES =
+			new LinkedHashMap<String, EnvVarTemplate>(16, 0.75f, true) {
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<String, EnvVarTemplate> eldest) {
+					return size() > MAX_CACHED_TEMPLATES;
+				}
+			};
+
 	public static String replace(String stringContainingEnvVars, Map<String, String> envVars) {
-		Set<String> keys = envVars.keySet();
-    	for (String key : keys) {
-    		stringContainingEnvVars = 
-    			stringContainingEnvVars.replaceAll("\\$" + key, envVars.get(key));
-    	}
-    	return stringContainingEnvVars;
+		if (stringContainingEnvVars == null) {
+			return null;
+		}
+		return compile(stringContainingEnvVars).expand(envVars);
+	}
+
+	/**
+	 * Returns the tokenized form of the given string, reusing a previously
+	 * compiled template where possible.
+	 */
+	static EnvVarTemplate compile(String stringContainingEnvVars) {
+		EnvVarTemplate template;
+		synchronized (TEMPLATES) {
+			template = TEMPLATES.get(stringContainingEnvVars);
+		}
+		if (template == null) {
+			template = EnvVarTemplate.compile(stringContainingEnvVars);
+			synchronized (TEMPLATES) {
+				TEMPLATES.put(stringContainingEnvVars, template);
+			}
+		}
+		return template;
 	}
 
 }
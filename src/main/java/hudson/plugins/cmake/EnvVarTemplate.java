@@ -0,0 +1,128 @@
+package hudson.plugins.cmake;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A string containing <tt>$VAR</tt> or <tt>${VAR}</tt> references, tokenized
+ * once so it can be expanded repeatedly in a single linear pass.
+ *
+ * <p>
+ * Variable names are matched greedily, so <tt>$FOOBAR</tt> always refers to
+ * <tt>FOOBAR</tt> and never to <tt>FOO</tt> followed by <tt>BAR</tt>.
+ * References to unknown variables are left untouched.
+ */
+public final class EnvVarTemplate {
+
+    private final String template;
+    /** <tt>literals[i]</tt> precedes <tt>names[i]</tt>; the last literal trails the last reference. */
+    private final String[] literals;
+    private final String[] names;
+    private final String[] rawRefs;
+
+    private EnvVarTemplate(String template, List<String> literals, List<String> names, List<String> rawRefs) {
+        this.template = template;
+        this.literals = literals.toArray(new String[literals.size()]);
+        this.names = names.toArray(new String[names.size()]);
+        this.rawRefs = rawRefs.toArray(new String[rawRefs.size()]);
+    }
+
+    public static EnvVarTemplate compile(String template) {
+        List<String> literals = new ArrayList<String>();
+        List<String> names = new ArrayList<String>();
+        List<String> rawRefs = new ArrayList<String>();
+        if (template == null) {
+            return new EnvVarTemplate(null, literals, names, rawRefs);
+        }
+
+        final int len = template.length();
+        int literalStart = 0;
+        int i = 0;
+        while (i < len) {
+            if (template.charAt(i) != '$' || i + 1 >= len) {
+                i++;
+                continue;
+            }
+            int nameStart;
+            int nameEnd;
+            int refEnd;
+            if (template.charAt(i + 1) == '{') {
+                nameStart = i + 2;
+                nameEnd = template.indexOf('}', nameStart);
+                if (nameEnd < 0 || !isName(template, nameStart, nameEnd)) {
+                    i++;
+                    continue;
+                }
+                refEnd = nameEnd + 1;
+            } else {
+                nameStart = i + 1;
+                nameEnd = nameStart;
+                while (nameEnd < len && isNameChar(template.charAt(nameEnd), nameEnd == nameStart)) {
+                    nameEnd++;
+                }
+                if (nameEnd == nameStart) {
+                    i++;
+                    continue;
+                }
+                refEnd = nameEnd;
+            }
+            literals.add(template.substring(literalStart, i));
+            names.add(template.substring(nameStart, nameEnd));
+            rawRefs.add(template.substring(i, refEnd));
+            literalStart = refEnd;
+            i = refEnd;
+        }
+        literals.add(template.substring(literalStart));
+        return new EnvVarTemplate(template, literals, names, rawRefs);
+    }
+
+    private static boolean isName(String s, int start, int end) {
+        if (end <= start) {
+            return false;
+        }
+        for (int i = start; i < end; i++) {
+            if (!isNameChar(s.charAt(i), i == start)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isNameChar(char c, boolean first) {
+        return c == '_'
+                || (c >= 'A' && c <= 'Z')
+                || (c >= 'a' && c <= 'z')
+                || (!first && c >= '0' && c <= '9');
+    }
+
+    public String getTemplate() {
+        return template;
+    }
+
+    /**
+     * @return <tt>true</tt> if the template contains at least one variable reference.
+     */
+    public boolean hasReferences() {
+        return names.length > 0;
+    }
+
+    public String expand(Map<String, String> envVars) {
+        if (template == null || names.length == 0) {
+            return template;
+        }
+        StringBuilder sb = new StringBuilder(template.length() + 16 * names.length);
+        for (int i = 0; i < names.length; i++) {
+            sb.append(literals[i]);
+            String value = envVars.get(names[i]);
+            sb.append(value != null ? value : rawRefs[i]);
+        }
+        sb.append(literals[names.length]);
+        return sb.toString();
+    }
+
+    @Override
+    public String toString() {
+        return String.valueOf(template);
+    }
+}
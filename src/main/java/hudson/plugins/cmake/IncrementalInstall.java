@@ -0,0 +1,469 @@
+package hudson.plugins.cmake;
+
+import hudson.FilePath;
+import hudson.Util;
+import hudson.remoting.VirtualChannel;
+import hudson.util.NullStream;
+import hudson.util.StreamTaskListener;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Serializable;
+import java.io.Writer;
+import java.security.MessageDigest;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Installs into a staging directory through <tt>DESTDIR</tt> and syncs the
+ * staged files into the install directory, writing only files whose content
+ * changed and deleting the ones no longer installed. Unchanged files in the
+ * install directory keep their time stamps.
+ *
+ * <p>
+ * A manifest in the build directory records the content hash of each
+ * installed file, so the install directory itself is never read back, and
+ * the size and time stamp of each staged file, so files the install step
+ * left untouched are not hashed again.
+ */
+public final class IncrementalInstall {
+
+    static final String STAGING_DIR = ".cmakebuilder-staging";
+    static final String MANIFEST = ".cmakebuilder-install.manifest";
+    /** Files installed by all install runs since {@link #begin}, one absolute path per line. */
+    static final String STAGED = ".cmakebuilder-staged.txt";
+
+    private static final String FILE = "F";
+    private static final String LINK = "L";
+    private static final String INSTALL_DIR = "#install";
+
+    private IncrementalInstall() {
+    }
+
+    /**
+     * Counts of a sync.
+     */
+    public static final class Summary implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        int added;
+        int changed;
+        int removed;
+        int unchanged;
+        /** Staged files outside the install directory, which are not synced. */
+        int outside;
+
+        public int getAdded() {
+            return added;
+        }
+
+        public int getChanged() {
+            return changed;
+        }
+
+        public int getRemoved() {
+            return removed;
+        }
+
+        public int getUnchanged() {
+            return unchanged;
+        }
+
+        @Override
+        public String toString() {
+            return added + " added, " + changed + " changed, " + removed + " removed, " + unchanged + " unchanged"
+                    + (outside > 0 ? ", " + outside + " outside the install dir ignored" : "");
+        }
+    }
+
+    /**
+     * Prepares the staging directory, keeping the files of the last install
+     * so the install step can skip the ones that are up to date.
+     *
+     * @return the staging directory, to be passed as <tt>DESTDIR</tt>
+     */
+    public static String begin(FilePath buildDir) throws IOException, InterruptedException {
+        RemoteCallCounter.increment();
+        return buildDir.act(new Begin());
+    }
+
+    private static final class Begin implements FilePath.FileCallable<String> {
+        private static final long serialVersionUID = 1L;
+
+        public String invoke(File dir, VirtualChannel channel) throws IOException {
+            deleteInstallManifests(dir);
+            delete(new File(dir, STAGED));
+            File staging = new File(dir, STAGING_DIR);
+            if (!staging.isDirectory() && !staging.mkdirs()) {
+                throw new IOException("Unable to create " + staging);
+            }
+            return staging.getAbsolutePath();
+        }
+    }
+
+    /**
+     * Records the files cmake listed in <tt>install_manifest.txt</tt> after
+     * an install run, as the next run overwrites it.
+     */
+    public static void collect(FilePath buildDir) throws IOException, InterruptedException {
+        RemoteCallCounter.increment();
+        buildDir.act(new Collect());
+    }
+
+    private static final class Collect implements FilePath.FileCallable<Void> {
+        private static final long serialVersionUID = 1L;
+
+        public Void invoke(File dir, VirtualChannel channel) throws IOException {
+            collectInstallManifests(dir);
+            return null;
+        }
+    }
+
+    /**
+     * Syncs the staged files of all install runs since {@link #begin} into the install directory.
+     */
+    public static Summary sync(FilePath buildDir, String installDir) throws IOException, InterruptedException {
+        RemoteCallCounter.increment();
+        return buildDir.act(new Sync(installDir));
+    }
+
+    private static final class Sync implements FilePath.FileCallable<Summary> {
+        private static final long serialVersionUID = 1L;
+
+        private final String installDir;
+
+        Sync(String installDir) {
+            this.installDir = installDir;
+        }
+
+        public Summary invoke(File dir, VirtualChannel channel) throws IOException, InterruptedException {
+            collectInstallManifests(dir);
+            File install = new File(installDir).getAbsoluteFile();
+            File root = new File(new File(dir, STAGING_DIR), withoutDrive(install.getPath()));
+            Summary summary = new Summary();
+            Map<String, File> staged = staged(dir, root, summary);
+            Map<String, String[]> previous = readManifest(new File(dir, MANIFEST), install.getPath());
+
+            File manifestFile = new File(dir, MANIFEST + ".tmp");
+            Writer manifest = new OutputStreamWriter(new FileOutputStream(manifestFile), "UTF-8");
+            try {
+                manifest.write(INSTALL_DIR + '\t' + install.getPath() + '\n');
+                for (Map.Entry<String, File> entry : staged.entrySet()) {
+                    String[] record = syncFile(entry.getValue(), new File(install, entry.getKey()),
+                            previous.remove(entry.getKey()), summary);
+                    writeRecord(manifest, record, entry.getKey());
+                }
+            } finally {
+                manifest.close();
+            }
+            for (String path : previous.keySet()) {
+                File target = new File(install, path);
+                if (target.exists() || TrashReaper.isSymlink(target)) {
+                    delete(target);
+                    pruneEmptyParents(target.getParentFile(), install);
+                }
+                summary.removed++;
+            }
+            File current = new File(dir, MANIFEST);
+            delete(current);
+            if (!manifestFile.renameTo(current)) {
+                throw new IOException("Unable to rename " + manifestFile + " to " + current);
+            }
+            return summary;
+        }
+    }
+
+    /**
+     * @return the record of the installed file
+     */
+    private static String[] syncFile(File staged, File target, String[] previous, Summary summary)
+            throws IOException, InterruptedException {
+        boolean exists = target.exists() || TrashReaper.isSymlink(target);
+        if (TrashReaper.isSymlink(staged)) {
+            String linkTarget = linkTarget(staged);
+            if (previous != null && previous[0].equals(LINK) && previous[1].equals(linkTarget)
+                    && TrashReaper.isSymlink(target)) {
+                summary.unchanged++;
+            } else {
+                if (exists) {
+                    Util.deleteRecursive(target);
+                }
+                mkdirs(target.getParentFile());
+                Util.createSymlink(target.getParentFile(), linkTarget, target.getName(),
+                        new StreamTaskListener(new NullStream()));
+                count(exists, summary);
+            }
+            return new String[] {LINK, linkTarget};
+        }
+
+        String size = String.valueOf(staged.length());
+        String mtime = String.valueOf(staged.lastModified());
+        boolean installed = previous != null && previous[0].equals(FILE) && target.isFile()
+                && String.valueOf(target.length()).equals(previous[2]);
+        // untouched by the install step since the last sync
+        if (installed && previous[2].equals(size) && previous[3].equals(mtime)) {
+            summary.unchanged++;
+            return previous;
+        }
+        String hash = hash(staged);
+        if (installed && previous[1].equals(hash) && previous[2].equals(size)) {
+            summary.unchanged++;
+        } else {
+            if (target.isDirectory() || TrashReaper.isSymlink(target)) {
+                Util.deleteRecursive(target);
+            }
+            copy(staged, target);
+            count(exists, summary);
+        }
+        return new String[] {FILE, hash, size, mtime};
+    }
+
+    private static void count(boolean existed, Summary summary) {
+        if (existed) {
+            summary.changed++;
+        } else {
+            summary.added++;
+        }
+    }
+
+    /**
+     * @return the staged files below the staging root by path relative to it
+     */
+    private static Map<String, File> staged(File buildDir, File root, Summary summary) throws IOException {
+        Map<String, File> staged = new LinkedHashMap<String, File>();
+        String prefix = root.getPath() + File.separator;
+        File list = new File(buildDir, STAGED);
+        if (list.isFile()) {
+            BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(list), "UTF-8"));
+            try {
+                String line;
+                while ((line = in.readLine()) != null) {
+                    if (line.trim().length() == 0) {
+                        continue;
+                    }
+                    File file = new File(line.trim());
+                    if (!file.exists() && !TrashReaper.isSymlink(file)) {
+                        continue;
+                    }
+                    if (file.getPath().startsWith(prefix)) {
+                        staged.put(file.getPath().substring(prefix.length()).replace(File.separatorChar, '/'), file);
+                    } else {
+                        summary.outside++;
+                    }
+                }
+            } finally {
+                in.close();
+            }
+        } else {
+            // the install step did not write a manifest, e.g. a custom install command
+            walk(root, "", staged);
+        }
+        return staged;
+    }
+
+    private static void walk(File dir, String relative, Map<String, File> files) throws IOException {
+        String[] names = dir.list();
+        if (names == null) {
+            return;
+        }
+        for (String name : names) {
+            File file = new File(dir, name);
+            String path = relative + name;
+            if (file.isDirectory() && !TrashReaper.isSymlink(file)) {
+                walk(file, path + '/', files);
+            } else {
+                files.put(path, file);
+            }
+        }
+    }
+
+    /**
+     * Appends the entries of the <tt>install_manifest*.txt</tt> files cmake
+     * wrote to the staged file list and deletes them.
+     */
+    private static void collectInstallManifests(File buildDir) throws IOException {
+        File[] manifests = installManifests(buildDir);
+        if (manifests.length == 0) {
+            return;
+        }
+        Writer out = new OutputStreamWriter(new FileOutputStream(new File(buildDir, STAGED), true), "UTF-8");
+        try {
+            for (File manifest : manifests) {
+                BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(manifest), "UTF-8"));
+                try {
+                    String line;
+                    while ((line = in.readLine()) != null) {
+                        out.write(line);
+                        out.write('\n');
+                    }
+                } finally {
+                    in.close();
+                }
+                delete(manifest);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    private static void deleteInstallManifests(File buildDir) throws IOException {
+        for (File manifest : installManifests(buildDir)) {
+            delete(manifest);
+        }
+    }
+
+    private static File[] installManifests(File buildDir) {
+        File[] manifests = buildDir.listFiles();
+        if (manifests == null) {
+            return new File[0];
+        }
+        int n = 0;
+        for (File file : manifests) {
+            if (file.getName().startsWith("install_manifest") && file.getName().endsWith(".txt")) {
+                manifests[n++] = file;
+            }
+        }
+        File[] result = new File[n];
+        System.arraycopy(manifests, 0, result, 0, n);
+        return result;
+    }
+
+    /**
+     * @return the records of the last sync into the given install directory
+     *         by path: type, then hash, size and time stamp of the staged
+     *         file, or the target of a link
+     */
+    private static Map<String, String[]> readManifest(File file, String installDir) throws IOException {
+        Map<String, String[]> records = new HashMap<String, String[]>();
+        if (!file.isFile()) {
+            return records;
+        }
+        BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+        try {
+            String line;
+            while ((line = in.readLine()) != null) {
+                String[] fields = line.split("\t");
+                if (fields[0].equals(INSTALL_DIR)) {
+                    // never delete from a directory the manifest was not written for
+                    if (fields.length != 2 || !fields[1].equals(installDir)) {
+                        return new HashMap<String, String[]>();
+                    }
+                } else if (fields.length == 5 && fields[0].equals(FILE)) {
+                    records.put(fields[4], new String[] {FILE, fields[1], fields[2], fields[3]});
+                } else if (fields.length == 3 && fields[0].equals(LINK)) {
+                    records.put(fields[2], new String[] {LINK, fields[1]});
+                }
+            }
+        } finally {
+            in.close();
+        }
+        return records;
+    }
+
+    private static void writeRecord(Writer out, String[] record, String path) throws IOException {
+        for (String field : record) {
+            out.write(field);
+            out.write('\t');
+        }
+        out.write(path);
+        out.write('\n');
+    }
+
+    /**
+     * @return the target of a staged link as written, so relative links stay relative to the install dir
+     */
+    private static String linkTarget(File link) throws IOException, InterruptedException {
+        String target = Util.resolveSymlink(link, new StreamTaskListener(new NullStream()));
+        if (target == null) {
+            throw new IOException("Unable to read the symbolic link " + link);
+        }
+        return target;
+    }
+
+    private static String hash(File file) throws IOException {
+        MessageDigest md = ConfigureFingerprint.sha1();
+        byte[] buffer = new byte[64 * 1024];
+        InputStream in = new FileInputStream(file);
+        try {
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                md.update(buffer, 0, n);
+            }
+        } finally {
+            in.close();
+        }
+        return ConfigureFingerprint.toHex(md.digest());
+    }
+
+    /**
+     * Copies through a temporary file next to the target, keeping the time
+     * stamp and executable bit of the staged file.
+     */
+    private static void copy(File from, File to) throws IOException {
+        mkdirs(to.getParentFile());
+        File tmp = new File(to.getParentFile(), "." + to.getName() + ".cmakebuilder-tmp");
+        byte[] buffer = new byte[64 * 1024];
+        InputStream in = new FileInputStream(from);
+        try {
+            OutputStream out = new FileOutputStream(tmp);
+            try {
+                int n;
+                while ((n = in.read(buffer)) > 0) {
+                    out.write(buffer, 0, n);
+                }
+            } finally {
+                out.close();
+            }
+        } finally {
+            in.close();
+        }
+        tmp.setLastModified(from.lastModified());
+        if (from.canExecute()) {
+            tmp.setExecutable(true, false);
+        }
+        // Windows cannot rename over an existing file
+        if (!tmp.renameTo(to) && !(to.delete() && tmp.renameTo(to))) {
+            throw new IOException("Unable to rename " + tmp + " to " + to);
+        }
+    }
+
+    private static void pruneEmptyParents(File dir, File root) {
+        while (dir != null && !dir.equals(root)) {
+            String[] children = dir.list();
+            if (children == null || children.length > 0 || !dir.delete()) {
+                return;
+            }
+            dir = dir.getParentFile();
+        }
+    }
+
+    /**
+     * Strips the drive of a Windows path, as cmake does when it prepends <tt>DESTDIR</tt>.
+     */
+    static String withoutDrive(String path) {
+        if (path.length() > 1 && path.charAt(1) == ':') {
+            return path.substring(2);
+        }
+        return path;
+    }
+
+    private static void mkdirs(File dir) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Unable to create " + dir);
+        }
+    }
+
+    private static void delete(File file) throws IOException {
+        if ((file.exists() || TrashReaper.isSymlink(file)) && !file.delete()) {
+            throw new IOException("Unable to delete " + file);
+        }
+    }
+}
@@ -0,0 +1,268 @@
+package hudson.plugins.cmake;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Pull parser for JSON documents, reading one token at a time so large
+ * documents can be processed without building them in memory.
+ */
+final class JsonPullParser {
+
+    enum Token {
+        BEGIN_OBJECT, END_OBJECT, BEGIN_ARRAY, END_ARRAY, NAME, STRING, NUMBER, BOOLEAN, NULL, END
+    }
+
+    private final Reader in;
+    private final char[] buf = new char[8192];
+    private int pos;
+    private int limit;
+    private final StringBuilder text = new StringBuilder();
+    /** Per nesting level: whether it is an object, and whether it expects a name next. */
+    private boolean[] object = new boolean[32];
+    private boolean[] expectName = new boolean[32];
+    private int depth;
+    private Token peeked;
+    private String value;
+
+    JsonPullParser(Reader in) {
+        this.in = in;
+    }
+
+    /**
+     * @return the text of the last {@link Token#NAME}, {@link Token#STRING},
+     *         {@link Token#NUMBER} or {@link Token#BOOLEAN}
+     */
+    String getValue() {
+        return value;
+    }
+
+    Token peek() throws IOException {
+        if (peeked == null) {
+            peeked = read();
+        }
+        return peeked;
+    }
+
+    Token next() throws IOException {
+        Token token = peek();
+        peeked = null;
+        return token;
+    }
+
+    /**
+     * Reads the next name in the current object.
+     *
+     * @return the name, or <tt>null</tt> at the end of the object
+     */
+    String nextName() throws IOException {
+        Token token = next();
+        if (token == Token.END_OBJECT) {
+            return null;
+        }
+        expect(token, Token.NAME);
+        return value;
+    }
+
+    /**
+     * @return the next string value, or <tt>null</tt> if it is <tt>null</tt>
+     */
+    String nextString() throws IOException {
+        Token token = next();
+        if (token == Token.NULL) {
+            return null;
+        }
+        if (token != Token.STRING && token != Token.NUMBER && token != Token.BOOLEAN) {
+            throw new IOException("Expected a string but found " + token);
+        }
+        return value;
+    }
+
+    void beginObject() throws IOException {
+        expect(next(), Token.BEGIN_OBJECT);
+    }
+
+    void beginArray() throws IOException {
+        expect(next(), Token.BEGIN_ARRAY);
+    }
+
+    /**
+     * @return whether the current array has another element, consuming its end otherwise
+     */
+    boolean hasNextElement() throws IOException {
+        if (peek() == Token.END_ARRAY) {
+            next();
+            return false;
+        }
+        return true;
+    }
+
+    void close() throws IOException {
+        in.close();
+    }
+
+    /**
+     * Skips the next value, including everything nested in it.
+     */
+    void skipValue() throws IOException {
+        int nesting = 0;
+        do {
+            Token token = next();
+            if (token == Token.BEGIN_OBJECT || token == Token.BEGIN_ARRAY) {
+                nesting++;
+            } else if (token == Token.END_OBJECT || token == Token.END_ARRAY) {
+                nesting--;
+            } else if (token == Token.END) {
+                throw new IOException("Unexpected end of JSON");
+            }
+        } while (nesting > 0);
+    }
+
+    private static void expect(Token actual, Token expected) throws IOException {
+        if (actual != expected) {
+            throw new IOException("Expected " + expected + " but found " + actual);
+        }
+    }
+
+    private Token read() throws IOException {
+        int c = skipSeparators();
+        switch (c) {
+        case -1:
+            return Token.END;
+        case '{':
+            push(true);
+            return Token.BEGIN_OBJECT;
+        case '[':
+            push(false);
+            return Token.BEGIN_ARRAY;
+        case '}':
+        case ']':
+            depth--;
+            return c == '}' ? Token.END_OBJECT : Token.END_ARRAY;
+        case '"':
+            value = readString();
+            if (depth > 0 && expectName[depth - 1]) {
+                int colon = skipWhitespace();
+                if (colon != ':') {
+                    throw new IOException("Expected ':' after name " + value);
+                }
+                expectName[depth - 1] = false;
+                return Token.NAME;
+            }
+            return Token.STRING;
+        default:
+            value = readLiteral((char) c);
+            if (value.equals("null")) {
+                return Token.NULL;
+            } else if (value.equals("true") || value.equals("false")) {
+                return Token.BOOLEAN;
+            }
+            return Token.NUMBER;
+        }
+    }
+
+    private void push(boolean isObject) {
+        if (depth == object.length) {
+            boolean[] grown = new boolean[depth * 2];
+            System.arraycopy(object, 0, grown, 0, depth);
+            object = grown;
+            grown = new boolean[depth * 2];
+            System.arraycopy(expectName, 0, grown, 0, depth);
+            expectName = grown;
+        }
+        object[depth] = isObject;
+        expectName[depth] = isObject;
+        depth++;
+    }
+
+    private int skipSeparators() throws IOException {
+        int c = skipWhitespace();
+        if (c == ',') {
+            if (depth > 0 && object[depth - 1]) {
+                expectName[depth - 1] = true;
+            }
+            c = skipWhitespace();
+        }
+        return c;
+    }
+
+    private int skipWhitespace() throws IOException {
+        while (true) {
+            int c = readChar();
+            if (c != ' ' && c != '\t' && c != '\n' && c != '\r') {
+                return c;
+            }
+        }
+    }
+
+    private int readChar() throws IOException {
+        if (pos == limit) {
+            limit = in.read(buf, 0, buf.length);
+            pos = 0;
+            if (limit <= 0) {
+                limit = 0;
+                return -1;
+            }
+        }
+        return buf[pos++];
+    }
+
+    private String readString() throws IOException {
+        text.setLength(0);
+        while (true) {
+            int c = readChar();
+            if (c == -1) {
+                throw new IOException("Unterminated string in JSON");
+            } else if (c == '"') {
+                return text.toString();
+            } else if (c == '\\') {
+                int e = readChar();
+                switch (e) {
+                case 'n': text.append('\n'); break;
+                case 't': text.append('\t'); break;
+                case 'r': text.append('\r'); break;
+                case 'b': text.append('\b'); break;
+                case 'f': text.append('\f'); break;
+                case 'u':
+                    int code = 0;
+                    for (int i = 0; i < 4; i++) {
+                        int digit = Character.digit(readChar(), 16);
+                        if (digit < 0) {
+                            throw new IOException("Invalid \\u escape in JSON");
+                        }
+                        code = code * 16 + digit;
+                    }
+                    // surrogate pairs arrive as two escapes and are appended as they are
+                    text.append((char) code);
+                    break;
+                default:
+                    text.append((char) e);
+                }
+            } else {
+                text.append((char) c);
+            }
+        }
+    }
+
+    private String readLiteral(char first) throws IOException {
+        text.setLength(0);
+        text.append(first);
+        while (true) {
+            if (pos == limit) {
+                limit = in.read(buf, 0, buf.length);
+                pos = 0;
+                if (limit <= 0) {
+                    limit = 0;
+                    break;
+                }
+            }
+            char c = buf[pos];
+            if (c == ',' || c == '}' || c == ']' || c == ' ' || c == '\n' || c == '\r' || c == '\t') {
+                break;
+            }
+            text.append(c);
+            pos++;
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,125 @@
+package hudson.plugins.cmake;
+
+import hudson.model.Node;
+import hudson.remoting.Callable;
+import hudson.remoting.VirtualChannel;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Serializable;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Processors and memory of a node, measured on the node itself and cached
+ * for a short while so consecutive builds don't pay for the round trip.
+ */
+public final class NodeCapacity implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /** How long a measurement is reused before the node is asked again. */
+    private static final long MAX_AGE_MILLIS = 60 * 1000L;
+
+    private static final Map<String, NodeCapacity> CACHE = new ConcurrentHashMap<String, NodeCapacity>();
+
+    private final int processors;
+    /** Memory available for new processes in bytes, <tt>-1</tt> if unknown. */
+    private final long availableMemory;
+    private final long measuredAt;
+
+    NodeCapacity(int processors, long availableMemory, long measuredAt) {
+        this.processors = processors;
+        this.availableMemory = availableMemory;
+        this.measuredAt = measuredAt;
+    }
+
+    public int getProcessors() {
+        return processors;
+    }
+
+    public long getAvailableMemory() {
+        return availableMemory;
+    }
+
+    /**
+     * Returns the capacity of the given node, measuring it if the cached
+     * value is missing or stale.
+     */
+    public static NodeCapacity of(Node node) throws IOException, InterruptedException {
+        final String key = node.getNodeName();
+        NodeCapacity capacity = CACHE.get(key);
+        if (capacity != null && System.currentTimeMillis() - capacity.measuredAt < MAX_AGE_MILLIS) {
+            return capacity;
+        }
+        VirtualChannel channel = node.getChannel();
+        if (channel == null) {
+            throw new IOException("Node " + node.getDisplayName() + " is offline");
+        }
+        RemoteCallCounter.increment();
+        capacity = channel.call(new Measure());
+        capacity = new NodeCapacity(capacity.processors, capacity.availableMemory, System.currentTimeMillis());
+        CACHE.put(key, capacity);
+        return capacity;
+    }
+
+    /**
+     * Number of parallel jobs this node can run: one per processor, reduced
+     * so that each job gets at least <tt>memoryPerJobMb</tt> of memory.
+     *
+     * @param memoryPerJobMb memory each job needs in MB, <tt>0</tt> for no limit
+     */
+    public int jobs(long memoryPerJobMb) {
+        int jobs = processors;
+        if (memoryPerJobMb > 0 && availableMemory > 0) {
+            long byMemory = availableMemory / (memoryPerJobMb * 1024 * 1024);
+            if (byMemory < jobs) {
+                jobs = (int) byMemory;
+            }
+        }
+        return Math.max(1, jobs);
+    }
+
+    @Override
+    public String toString() {
+        return processors + " processors, "
+                + (availableMemory >= 0 ? (availableMemory / (1024 * 1024)) + " MB available" : "unknown memory");
+    }
+
+    private static final class Measure implements Callable<NodeCapacity, IOException> {
+        private static final long serialVersionUID = 1L;
+
+        public NodeCapacity call() throws IOException {
+            return new NodeCapacity(Runtime.getRuntime().availableProcessors(), availableMemory(), 0);
+        }
+
+        private static long availableMemory() throws IOException {
+            File meminfo = new File("/proc/meminfo");
+            if (meminfo.isFile()) {
+                BufferedReader r = new BufferedReader(new FileReader(meminfo));
+                try {
+                    String line;
+                    while ((line = r.readLine()) != null) {
+                        if (line.startsWith("MemAvailable:")) {
+                            String[] parts = line.substring("MemAvailable:".length()).trim().split("\\s+");
+                            return Long.parseLong(parts[0]) * 1024;
+                        }
+                    }
+                } catch (NumberFormatException e) {
+                    // fall back to the JVM's view
+                } finally {
+                    r.close();
+                }
+            }
+            OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+            if (os instanceof com.sun.management.OperatingSystemMXBean) {
+                return ((com.sun.management.OperatingSystemMXBean) os).getFreePhysicalMemorySize();
+            }
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,310 @@
+package hudson.plugins.cmake;
+
+import hudson.model.Node;
+import hudson.model.TaskListener;
+import hudson.remoting.Callable;
+import hudson.remoting.VirtualChannel;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Shares the processors of a node between all cmake builds running on it.
+ *
+ * <p>
+ * Each node JVM owns one GNU make jobserver: a named pipe holding one token
+ * per processor (less the implicit token every make starts with). Make
+ * based builds join it through <tt>MAKEFLAGS</tt> instead of starting
+ * their own <tt>-jN</tt>, so concurrent builds never run more compile jobs
+ * than the node has processors. Builds that cannot join the jobserver,
+ * such as Ninja, get a fair share of the processors as their job limit.
+ *
+ * <p>
+ * The named pipe jobserver needs GNU make 4.4 or newer and a system with
+ * <tt>mkfifo</tt>; elsewhere only the fair share is used. Older makes stop
+ * on the <tt>fifo:</tt> form of <tt>--jobserver-auth</tt>, so the version of
+ * the make a build runs is checked on the node first and remembered there
+ * until the executable changes.
+ *
+ * <p>
+ * Every make also runs one job on its implicit token without taking one
+ * from the pipe, so <i>n</i> builds sharing the jobserver run up to
+ * <i>processors - 1 + n</i> jobs at a time. The tokens cannot be taken back
+ * from a running make, so the pipe keeps its size while builds come and go.
+ */
+public final class NodeJobServer {
+
+    private static final Logger LOGGER = Logger.getLogger(NodeJobServer.class.getName());
+
+    private static final String MAKEFLAGS = "MAKEFLAGS";
+
+    /** <tt>GNU Make 4.3</tt>, the first line of <tt>make --version</tt>. */
+    private static final Pattern MAKE_VERSION = Pattern.compile("GNU Make (\\d+)\\.(\\d+)");
+
+    /** The makes probed in the node JVM, by path. */
+    private static final Map<String, Make> MAKES = new ConcurrentHashMap<String, Make>();
+
+    /* state of the jobserver in the node JVM */
+    private static int active;
+    private static int tokens;
+    private static File fifo;
+    private static RandomAccessFile holder;
+    private static FileInputStream available;
+    private static boolean unavailable;
+
+    private NodeJobServer() {
+    }
+
+    /**
+     * The right of one build to use the node's jobserver.
+     */
+    public static final class Lease implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final String fifoPath;
+        private final String note;
+        private final int processors;
+        private final int fairShare;
+        private final int builds;
+
+        Lease(String fifoPath, String note, int processors, int fairShare, int builds) {
+            this.fifoPath = fifoPath;
+            this.note = note;
+            this.processors = processors;
+            this.fairShare = fairShare;
+            this.builds = builds;
+        }
+
+        /**
+         * @return the number of cmake builds sharing the node, including this one
+         */
+        public int getBuilds() {
+            return builds;
+        }
+
+        /**
+         * @return this build's share of the node's processors
+         */
+        public int getFairShare() {
+            return fairShare;
+        }
+
+        /**
+         * Sets up the build environment to use the jobserver.
+         *
+         * @param makeBased whether the build tool is GNU make
+         * @return the number of jobs to pass to the build tool, or <tt>0</tt>
+         *         if the jobserver decides
+         */
+        public int apply(Map<String, String> envs, boolean makeBased) {
+            if (makeBased && fifoPath != null) {
+                String flags = "-j" + processors + " --jobserver-auth=fifo:" + fifoPath;
+                String existing = envs.get(MAKEFLAGS);
+                envs.put(MAKEFLAGS, existing != null && existing.trim().length() > 0
+                        ? existing.trim() + " " + flags : flags);
+                return 0;
+            }
+            return fairShare;
+        }
+
+        @Override
+        public String toString() {
+            return (fifoPath != null ? "jobserver " + fifoPath + ", " : note != null ? note + ", " : "")
+                    + builds + " build(s) sharing " + processors + " processors";
+        }
+    }
+
+    /**
+     * Counts a build as sharing the node until {@link #release}.
+     *
+     * @param makeProgram the GNU make the build runs, or <tt>null</tt> if it runs another build tool
+     * @param searchPath the <tt>PATH</tt> of the build, used to resolve a bare executable name
+     */
+    public static Lease acquire(Node node, String makeProgram, String searchPath, TaskListener listener)
+            throws IOException, InterruptedException {
+        VirtualChannel channel = node.getChannel();
+        if (channel == null) {
+            throw new IOException("Node " + node.getDisplayName() + " is offline");
+        }
+        RemoteCallCounter.increment();
+        Lease lease = channel.call(new Acquire(makeProgram, searchPath));
+        listener.getLogger().println("Node job sharing: " + lease);
+        return lease;
+    }
+
+    public static void release(Node node) throws IOException, InterruptedException {
+        VirtualChannel channel = node.getChannel();
+        if (channel == null) {
+            return;
+        }
+        RemoteCallCounter.increment();
+        channel.call(new Release());
+    }
+
+    private static final class Acquire implements Callable<Lease, IOException> {
+        private static final long serialVersionUID = 1L;
+
+        private final String makeProgram;
+        private final String searchPath;
+
+        Acquire(String makeProgram, String searchPath) {
+            this.makeProgram = makeProgram;
+            this.searchPath = searchPath;
+        }
+
+        public Lease call() throws IOException {
+            final Make make = makeProgram != null ? Make.probe(makeProgram, searchPath) : null;
+            String note = null;
+            if (makeProgram != null && make == null) {
+                note = "cannot find " + makeProgram + " to check its version";
+            } else if (make != null && !make.hasNamedPipeJobServer()) {
+                note = make + " cannot join the jobserver, it needs GNU make 4.4";
+            }
+            synchronized (NodeJobServer.class) {
+                final int processors = Runtime.getRuntime().availableProcessors();
+                if (fifo == null && !unavailable) {
+                    create(processors);
+                }
+                if (active == 0) {
+                    refill();
+                }
+                active++;
+                final boolean join = make != null && note == null && fifo != null;
+                return new Lease(join ? fifo.getPath() : null, note, processors,
+                        Math.max(1, processors / active), active);
+            }
+        }
+    }
+
+    private static final class Release implements Callable<Void, IOException> {
+        private static final long serialVersionUID = 1L;
+
+        public Void call() throws IOException {
+            synchronized (NodeJobServer.class) {
+                active = Math.max(0, active - 1);
+                if (active == 0) {
+                    // tokens held by killed makes are lost, put them back while nobody builds
+                    refill();
+                }
+                return null;
+            }
+        }
+    }
+
+    /**
+     * A make executable on the node and its version.
+     */
+    private static final class Make {
+        private final String path;
+        private final long lastModified;
+        private final long size;
+        private final int[] version;
+
+        private Make(File file, int[] version) {
+            this.path = file.getPath();
+            this.lastModified = file.lastModified();
+            this.size = file.length();
+            this.version = version;
+        }
+
+        /**
+         * Resolves a make executable and runs <tt>make --version</tt>, unless
+         * the same executable was probed before.
+         *
+         * @return the make, or <tt>null</tt> if it cannot be found
+         */
+        static Make probe(String makeProgram, String searchPath) throws IOException {
+            final File file = CmakeVersionCache.resolve(makeProgram, searchPath);
+            if (file == null) {
+                return null;
+            }
+            final Make cached = MAKES.get(file.getPath());
+            if (cached != null && cached.lastModified == file.lastModified() && cached.size == file.length()) {
+                return cached;
+            }
+            final Make make = new Make(file, parseMakeVersion(CmakeVersionCache.runVersion(file)));
+            MAKES.put(make.path, make);
+            return make;
+        }
+
+        boolean hasNamedPipeJobServer() {
+            return version != null && (version[0] > 4 || (version[0] == 4 && version[1] >= 4));
+        }
+
+        @Override
+        public String toString() {
+            return version != null ? "GNU make " + version[0] + "." + version[1] : path + " (not GNU make)";
+        }
+    }
+
+    /**
+     * @return major and minor version of the output of <tt>make --version</tt>,
+     *         or <tt>null</tt> if it is not GNU make
+     */
+    static int[] parseMakeVersion(String versionOutput) {
+        final Matcher m = MAKE_VERSION.matcher(versionOutput);
+        if (!m.find()) {
+            return null;
+        }
+        return new int[] { Integer.parseInt(m.group(1)), Integer.parseInt(m.group(2)) };
+    }
+
+    private static void create(int processors) {
+        try {
+            File dir = new File(System.getProperty("java.io.tmpdir"), "cmakebuilder-jobserver");
+            if (!dir.isDirectory() && !dir.mkdirs()) {
+                throw new IOException("Unable to create " + dir);
+            }
+            String jvm = ManagementFactory.getRuntimeMXBean().getName().replaceAll("[^A-Za-z0-9.@_-]", "_");
+            File pipe = new File(dir, "fifo-" + jvm);
+            pipe.delete();
+            Process mkfifo = new ProcessBuilder("mkfifo", "-m", "600", pipe.getAbsolutePath())
+                    .redirectErrorStream(true).start();
+            mkfifo.getOutputStream().close();
+            mkfifo.getInputStream().close();
+            if (mkfifo.waitFor() != 0) {
+                throw new IOException("mkfifo " + pipe + " failed");
+            }
+            // opened for reading and writing, so the pipe keeps its tokens while no make runs
+            holder = new RandomAccessFile(pipe, "rw");
+            available = new FileInputStream(holder.getFD());
+            tokens = Math.max(0, processors - 1);
+            fifo = pipe;
+            pipe.deleteOnExit();
+        } catch (IOException e) {
+            LOGGER.log(Level.INFO, "No jobserver on this node, using a fair share of processors", e);
+            unavailable = true;
+        } catch (InterruptedException e) {
+            unavailable = true;
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Brings the number of tokens in the pipe back to its nominal value.
+     */
+    private static void refill() throws IOException {
+        if (holder == null) {
+            return;
+        }
+        int present = available.available();
+        if (present < tokens) {
+            byte[] missing = new byte[tokens - present];
+            Arrays.fill(missing, (byte) '+');
+            holder.write(missing);
+        } else if (present > tokens) {
+            holder.read(new byte[present - tokens]);
+        }
+    }
+}
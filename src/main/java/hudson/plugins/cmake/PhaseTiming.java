@@ -0,0 +1,79 @@
+package hudson.plugins.cmake;
+
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+import java.io.Serializable;
+
+/**
+ * Wall clock time and outcome of one phase of a cmake build step.
+ */
+@ExportedBean(defaultVisibility = 2)
+public final class PhaseTiming implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Exit code used when a phase did not run an external process. */
+    public static final int NO_EXIT_CODE = -1;
+
+    private final String phase;
+    private final long durationMillis;
+    private final int exitCode;
+    private final boolean success;
+    private final boolean skipped;
+    private final String configuration;
+
+    public PhaseTiming(String phase, long durationMillis, int exitCode, boolean success, boolean skipped) {
+        this(phase, durationMillis, exitCode, success, skipped, null);
+    }
+
+    /**
+     * @param configuration the build configuration the phase ran for, or
+     *                      <tt>null</tt> if the step builds only one
+     */
+    public PhaseTiming(String phase, long durationMillis, int exitCode, boolean success, boolean skipped,
+                       String configuration) {
+        this.phase = phase;
+        this.durationMillis = durationMillis;
+        this.exitCode = exitCode;
+        this.success = success;
+        this.skipped = skipped;
+        this.configuration = configuration;
+    }
+
+    @Exported
+    public String getPhase() {
+        return phase;
+    }
+
+    @Exported
+    public long getDurationMillis() {
+        return durationMillis;
+    }
+
+    @Exported
+    public int getExitCode() {
+        return exitCode;
+    }
+
+    @Exported
+    public boolean isSuccess() {
+        return success;
+    }
+
+    @Exported
+    public boolean isSkipped() {
+        return skipped;
+    }
+
+    @Exported
+    public String getConfiguration() {
+        return configuration;
+    }
+
+    @Override
+    public String toString() {
+        return phase + (configuration != null ? " [" + configuration + "]" : "") + ": " + durationMillis + " ms"
+                + (skipped ? " (skipped)" : exitCode != NO_EXIT_CODE ? " (exit code " + exitCode + ")" : "");
+    }
+}
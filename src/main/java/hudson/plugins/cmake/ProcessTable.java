@@ -0,0 +1,174 @@
+package hudson.plugins.cmake;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The processes of a Linux node as <tt>/proc</tt> lists them, read on the
+ * node itself.
+ */
+final class ProcessTable {
+
+    private ProcessTable() {
+    }
+
+    /** Fields of <tt>/proc/&lt;pid&gt;/stat</tt>. */
+    static final class Stat {
+        final int pid;
+        final char state;
+        final int parent;
+        final long ticks;
+        final long startTime;
+        final long rssPages;
+
+        Stat(int pid, char state, int parent, long ticks, long startTime, long rssPages) {
+            this.pid = pid;
+            this.state = state;
+            this.parent = parent;
+            this.ticks = ticks;
+            this.startTime = startTime;
+            this.rssPages = rssPages;
+        }
+    }
+
+    static boolean isAvailable() {
+        return new File("/proc/self/stat").isFile();
+    }
+
+    /**
+     * @return the processes by pid, or <tt>null</tt> if there is no <tt>/proc</tt>
+     */
+    static Map<Integer, Stat> stats() {
+        final String[] names = new File("/proc").list();
+        if (names == null) {
+            return null;
+        }
+        final Map<Integer, Stat> stats = new HashMap<Integer, Stat>();
+        for (String name : names) {
+            if (name.length() > 0 && Character.isDigit(name.charAt(0))) {
+                Stat stat = stat(name);
+                if (stat != null) {
+                    stats.put(stat.pid, stat);
+                }
+            }
+        }
+        return stats;
+    }
+
+    /**
+     * @return whether the environment of a process has the given <tt>NAME=value</tt> entry
+     */
+    static boolean hasVariable(int pid, String variable) {
+        try {
+            byte[] environ = read(new File("/proc/" + pid + "/environ"));
+            String text = new String(environ, "ISO-8859-1");
+            int at = text.indexOf(variable);
+            return at >= 0 && (at == 0 || text.charAt(at - 1) == '\0')
+                    && (at + variable.length() == text.length() || text.charAt(at + variable.length()) == '\0');
+        } catch (IOException e) {
+            // not ours to read
+            return false;
+        }
+    }
+
+    /**
+     * @return the fields of <tt>/proc/&lt;pid&gt;/stat</tt>, or <tt>null</tt> if the process is gone
+     */
+    private static Stat stat(String pid) {
+        try {
+            String text = new String(read(new File("/proc/" + pid + "/stat")), "ISO-8859-1");
+            // the command in parentheses may contain spaces and parentheses
+            String[] fields = text.substring(text.lastIndexOf(')') + 2).trim().split(" ");
+            long ticks = Long.parseLong(fields[11]) + Long.parseLong(fields[12]) + Long.parseLong(fields[13])
+                    + Long.parseLong(fields[14]);
+            return new Stat(Integer.parseInt(pid), fields[0].charAt(0), Integer.parseInt(fields[1]), ticks,
+                    Long.parseLong(fields[19]), Long.parseLong(fields[21]));
+        } catch (IOException e) {
+            return null;
+        } catch (RuntimeException e) {
+            // gone while reading, or a format this does not know
+            return null;
+        }
+    }
+
+    /**
+     * @return the bytes read from and written to storage by a process and
+     *         the children it waited for
+     */
+    static long[] io(int pid) {
+        long[] io = new long[2];
+        try {
+            BufferedReader in = new BufferedReader(new FileReader("/proc/" + pid + "/io"));
+            try {
+                String line;
+                while ((line = in.readLine()) != null) {
+                    if (line.startsWith("read_bytes:")) {
+                        io[0] = Long.parseLong(line.substring("read_bytes:".length()).trim());
+                    } else if (line.startsWith("write_bytes:")) {
+                        io[1] = Long.parseLong(line.substring("write_bytes:".length()).trim());
+                    }
+                }
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            // gone, or not readable
+        } catch (NumberFormatException e) {
+            // ignored
+        }
+        return io;
+    }
+
+    /**
+     * @return the size of a memory page in bytes
+     */
+    static long pageSize() {
+        try {
+            BufferedReader in = new BufferedReader(new FileReader("/proc/self/smaps"));
+            try {
+                String line;
+                while ((line = in.readLine()) != null) {
+                    if (line.startsWith("KernelPageSize:")) {
+                        String[] parts = line.substring("KernelPageSize:".length()).trim().split("\\s+");
+                        return Long.parseLong(parts[0]) * 1024;
+                    }
+                }
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            // assume the usual size
+        } catch (NumberFormatException e) {
+            // assume the usual size
+        }
+        return 4096;
+    }
+
+    static byte[] read(File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            byte[] buffer = new byte[4096];
+            int length = 0;
+            int n;
+            while ((n = in.read(buffer, length, buffer.length - length)) > 0) {
+                length += n;
+                if (length == buffer.length) {
+                    byte[] larger = new byte[buffer.length * 2];
+                    System.arraycopy(buffer, 0, larger, 0, length);
+                    buffer = larger;
+                }
+            }
+            byte[] result = new byte[length];
+            System.arraycopy(buffer, 0, result, 0, length);
+            return result;
+        } finally {
+            in.close();
+        }
+    }
+}
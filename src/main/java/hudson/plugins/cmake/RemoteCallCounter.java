@@ -0,0 +1,45 @@
+package hudson.plugins.cmake;
+
+/**
+ * Counts the calls a build step makes to the node it runs on (remoting
+ * calls and process launches), so their number per step can be reported.
+ *
+ * <p>
+ * The count is kept per thread, which matches a build step running on its
+ * executor thread from start to end.
+ */
+public final class RemoteCallCounter {
+
+    private static final ThreadLocal<int[]> COUNT = new ThreadLocal<int[]>();
+
+    private RemoteCallCounter() {
+    }
+
+    /**
+     * Starts counting for the current thread.
+     */
+    public static void begin() {
+        COUNT.set(new int[1]);
+    }
+
+    /**
+     * Records one call, if the current thread is counting.
+     */
+    public static void increment() {
+        int[] count = COUNT.get();
+        if (count != null) {
+            count[0]++;
+        }
+    }
+
+    /**
+     * Stops counting for the current thread.
+     *
+     * @return the number of calls since {@link #begin()}
+     */
+    public static int end() {
+        int[] count = COUNT.get();
+        COUNT.remove();
+        return count != null ? count[0] : 0;
+    }
+}
@@ -0,0 +1,265 @@
+package hudson.plugins.cmake;
+
+import hudson.EnvVars;
+import hudson.remoting.Callable;
+import hudson.remoting.VirtualChannel;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Samples the processes a build step launches on the node through
+ * <tt>/proc</tt> while they run. The processes are recognized by a marker
+ * variable in their environment, which all processes started by them
+ * inherit; a process whose parent is known to be one of them is taken
+ * without reading its environment.
+ *
+ * <p>
+ * Processor time and bytes read and written are summed over the running
+ * processes including the children they waited for, which the kernel adds
+ * to the parent, so short-lived compilers that end between two samples
+ * are counted too. Nodes without <tt>/proc</tt> report no samples.
+ */
+public final class ResourceSampler {
+
+    static final String MARKER = "CMAKEBUILDER_SAMPLER";
+
+    private static final long INTERVAL_MILLIS = 1000;
+
+    /** Sampling ends by itself after this long without processes, should {@link #stop()} never come. */
+    private static final long IDLE_MILLIS = 10 * 60 * 1000L;
+
+    /** Length of a clock tick in <tt>/proc/&lt;pid&gt;/stat</tt>, the same on all Linux architectures. */
+    private static final long MILLIS_PER_TICK = 10;
+
+    /** Samplings running on this node, by id. */
+    private static final Map<String, Flag> RUNNING = new ConcurrentHashMap<String, Flag>();
+
+    private final VirtualChannel channel;
+    private final EnvVars envs;
+    private final String id;
+    private final Future<ResourceUsage> usage;
+
+    private ResourceSampler(VirtualChannel channel, EnvVars envs, String id, Future<ResourceUsage> usage) {
+        this.channel = channel;
+        this.envs = envs;
+        this.id = id;
+        this.usage = usage;
+    }
+
+    /**
+     * Starts sampling the processes launched with the given environment
+     * from now on, until {@link #stop()}.
+     */
+    public static ResourceSampler start(VirtualChannel channel, EnvVars envs, String phase) throws IOException {
+        final String id = UUID.randomUUID().toString();
+        RemoteCallCounter.increment();
+        Future<ResourceUsage> usage = channel.callAsync(new Sample(id, phase));
+        envs.put(MARKER, id);
+        return new ResourceSampler(channel, envs, id, usage);
+    }
+
+    /**
+     * @return what the processes used since {@link #start}
+     */
+    public ResourceUsage stop() throws IOException, InterruptedException {
+        envs.remove(MARKER);
+        RemoteCallCounter.increment();
+        channel.call(new Stop(id));
+        try {
+            return usage.get();
+        } catch (ExecutionException e) {
+            throw new IOException("Sampling failed: " + e.getCause());
+        }
+    }
+
+    /**
+     * Set when a sampling is to stop, which may happen before it started.
+     */
+    private static final class Flag {
+        private boolean stopped;
+
+        static Flag of(String id) {
+            synchronized (RUNNING) {
+                Flag flag = RUNNING.get(id);
+                if (flag == null) {
+                    flag = new Flag();
+                    RUNNING.put(id, flag);
+                }
+                return flag;
+            }
+        }
+
+        synchronized void stop() {
+            stopped = true;
+            notifyAll();
+        }
+
+        /**
+         * @return <tt>false</tt> once stopped
+         */
+        synchronized boolean await(long millis) throws InterruptedException {
+            if (!stopped) {
+                wait(millis);
+            }
+            return !stopped;
+        }
+    }
+
+    private static final class Stop implements Callable<Void, IOException> {
+        private static final long serialVersionUID = 1L;
+
+        private final String id;
+
+        Stop(String id) {
+            this.id = id;
+        }
+
+        public Void call() {
+            Flag.of(id).stop();
+            return null;
+        }
+    }
+
+    private static final class Sample implements Callable<ResourceUsage, IOException> {
+        private static final long serialVersionUID = 1L;
+
+        private final String id;
+        private final String phase;
+
+        Sample(String id, String phase) {
+            this.id = id;
+            this.phase = phase;
+        }
+
+        public ResourceUsage call() throws IOException {
+            final Flag flag = Flag.of(id);
+            final long start = System.currentTimeMillis();
+            final Sampling sampling = new Sampling(MARKER + "=" + id);
+            try {
+                if (ProcessTable.isAvailable()) {
+                    long active = start;
+                    do {
+                        final long now = System.currentTimeMillis();
+                        if (sampling.sample() > 0) {
+                            active = now;
+                        } else if (now - active > IDLE_MILLIS) {
+                            break;
+                        }
+                    } while (flag.await(INTERVAL_MILLIS));
+                    sampling.sample();
+                }
+            } catch (InterruptedException e) {
+                // the channel is closing, report what was sampled
+            } finally {
+                RUNNING.remove(id);
+            }
+            return sampling.usage(phase, System.currentTimeMillis() - start);
+        }
+    }
+
+    /** What is known about a process between samples. */
+    private static final class Process {
+        final long startTime;
+        final boolean sampled;
+
+        Process(long startTime, boolean sampled) {
+            this.startTime = startTime;
+            this.sampled = sampled;
+        }
+    }
+
+    static final class Sampling {
+        private final String marker;
+        private final long pageSize = ProcessTable.pageSize();
+        private Map<Integer, Process> known = new HashMap<Integer, Process>();
+        private int samples;
+        private int activeSamples;
+        private long runningSum;
+        private int peakRunning;
+        private long ticks;
+        private long peakRss;
+        private long peakProcessRss;
+        private long readBytes;
+        private long writtenBytes;
+
+        Sampling(String marker) {
+            this.marker = marker;
+        }
+
+        /**
+         * @return the number of processes sampled
+         */
+        int sample() {
+            final Map<Integer, ProcessTable.Stat> stats = ProcessTable.stats();
+            if (stats == null) {
+                return 0;
+            }
+            final Map<Integer, Process> current = new HashMap<Integer, Process>();
+            int processes = 0;
+            int running = 0;
+            long sampleTicks = 0;
+            long rss = 0;
+            long read = 0;
+            long written = 0;
+            for (ProcessTable.Stat stat : stats.values()) {
+                if (!isSampled(stat, stats, current)) {
+                    continue;
+                }
+                processes++;
+                if (stat.state == 'R' || stat.state == 'D') {
+                    running++;
+                }
+                sampleTicks += stat.ticks;
+                final long processRss = stat.rssPages * pageSize;
+                rss += processRss;
+                peakProcessRss = Math.max(peakProcessRss, processRss);
+                long[] io = ProcessTable.io(stat.pid);
+                read += io[0];
+                written += io[1];
+            }
+            known = current;
+            samples++;
+            if (processes > 0) {
+                activeSamples++;
+                runningSum += running;
+            }
+            // the sums drop when the launched process ends, as the JVM waits for it
+            peakRunning = Math.max(peakRunning, running);
+            ticks = Math.max(ticks, sampleTicks);
+            peakRss = Math.max(peakRss, rss);
+            readBytes = Math.max(readBytes, read);
+            writtenBytes = Math.max(writtenBytes, written);
+            return processes;
+        }
+
+        private boolean isSampled(ProcessTable.Stat stat, Map<Integer, ProcessTable.Stat> stats,
+                                  Map<Integer, Process> current) {
+            Process process = current.get(stat.pid);
+            if (process != null) {
+                return process.sampled;
+            }
+            process = known.get(stat.pid);
+            if (process == null || process.startTime != stat.startTime) {
+                final ProcessTable.Stat parent = stats.get(stat.parent);
+                final boolean sampled = parent != null && parent.pid != stat.pid
+                        && isSampled(parent, stats, current) || ProcessTable.hasVariable(stat.pid, marker);
+                process = new Process(stat.startTime, sampled);
+            }
+            current.put(stat.pid, process);
+            return process.sampled;
+        }
+
+        ResourceUsage usage(String phase, long wallMillis) {
+            return new ResourceUsage(phase, Runtime.getRuntime().availableProcessors(), samples, wallMillis,
+                    ticks * MILLIS_PER_TICK, peakRss, peakProcessRss,
+                    activeSamples > 0 ? (double) runningSum / activeSamples : 0, peakRunning, readBytes,
+                    writtenBytes);
+        }
+    }
+}
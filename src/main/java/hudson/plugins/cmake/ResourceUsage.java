@@ -0,0 +1,149 @@
+package hudson.plugins.cmake;
+
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+import java.io.Serializable;
+import java.util.Locale;
+
+/**
+ * Processor, memory and disk use of the processes of one phase of a
+ * build, as sampled by {@link ResourceSampler}.
+ */
+@ExportedBean(defaultVisibility = 2)
+public final class ResourceUsage implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String phase;
+    private final int processors;
+    private final int samples;
+    private final long wallMillis;
+    private final long cpuMillis;
+    private final long peakRss;
+    private final long peakProcessRss;
+    private final double averageRunning;
+    private final int peakRunning;
+    private final long readBytes;
+    private final long writtenBytes;
+
+    public ResourceUsage(String phase, int processors, int samples, long wallMillis, long cpuMillis, long peakRss,
+                         long peakProcessRss, double averageRunning, int peakRunning, long readBytes,
+                         long writtenBytes) {
+        this.phase = phase;
+        this.processors = processors;
+        this.samples = samples;
+        this.wallMillis = wallMillis;
+        this.cpuMillis = cpuMillis;
+        this.peakRss = peakRss;
+        this.peakProcessRss = peakProcessRss;
+        this.averageRunning = averageRunning;
+        this.peakRunning = peakRunning;
+        this.readBytes = readBytes;
+        this.writtenBytes = writtenBytes;
+    }
+
+    /**
+     * @return one of the phases of {@link CmakeBuildAction}
+     */
+    @Exported
+    public String getPhase() {
+        return phase;
+    }
+
+    /**
+     * @return the processors of the node
+     */
+    @Exported
+    public int getProcessors() {
+        return processors;
+    }
+
+    /**
+     * @return the number of times the processes were sampled, <tt>0</tt> if
+     *         the node cannot be sampled
+     */
+    @Exported
+    public int getSamples() {
+        return samples;
+    }
+
+    @Exported
+    public long getWallMillis() {
+        return wallMillis;
+    }
+
+    /**
+     * @return processor time in user and kernel mode, including the
+     *         processes that ended between samples
+     */
+    @Exported
+    public long getCpuMillis() {
+        return cpuMillis;
+    }
+
+    /**
+     * @return the largest resident memory of all processes together, in bytes
+     */
+    @Exported
+    public long getPeakRss() {
+        return peakRss;
+    }
+
+    /**
+     * @return the largest resident memory of a single process, in bytes
+     */
+    @Exported
+    public long getPeakProcessRss() {
+        return peakProcessRss;
+    }
+
+    /**
+     * @return the average number of processes running or waiting for the disk
+     */
+    @Exported
+    public double getAverageRunning() {
+        return averageRunning;
+    }
+
+    @Exported
+    public int getPeakRunning() {
+        return peakRunning;
+    }
+
+    /**
+     * @return bytes read from storage
+     */
+    @Exported
+    public long getReadBytes() {
+        return readBytes;
+    }
+
+    /**
+     * @return bytes written to storage
+     */
+    @Exported
+    public long getWrittenBytes() {
+        return writtenBytes;
+    }
+
+    /**
+     * @return the share of the node's processors used, from <tt>0</tt> to <tt>1</tt>
+     */
+    @Exported
+    public double getUtilization() {
+        if (wallMillis <= 0 || processors <= 0) {
+            return 0;
+        }
+        return Math.min(1.0, (double) cpuMillis / wallMillis / processors);
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ENGLISH,
+                "%s: %.0f%% of %d processors, %.1f processes running on average (peak %d), peak memory %d MB"
+                        + " (largest process %d MB), %d MB read, %d MB written",
+                phase, getUtilization() * 100, processors, averageRunning, peakRunning, peakRss >> 20,
+                peakProcessRss >> 20, readBytes >> 20, writtenBytes >> 20);
+    }
+}
@@ -0,0 +1,146 @@
+package hudson.plugins.cmake;
+
+import hudson.model.AbstractBuild;
+import hudson.model.Action;
+import hudson.model.Api;
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Processor, memory and disk use of the configure, build and install
+ * phases of the cmake build steps of one build, and the parallelism they
+ * suggest for the job. Available at <tt>.../cmakeResources/api/json</tt>.
+ */
+@ExportedBean
+public class ResourceUsageAction implements Action {
+
+    /** Headroom added to the largest process when recommending memory per job. */
+    private static final double MEMORY_HEADROOM = 1.25;
+
+    private final List<ResourceUsage> usages = new ArrayList<ResourceUsage>();
+    private int recommendedJobs;
+    private long recommendedMemoryPerJobMb;
+    private String recommendation;
+
+    /**
+     * Adds the usage of a phase to the action of the given build, attaching
+     * a new one if needed.
+     *
+     * @return the action
+     */
+    public static ResourceUsageAction add(AbstractBuild<?, ?> build, ResourceUsage usage) {
+        synchronized (build) {
+            ResourceUsageAction action = build.getAction(ResourceUsageAction.class);
+            if (action == null) {
+                action = new ResourceUsageAction();
+                build.addAction(action);
+            }
+            action.add(usage);
+            return action;
+        }
+    }
+
+    private synchronized void add(ResourceUsage usage) {
+        usages.add(usage);
+    }
+
+    @Exported
+    public synchronized List<ResourceUsage> getUsages() {
+        return Collections.unmodifiableList(new ArrayList<ResourceUsage>(usages));
+    }
+
+    /**
+     * Recommends the number of parallel jobs and the memory per job from
+     * the largest process of the build phases: a job per processor, as long
+     * as each one gets the memory the largest process needed plus some headroom.
+     *
+     * @param jobs the number of parallel jobs the build ran with, <tt>0</tt> if unknown
+     * @return the recommendation, or <tt>null</tt> if there is nothing to go by
+     */
+    public synchronized String recommend(NodeCapacity capacity, int jobs) {
+        long peakProcessRss = 0;
+        double averageRunning = 0;
+        double utilization = 0;
+        for (ResourceUsage usage : usages) {
+            if (usage.getPhase().equals(CmakeBuildAction.BUILD) && usage.getSamples() > 0) {
+                peakProcessRss = Math.max(peakProcessRss, usage.getPeakProcessRss());
+                averageRunning = Math.max(averageRunning, usage.getAverageRunning());
+                utilization = Math.max(utilization, usage.getUtilization());
+            }
+        }
+        if (peakProcessRss == 0) {
+            return null;
+        }
+        recommendedMemoryPerJobMb = (long) Math.ceil(peakProcessRss * MEMORY_HEADROOM / (1024 * 1024));
+        recommendedJobs = capacity.jobs(recommendedMemoryPerJobMb);
+        StringBuilder text = new StringBuilder(String.format(Locale.ENGLISH,
+                "%d jobs with %d MB memory per job (%s)", recommendedJobs, recommendedMemoryPerJobMb, capacity));
+        if (jobs > 1 && averageRunning < jobs / 2.0) {
+            text.append(String.format(Locale.ENGLISH,
+                    "; only %.1f of %d jobs ran on average, the dependencies between targets limit the build",
+                    averageRunning, jobs));
+        } else if (utilization < 0.5 && averageRunning >= capacity.getProcessors()) {
+            text.append(String.format(Locale.ENGLISH,
+                    "; processors were %.0f%% busy with %.1f processes running, the build waits for the disk",
+                    utilization * 100, averageRunning));
+        }
+        recommendation = text.toString();
+        return recommendation;
+    }
+
+    /**
+     * @return the recommended number of parallel jobs, <tt>0</tt> if there is none
+     */
+    @Exported
+    public synchronized int getRecommendedJobs() {
+        return recommendedJobs;
+    }
+
+    /**
+     * @return the recommended memory per job in MB, <tt>0</tt> if there is none
+     */
+    @Exported
+    public synchronized long getRecommendedMemoryPerJobMb() {
+        return recommendedMemoryPerJobMb;
+    }
+
+    @Exported
+    public synchronized String getRecommendation() {
+        return recommendation;
+    }
+
+    // formatting for index.jelly
+
+    public long mb(long bytes) {
+        return bytes >> 20;
+    }
+
+    public long percent(double share) {
+        return Math.round(share * 100);
+    }
+
+    public String decimal(double value) {
+        return String.format(Locale.ENGLISH, "%.1f", value);
+    }
+
+    public Api getApi() {
+        return new Api(this);
+    }
+
+    public String getIconFileName() {
+        return "monitor.gif";
+    }
+
+    public String getDisplayName() {
+        return "Resource Usage";
+    }
+
+    public String getUrlName() {
+        return "cmakeResources";
+    }
+}
@@ -0,0 +1,135 @@
+package hudson.plugins.cmake;
+
+import hudson.Launcher;
+import hudson.Proc;
+import hudson.remoting.Callable;
+import hudson.remoting.RemoteOutputStream;
+import hudson.remoting.VirtualChannel;
+import hudson.util.StreamTaskListener;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * A process whose output is scanned for diagnostics on the node it runs
+ * on. The output goes on to the build log as it arrives, but only the
+ * bounded {@link DiagnosticCounts} and the hashes of the diagnostics seen
+ * travel back when the process ends, to be added to the
+ * {@link DiagnosticsAction} of the build.
+ *
+ * <p>
+ * The process is started by a local launcher on the node, so it is not
+ * wrapped by the decorations of the build's launcher.
+ */
+final class ScannedProcess extends Proc {
+
+    private final Future<Result> future;
+    private final DiagnosticsAction diagnostics;
+
+    private ScannedProcess(Future<Result> future, DiagnosticsAction diagnostics) {
+        this.future = future;
+        this.diagnostics = diagnostics;
+    }
+
+    /**
+     * Starts a process on the node of the channel.
+     *
+     * @param pwd the directory on the node to run it in
+     * @param log the stream on the controller to pass the output to
+     */
+    static Proc start(VirtualChannel channel, List<String> cmds, Map<String, String> envs, String pwd,
+            OutputStream log, DiagnosticsAction diagnostics) throws IOException {
+        return new ScannedProcess(channel.callAsync(
+                new Scan(cmds, envs, pwd, new RemoteOutputStream(log), diagnostics.getSeen())), diagnostics);
+    }
+
+    @Override
+    public boolean isAlive() {
+        return !future.isDone();
+    }
+
+    @Override
+    public void kill() {
+        future.cancel(true);
+    }
+
+    @Override
+    public int join() throws IOException, InterruptedException {
+        final Result result;
+        try {
+            result = future.get();
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            throw e;
+        } catch (CancellationException e) {
+            throw new IOException("Process was killed");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw (IOException) new IOException("Process failed on the node").initCause(e.getCause());
+        }
+        diagnostics.add(result.counts, result.seen);
+        return result.exitCode;
+    }
+
+    private static final class Result implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        final int exitCode;
+        final DiagnosticCounts counts;
+        final long[] seen;
+
+        Result(int exitCode, DiagnosticCounts counts, long[] seen) {
+            this.exitCode = exitCode;
+            this.counts = counts;
+            this.seen = seen;
+        }
+    }
+
+    private static final class Scan implements Callable<Result, IOException> {
+        private static final long serialVersionUID = 1L;
+
+        private final List<String> cmds;
+        private final Map<String, String> envs;
+        private final String pwd;
+        private final OutputStream log;
+        private final long[] seen;
+
+        Scan(List<String> cmds, Map<String, String> envs, String pwd, OutputStream log, long[] seen) {
+            this.cmds = cmds;
+            this.envs = envs;
+            this.pwd = pwd;
+            this.log = log;
+            this.seen = seen;
+        }
+
+        public Result call() throws IOException {
+            final DiagnosticCounts counts = new DiagnosticCounts();
+            counts.see(seen);
+            final DiagnosticScanner scanner = new DiagnosticScanner(log, counts);
+            final int exitCode;
+            try {
+                exitCode = new Launcher.LocalLauncher(new StreamTaskListener(scanner)).launch()
+                        .cmds(cmds)
+                        .envs(envs)
+                        .stdout(scanner)
+                        .stderr(scanner)
+                        .pwd(new File(pwd))
+                        .join();
+            } catch (InterruptedException e) {
+                throw (IOException) new IOException("Interrupted").initCause(e);
+            } finally {
+                scanner.finish();
+            }
+            return new Result(exitCode, counts, counts.getSeen());
+        }
+    }
+}
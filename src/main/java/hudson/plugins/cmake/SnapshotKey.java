@@ -0,0 +1,88 @@
+package hudson.plugins.cmake;
+
+import java.io.Serializable;
+import java.security.MessageDigest;
+
+/**
+ * Identifies the build trees a snapshot can warm-start. Snapshots of the
+ * same source revision match exactly; snapshots that only differ in the
+ * revision are compatible and can be restored when there is no exact match.
+ * A key without a revision never matches exactly, so the build tree is
+ * saved after every build and replaces the last snapshot saved without one.
+ */
+public final class SnapshotKey implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String revision;
+    private final String cmakeVersion;
+    private final String generator;
+    private final String buildType;
+    private final String argsHash;
+
+    /**
+     * @param revision the source revision, or <tt>null</tt> if unknown
+     * @param argsHash hash of everything else that ends up in the build tree,
+     *                 including its absolute location
+     */
+    public SnapshotKey(String revision, String cmakeVersion, String generator, String buildType, String argsHash) {
+        this.revision = revision != null ? revision : "";
+        this.cmakeVersion = cmakeVersion;
+        this.generator = generator;
+        this.buildType = buildType;
+        this.argsHash = argsHash;
+    }
+
+    public String getRevision() {
+        return revision;
+    }
+
+    /**
+     * @return whether the source revision is known, which a snapshot has to
+     *         match exactly
+     */
+    public boolean isRevisionKnown() {
+        return revision.length() > 0;
+    }
+
+    /**
+     * @param platform the operating system and architecture of the node
+     * @return the id shared by all snapshots compatible with this key
+     */
+    public String compatibleId(String platform) {
+        MessageDigest md = ConfigureFingerprint.sha1();
+        ConfigureFingerprint.update(md, "platform", platform);
+        ConfigureFingerprint.update(md, "cmake", cmakeVersion);
+        ConfigureFingerprint.update(md, "generator", generator);
+        ConfigureFingerprint.update(md, "buildType", buildType);
+        ConfigureFingerprint.update(md, "args", argsHash);
+        return ConfigureFingerprint.toHex(md.digest());
+    }
+
+    /**
+     * @return the id of the snapshot matching this key exactly
+     */
+    public String revisionId() {
+        MessageDigest md = ConfigureFingerprint.sha1();
+        ConfigureFingerprint.update(md, "revision", revision);
+        return ConfigureFingerprint.toHex(md.digest());
+    }
+
+    /**
+     * Hashes the values that end up in the build tree besides the source
+     * revision, the cmake version, the generator and the build type.
+     */
+    public static String hashArgs(String... values) {
+        MessageDigest md = ConfigureFingerprint.sha1();
+        for (int i = 0; i < values.length; i++) {
+            ConfigureFingerprint.update(md, String.valueOf(i), values[i]);
+        }
+        return ConfigureFingerprint.toHex(md.digest());
+    }
+
+    @Override
+    public String toString() {
+        return (revision.length() > 0 ? "revision " + revision + ", " : "")
+                + "cmake " + cmakeVersion + ", " + generator + ", " + buildType;
+    }
+}
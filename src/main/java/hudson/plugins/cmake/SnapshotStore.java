@@ -0,0 +1,67 @@
+package hudson.plugins.cmake;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+
+/**
+ * Where build tree snapshots are kept. A store is sent to the node that
+ * saves or restores a snapshot and used there, so implementations have to
+ * be serializable and reachable from every node, e.g. a shared directory
+ * or a network service.
+ */
+public interface SnapshotStore extends Serializable {
+
+    /**
+     * Opens the snapshot matching the key exactly, or else the most
+     * recently used snapshot compatible with it.
+     *
+     * @param platform the operating system and architecture of the node
+     * @return the snapshot, or <tt>null</tt> if there is none
+     */
+    Snapshot find(SnapshotKey key, String platform) throws IOException;
+
+    /**
+     * @return whether there is a snapshot matching the key exactly, never
+     *         for a key without revision, see {@link SnapshotKey#isRevisionKnown()}
+     */
+    boolean contains(SnapshotKey key, String platform) throws IOException;
+
+    /**
+     * Starts a new snapshot for the key. It replaces an existing one with
+     * the same key once committed.
+     */
+    Upload create(SnapshotKey key, String platform) throws IOException;
+
+    interface Snapshot {
+        /**
+         * @return whether the snapshot was made from the same source revision
+         */
+        boolean isExact();
+
+        String getName();
+
+        /**
+         * @return the compressed archive; the caller closes it
+         */
+        InputStream open() throws IOException;
+    }
+
+    interface Upload {
+        /**
+         * @return where to write the compressed archive to
+         */
+        OutputStream getStream();
+
+        /**
+         * Closes the stream and makes the snapshot available to other builds.
+         */
+        void commit() throws IOException;
+
+        /**
+         * Closes the stream and drops the snapshot.
+         */
+        void abort();
+    }
+}
@@ -0,0 +1,329 @@
+package hudson.plugins.cmake;
+
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The targets of a cmake project, their sources, artifacts and
+ * dependencies, as reported by the CMake File API for one configuration.
+ *
+ * <p>
+ * Paths are kept once in a shared table and targets refer to them and to
+ * each other by index, so projects with thousands of targets and tens of
+ * thousands of sources stay small in memory and on disk.
+ */
+@ExportedBean
+public final class TargetGraph implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final int[] NONE = new int[0];
+
+    private final String configuration;
+    private final String sourceRoot;
+    private final String buildRoot;
+    private final String[] paths;
+    private final String[] names;
+    private final String[] types;
+    private final int[][] sources;
+    private final int[][] artifacts;
+    private final int[][] dependencies;
+
+    private TargetGraph(String configuration, String sourceRoot, String buildRoot, String[] paths,
+                        String[] names, String[] types, int[][] sources, int[][] artifacts, int[][] dependencies) {
+        this.configuration = configuration;
+        this.sourceRoot = sourceRoot;
+        this.buildRoot = buildRoot;
+        this.paths = paths;
+        this.names = names;
+        this.types = types;
+        this.sources = sources;
+        this.artifacts = artifacts;
+        this.dependencies = dependencies;
+    }
+
+    @Exported
+    public String getConfiguration() {
+        return configuration;
+    }
+
+    /**
+     * @return the top level source directory; relative source paths are relative to it
+     */
+    @Exported
+    public String getSourceRoot() {
+        return sourceRoot;
+    }
+
+    /**
+     * @return the top level build directory; relative artifact paths are relative to it
+     */
+    @Exported
+    public String getBuildRoot() {
+        return buildRoot;
+    }
+
+    @Exported
+    public int getTargetCount() {
+        return names.length;
+    }
+
+    /**
+     * @return the number of distinct source files of all targets
+     */
+    @Exported
+    public int getSourceCount() {
+        boolean[] seen = new boolean[paths.length];
+        int count = 0;
+        for (int[] list : sources) {
+            for (int path : list) {
+                if (!seen[path]) {
+                    seen[path] = true;
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    @Exported
+    public List<Target> getTargets() {
+        return new AbstractList<Target>() {
+            @Override
+            public Target get(int index) {
+                return new Target(index);
+            }
+
+            @Override
+            public int size() {
+                return names.length;
+            }
+        };
+    }
+
+    /**
+     * @return the target with the given name, or <tt>null</tt>
+     */
+    public Target getTarget(String name) {
+        for (int i = 0; i < names.length; i++) {
+            if (names[i].equals(name)) {
+                return new Target(i);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the given targets and all targets depending on them, directly
+     *         or indirectly, in graph order
+     */
+    public List<Target> withDependents(Collection<Target> targets) {
+        int[][] dependents = dependents();
+        boolean[] selected = new boolean[names.length];
+        List<Integer> pending = new ArrayList<Integer>();
+        for (Target target : targets) {
+            if (!selected[target.index]) {
+                selected[target.index] = true;
+                pending.add(target.index);
+            }
+        }
+        while (!pending.isEmpty()) {
+            int index = pending.remove(pending.size() - 1);
+            for (int dependent : dependents[index]) {
+                if (!selected[dependent]) {
+                    selected[dependent] = true;
+                    pending.add(dependent);
+                }
+            }
+        }
+        List<Target> result = new ArrayList<Target>();
+        for (int i = 0; i < selected.length; i++) {
+            if (selected[i]) {
+                result.add(new Target(i));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return for each target, the targets depending on it directly
+     */
+    private int[][] dependents() {
+        int[] counts = new int[names.length];
+        for (int[] list : dependencies) {
+            for (int dependency : list) {
+                counts[dependency]++;
+            }
+        }
+        int[][] dependents = new int[names.length][];
+        for (int i = 0; i < dependents.length; i++) {
+            dependents[i] = counts[i] == 0 ? NONE : new int[counts[i]];
+            counts[i] = 0;
+        }
+        for (int i = 0; i < dependencies.length; i++) {
+            for (int dependency : dependencies[i]) {
+                dependents[dependency][counts[dependency]++] = i;
+            }
+        }
+        return dependents;
+    }
+
+    /**
+     * A target of the graph.
+     */
+    @ExportedBean(defaultVisibility = 2)
+    public final class Target {
+        private final int index;
+
+        Target(int index) {
+            this.index = index;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof Target && ((Target) obj).index == index;
+        }
+
+        @Override
+        public int hashCode() {
+            return index;
+        }
+
+        @Exported
+        public String getName() {
+            return names[index];
+        }
+
+        /**
+         * @return the cmake target type, e.g. <tt>EXECUTABLE</tt> or <tt>STATIC_LIBRARY</tt>
+         */
+        @Exported
+        public String getType() {
+            return types[index];
+        }
+
+        @Exported
+        public List<String> getSources() {
+            return pathList(sources[index]);
+        }
+
+        @Exported
+        public List<String> getArtifacts() {
+            return pathList(artifacts[index]);
+        }
+
+        /**
+         * @return the names of the targets this target depends on
+         */
+        @Exported
+        public List<String> getDependencies() {
+            List<String> result = new ArrayList<String>(dependencies[index].length);
+            for (int dependency : dependencies[index]) {
+                result.add(names[dependency]);
+            }
+            return result;
+        }
+    }
+
+    private List<String> pathList(final int[] indices) {
+        return new AbstractList<String>() {
+            @Override
+            public String get(int index) {
+                return paths[indices[index]];
+            }
+
+            @Override
+            public int size() {
+                return indices.length;
+            }
+        };
+    }
+
+    /**
+     * Collects the targets of a graph while the File API reply is parsed.
+     * Dependencies may refer to targets added later.
+     */
+    static final class Builder {
+        private final String configuration;
+        private final String sourceRoot;
+        private final String buildRoot;
+        private final Map<String, Integer> pathIndex = new HashMap<String, Integer>();
+        private final List<String> paths = new ArrayList<String>();
+        private final List<String> ids = new ArrayList<String>();
+        private final List<String> names = new ArrayList<String>();
+        private final List<String> types = new ArrayList<String>();
+        private final List<int[]> sources = new ArrayList<int[]>();
+        private final List<int[]> artifacts = new ArrayList<int[]>();
+        private final List<List<String>> dependencyIds = new ArrayList<List<String>>();
+
+        Builder(String configuration, String sourceRoot, String buildRoot) {
+            this.configuration = configuration;
+            this.sourceRoot = sourceRoot;
+            this.buildRoot = buildRoot;
+        }
+
+        void addTarget(String id, String name, String type, List<String> targetSources,
+                       List<String> targetArtifacts, List<String> dependencies) {
+            ids.add(id);
+            names.add(name);
+            types.add(type);
+            sources.add(intern(targetSources));
+            artifacts.add(intern(targetArtifacts));
+            dependencyIds.add(dependencies);
+        }
+
+        private int[] intern(List<String> list) {
+            if (list.isEmpty()) {
+                return NONE;
+            }
+            int[] result = new int[list.size()];
+            for (int i = 0; i < result.length; i++) {
+                String path = list.get(i);
+                Integer index = pathIndex.get(path);
+                if (index == null) {
+                    index = paths.size();
+                    paths.add(path);
+                    pathIndex.put(path, index);
+                }
+                result[i] = index;
+            }
+            return result;
+        }
+
+        TargetGraph build() {
+            Map<String, Integer> byId = new HashMap<String, Integer>();
+            for (int i = 0; i < ids.size(); i++) {
+                byId.put(ids.get(i), i);
+            }
+            int[][] dependencies = new int[ids.size()][];
+            for (int i = 0; i < dependencies.length; i++) {
+                List<String> targetDependencies = dependencyIds.get(i);
+                int[] resolved = new int[targetDependencies.size()];
+                int n = 0;
+                for (String id : targetDependencies) {
+                    Integer index = byId.get(id);
+                    if (index != null) {
+                        resolved[n++] = index;
+                    }
+                }
+                dependencies[i] = n == resolved.length ? resolved : Arrays.copyOf(resolved, n);
+            }
+            return new TargetGraph(configuration, sourceRoot, buildRoot,
+                    paths.toArray(new String[paths.size()]),
+                    names.toArray(new String[names.size()]),
+                    types.toArray(new String[types.size()]),
+                    sources.toArray(new int[sources.size()][]),
+                    artifacts.toArray(new int[artifacts.size()][]),
+                    dependencies);
+        }
+    }
+}
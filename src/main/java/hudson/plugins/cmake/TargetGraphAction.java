@@ -0,0 +1,133 @@
+package hudson.plugins.cmake;
+
+import hudson.model.AbstractBuild;
+import hudson.model.Action;
+import hudson.model.Api;
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.lang.ref.SoftReference;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The target graph of a build. The graph is kept in its own file in the
+ * build directory rather than in <tt>build.xml</tt>, and only loaded when
+ * asked for. Available at <tt>.../cmakeTargets/api/json?depth=2</tt>.
+ */
+@ExportedBean
+public class TargetGraphAction implements Action {
+
+    private static final Logger LOGGER = Logger.getLogger(TargetGraphAction.class.getName());
+
+    static final String GRAPH_FILE = "cmake-targets.ser.gz";
+
+    public final AbstractBuild<?, ?> owner;
+    private final String configuration;
+    private final int targetCount;
+    private final int sourceCount;
+    private transient SoftReference<TargetGraph> graph;
+
+    /**
+     * Attaches the graph to the build, replacing the graph of an earlier
+     * cmake build step of the same build.
+     */
+    public static void attach(AbstractBuild<?, ?> build, TargetGraph graph) throws IOException {
+        TargetGraphAction action = new TargetGraphAction(build, graph);
+        synchronized (build) {
+            TargetGraphAction old = build.getAction(TargetGraphAction.class);
+            if (old != null) {
+                build.getActions().remove(old);
+            }
+            build.addAction(action);
+        }
+    }
+
+    TargetGraphAction(AbstractBuild<?, ?> owner, TargetGraph graph) throws IOException {
+        this.owner = owner;
+        this.configuration = graph.getConfiguration();
+        this.targetCount = graph.getTargetCount();
+        this.sourceCount = graph.getSourceCount();
+        ObjectOutputStream out = new ObjectOutputStream(new GZIPOutputStream(
+                new BufferedOutputStream(new FileOutputStream(getGraphFile()))));
+        try {
+            out.writeObject(graph);
+        } finally {
+            out.close();
+        }
+        this.graph = new SoftReference<TargetGraph>(graph);
+    }
+
+    private File getGraphFile() {
+        return new File(owner.getRootDir(), GRAPH_FILE);
+    }
+
+    @Exported
+    public String getConfiguration() {
+        return configuration;
+    }
+
+    @Exported
+    public int getTargetCount() {
+        return targetCount;
+    }
+
+    @Exported
+    public int getSourceCount() {
+        return sourceCount;
+    }
+
+    /**
+     * @return the graph, or <tt>null</tt> if it cannot be loaded any more
+     */
+    @Exported
+    public synchronized TargetGraph getGraph() {
+        TargetGraph loaded = graph != null ? graph.get() : null;
+        if (loaded != null) {
+            return loaded;
+        }
+        try {
+            ObjectInputStream in = new ObjectInputStream(new GZIPInputStream(
+                    new BufferedInputStream(new FileInputStream(getGraphFile()))));
+            try {
+                loaded = (TargetGraph) in.readObject();
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to load " + getGraphFile(), e);
+            return null;
+        } catch (ClassNotFoundException e) {
+            LOGGER.log(Level.WARNING, "Failed to load " + getGraphFile(), e);
+            return null;
+        }
+        graph = new SoftReference<TargetGraph>(loaded);
+        return loaded;
+    }
+
+    public Api getApi() {
+        return new Api(this);
+    }
+
+    public String getIconFileName() {
+        return "package.gif";
+    }
+
+    public String getDisplayName() {
+        return "CMake Targets";
+    }
+
+    public String getUrlName() {
+        return "cmakeTargets";
+    }
+}
@@ -0,0 +1,213 @@
+package hudson.plugins.cmake;
+
+import hudson.FilePath;
+import hudson.remoting.VirtualChannel;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Wipes directories by renaming them into a trash directory next to them
+ * and deleting the trash in the background, so a build does not have to
+ * wait for a large tree to be removed.
+ *
+ * <p>
+ * The reaper runs in the JVM of the node owning the files, one thread per
+ * JVM. Deletion is throttled to leave I/O for the builds, and a build falls
+ * back to deleting synchronously when too much trash is pending or the
+ * file system is running out of space.
+ */
+public final class TrashReaper {
+
+    private static final Logger LOGGER = Logger.getLogger(TrashReaper.class.getName());
+
+    static final String TRASH_DIR = ".cmakebuilder-trash";
+
+    /** Maximum number of trash directories waiting to be deleted. */
+    static final int MAX_PENDING = 8;
+
+    /** Minimum share of the file system that has to stay free while trash is pending. */
+    static final double MIN_FREE_RATIO = 0.10;
+
+    /** Files deleted between two pauses of the reaper. */
+    private static final int THROTTLE_BATCH = 500;
+    private static final long THROTTLE_PAUSE_MILLIS = 20;
+
+    private static final LinkedList<File> PENDING = new LinkedList<File>();
+    private static Thread reaper;
+    /** The trash directory the reaper is working on. */
+    private static File current;
+
+    private TrashReaper() {
+    }
+
+    /**
+     * Empties <tt>dir</tt> (creating it if needed) without waiting for the
+     * old contents to be deleted whenever possible.
+     *
+     * @return <tt>true</tt> if the old contents are deleted in the background
+     */
+    public static boolean wipe(FilePath dir) throws IOException, InterruptedException {
+        RemoteCallCounter.increment();
+        return dir.act(new Wipe());
+    }
+
+    private static final class Wipe implements FilePath.FileCallable<Boolean> {
+        private static final long serialVersionUID = 1L;
+
+        public Boolean invoke(File dir, VirtualChannel channel) throws IOException, InterruptedException {
+            return wipe(dir);
+        }
+    }
+
+    /**
+     * Same as {@link #wipe(FilePath)}, for use on the node owning <tt>dir</tt>.
+     */
+    static boolean wipe(File dir) throws IOException, InterruptedException {
+        if (!dir.isDirectory()) {
+            mkdirs(dir);
+            return false;
+        }
+        File trash = moveToTrash(dir);
+        if (trash == null || !enqueue(trash)) {
+            deleteRecursive(trash != null ? trash : dir, false);
+            mkdirs(dir);
+            return false;
+        }
+        mkdirs(dir);
+        return true;
+    }
+
+    /**
+     * @return the new location of <tt>dir</tt>, or <tt>null</tt> if it could not be renamed
+     */
+    static File moveToTrash(File dir) {
+        File parent = dir.getAbsoluteFile().getParentFile();
+        if (parent == null) {
+            return null;
+        }
+        File root = new File(parent, TRASH_DIR);
+        if (!root.isDirectory() && !root.mkdirs()) {
+            return null;
+        }
+        File trash = new File(root, dir.getName() + "-" + System.currentTimeMillis() + "-" + System.nanoTime());
+        return dir.renameTo(trash) ? trash : null;
+    }
+
+    /**
+     * Hands a trash directory to the reaper, together with anything left
+     * over in the same trash root from an earlier JVM.
+     *
+     * @return <tt>false</tt> if the caller has to delete it itself because
+     *         the pending trash is over its limits
+     */
+    static boolean enqueue(File trash) {
+        File root = trash.getParentFile();
+        synchronized (PENDING) {
+            if (PENDING.size() >= MAX_PENDING || isLowOnSpace(root)) {
+                return false;
+            }
+            File[] leftovers = root.listFiles();
+            if (leftovers != null) {
+                for (File leftover : leftovers) {
+                    if (!leftover.equals(trash) && !PENDING.contains(leftover) && !isBeingDeleted(leftover)) {
+                        PENDING.add(leftover);
+                    }
+                }
+            }
+            PENDING.add(trash);
+            if (reaper == null || !reaper.isAlive()) {
+                reaper = new Thread(new Runnable() {
+                    public void run() {
+                        reap();
+                    }
+                }, "cmakebuilder trash reaper");
+                reaper.setDaemon(true);
+                reaper.setPriority(Thread.MIN_PRIORITY);
+                reaper.start();
+            }
+            return true;
+        }
+    }
+
+    private static boolean isBeingDeleted(File file) {
+        return file.equals(current);
+    }
+
+    private static boolean isLowOnSpace(File root) {
+        long total = root.getTotalSpace();
+        return total > 0 && root.getUsableSpace() < total * MIN_FREE_RATIO;
+    }
+
+    private static void reap() {
+        while (true) {
+            File next;
+            synchronized (PENDING) {
+                if (PENDING.isEmpty()) {
+                    current = null;
+                    reaper = null;
+                    return;
+                }
+                next = PENDING.removeFirst();
+                current = next;
+            }
+            try {
+                deleteRecursive(next, true);
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Failed to delete " + next, e);
+            } catch (InterruptedException e) {
+                LOGGER.log(Level.INFO, "Trash reaper interrupted, leaving " + next);
+                synchronized (PENDING) {
+                    current = null;
+                    reaper = null;
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * Deletes a tree without recursion, optionally pausing between batches.
+     */
+    static void deleteRecursive(File root, boolean throttled) throws IOException, InterruptedException {
+        List<File> stack = new ArrayList<File>();
+        stack.add(root);
+        int deleted = 0;
+        while (!stack.isEmpty()) {
+            File file = stack.get(stack.size() - 1);
+            File[] children = isSymlink(file) ? null : file.listFiles();
+            if (children != null && children.length > 0) {
+                for (File child : children) {
+                    stack.add(child);
+                }
+                // revisit the directory once its children are gone
+                continue;
+            }
+            stack.remove(stack.size() - 1);
+            if (!file.delete() && file.exists()) {
+                throw new IOException("Unable to delete " + file);
+            }
+            if (throttled && ++deleted % THROTTLE_BATCH == 0) {
+                Thread.sleep(THROTTLE_PAUSE_MILLIS);
+            }
+        }
+    }
+
+    static boolean isSymlink(File file) throws IOException {
+        File parent = file.getParentFile();
+        File canonicalParent = parent != null ? parent.getCanonicalFile() : null;
+        File resolved = canonicalParent != null ? new File(canonicalParent, file.getName()) : file;
+        return !resolved.getCanonicalFile().equals(resolved.getAbsoluteFile());
+    }
+
+    private static void mkdirs(File dir) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Unable to create " + dir);
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package hudson.plugins.cmake;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import junit.framework.TestCase;
+
+public class AffectedTargetsTest extends TestCase {
+
+    private static final String[] PATHS = {
+        "CMakeFiles/app.dir/main.cpp.o", "../src/main.cpp", "../src/util.h",
+        "CMakeFiles/core.dir/src/a.cpp.o", "../src/a.cpp", "../src/late.h",
+    };
+
+    private File dir;
+    private File buildDir;
+
+    @Override
+    protected void setUp() throws Exception {
+        dir = Fixtures.createTempDir();
+        buildDir = new File(dir, "build");
+        buildDir.mkdir();
+    }
+
+    @Override
+    protected void tearDown() {
+        Fixtures.delete(dir);
+    }
+
+    public void testNinjaDepsVersion3() throws Exception {
+        assertNinjaDeps(3);
+    }
+
+    public void testNinjaDepsVersion4() throws Exception {
+        assertNinjaDeps(4);
+    }
+
+    private void assertNinjaDeps(int version) throws Exception {
+        Fixtures.write(ninjaDeps(version), new File(buildDir, ".ninja_deps"));
+        Map<String, TreeSet<String>> found = scan("src/util.h", "src/main.cpp", "src/late.h", "src/other.h");
+        assertEquals(Arrays.asList("app", "core"), list(found.get("src/util.h")));
+        assertEquals(Arrays.asList("app"), list(found.get("src/main.cpp")));
+        // only named by the truncated last record
+        assertNull(found.get("src/late.h"));
+        assertNull(found.get("src/other.h"));
+    }
+
+    public void testUnsupportedNinjaDepsVersion() throws Exception {
+        Fixtures.write(ninjaDeps(5), new File(buildDir, ".ninja_deps"));
+        try {
+            scan("src/util.h");
+            fail("version 5 accepted");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    public void testMakeDepends() throws Exception {
+        Fixtures.copy("affected/depend.make", buildDir, "CMakeFiles/app.dir/depend.make");
+        Fixtures.copy("affected/compiler_depend.make", buildDir, "src/CMakeFiles/core.dir/compiler_depend.make");
+        Map<String, TreeSet<String>> found = scan("src/my dir/config.h", "src/price$list.h", "src/util.h",
+                "src/main.cpp", "src/stdio.h");
+        assertEquals(Arrays.asList("app"), list(found.get("src/my dir/config.h")));
+        assertEquals(Arrays.asList("app"), list(found.get("src/price$list.h")));
+        assertEquals(Arrays.asList("app"), list(found.get("src/main.cpp")));
+        assertEquals(Arrays.asList("core"), list(found.get("src/util.h")));
+        assertNull(found.get("src/stdio.h"));
+    }
+
+    public void testMakeDependencies() {
+        assertEquals(Arrays.asList("../src/a.cpp"), AffectedTargets.makeDependencies("a.o: ../src/a.cpp"));
+        assertEquals(Arrays.asList("../my dir/b.h", "/usr/c#d.h"),
+                AffectedTargets.makeDependencies("  ../my\\ dir/b.h /usr/c\\#d.h \\"));
+        assertEquals(Arrays.asList("C:/src/a.cpp"), AffectedTargets.makeDependencies("C:/b/a.o: C:/src/a.cpp"));
+        assertTrue(AffectedTargets.makeDependencies("../my\\ dir/b.h:").isEmpty());
+        assertTrue(AffectedTargets.makeDependencies("").isEmpty());
+    }
+
+    public void testTargetOfObject() {
+        assertEquals("core", AffectedTargets.targetOfObject("src/CMakeFiles/core.dir/a.cpp.o"));
+        assertEquals("core", AffectedTargets.targetOfObject("CMakeFiles/core.dir/a.cpp.o"));
+        assertNull(AffectedTargets.targetOfObject("libcore.a"));
+    }
+
+    private Map<String, TreeSet<String>> scan(String... changed) throws IOException {
+        return new AffectedTargets.DependencyScan(Arrays.asList(changed)).invoke(buildDir, null);
+    }
+
+    private static List<String> list(TreeSet<String> targets) {
+        return targets == null ? null : new ArrayList<String>(targets);
+    }
+
+    /**
+     * @return a deps log as ninja writes it, ending with a record cut short
+     */
+    private static byte[] ninjaDeps(int version) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write("# ninjadeps\n".getBytes("US-ASCII"));
+        writeInt(out, version);
+        for (int id = 0; id < PATHS.length; id++) {
+            byte[] path = PATHS[id].getBytes("UTF-8");
+            int padded = (path.length + 3) / 4 * 4;
+            writeInt(out, (padded + 4) | 0x80000000);
+            out.write(path);
+            out.write(new byte[padded - path.length]);
+            writeInt(out, ~id);
+        }
+        writeDeps(out, version, 0, 1, 2);
+        writeDeps(out, version, 3, 4, 2);
+
+        ByteArrayOutputStream last = new ByteArrayOutputStream();
+        writeDeps(last, version, 3, 4, 5);
+        out.write(last.toByteArray(), 0, last.size() - 2);
+        return out.toByteArray();
+    }
+
+    private static void writeDeps(ByteArrayOutputStream out, int version, int output, int... inputs) {
+        int mtimeSize = version == 4 ? 8 : 4;
+        writeInt(out, 4 + mtimeSize + 4 * inputs.length);
+        writeInt(out, output);
+        for (int i = 0; i < mtimeSize / 4; i++) {
+            writeInt(out, 0x5f000000);
+        }
+        for (int input : inputs) {
+            writeInt(out, input);
+        }
+    }
+
+    private static void writeInt(ByteArrayOutputStream out, int value) {
+        out.write(value);
+        out.write(value >>> 8);
+        out.write(value >>> 16);
+        out.write(value >>> 24);
+    }
+}
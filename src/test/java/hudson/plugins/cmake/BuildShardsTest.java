@@ -0,0 +1,149 @@
+package hudson.plugins.cmake;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+public class BuildShardsTest extends TestCase {
+
+    private static TargetGraph graph(String workspace) {
+        TargetGraph.Builder builder = new TargetGraph.Builder("Release", workspace + "/src", workspace + "/build");
+        builder.addTarget("core::@1", "core", "STATIC_LIBRARY",
+                Arrays.asList("core/a.cpp", "core/b.cpp", "core/c.cpp"), Arrays.asList("libcore.a"),
+                Collections.<String>emptyList());
+        builder.addTarget("util::@1", "util", "STATIC_LIBRARY", Arrays.asList("util/u.cpp", "util/v.cpp"),
+                Arrays.asList("libutil.a"), Collections.<String>emptyList());
+        builder.addTarget("app::@1", "app", "EXECUTABLE", Arrays.asList("app/main.cpp"),
+                Arrays.asList("app"), Arrays.asList("core::@1", "util::@1"));
+        builder.addTarget("tool::@1", "tool", "EXECUTABLE", Arrays.asList("tool/main.cpp"),
+                Arrays.asList("tool"), Arrays.asList("core::@1"));
+        builder.addTarget("headers::@1", "headers", "INTERFACE_LIBRARY", Collections.<String>emptyList(),
+                Collections.<String>emptyList(), Collections.<String>emptyList());
+        return builder.build();
+    }
+
+    public void testPlanBalancesRoots() {
+        List<BuildShards.Shard> shards = BuildShards.plan(graph("/ws"), Collections.<String>emptyList(), 2);
+        assertEquals(Arrays.asList("app"), shards.get(0).getTargets());
+        assertEquals(9, shards.get(0).getCost());
+        assertEquals(Arrays.asList("tool"), shards.get(1).getTargets());
+        assertEquals(6, shards.get(1).getCost());
+    }
+
+    public void testPlanDoesNotDependOnWorkspace() {
+        List<BuildShards.Shard> a = BuildShards.plan(graph("/ws/SHARD/1"), Collections.<String>emptyList(), 2);
+        List<BuildShards.Shard> b = BuildShards.plan(graph("/ws/SHARD/2"), Collections.<String>emptyList(), 2);
+        for (int i = 0; i < a.size(); i++) {
+            assertEquals(a.get(i).getTargets(), b.get(i).getTargets());
+        }
+    }
+
+    /**
+     * The shards run in workspaces of their own and the build merging them
+     * in yet another one; it finds all its compile commands among those of
+     * the shards once the base dir is set.
+     */
+    public void testMergeBuildHitsShardsWithBaseDir() {
+        List<String> shards = new ArrayList<String>(hashedCommands("/ws/SHARD/1", 0, true));
+        shards.addAll(hashedCommands("/ws/SHARD/2", 1, true));
+        List<String> merge = hashedCommands("/ws/merge", -1, true);
+        assertEquals(7, merge.size());
+        assertTrue(shards.containsAll(merge));
+    }
+
+    public void testMergeBuildMissesShardsWithoutBaseDir() {
+        List<String> shards = new ArrayList<String>(hashedCommands("/ws/SHARD/1", 0, false));
+        shards.addAll(hashedCommands("/ws/SHARD/2", 1, false));
+        for (String command : hashedCommands("/ws/merge", -1, false)) {
+            assertFalse(shards.contains(command));
+        }
+    }
+
+    public void testBaseDirOfNodeIsKept() {
+        Map<String, String> envs = new HashMap<String, String>();
+        envs.put(CompilerCache.CCACHE_BASEDIR, "/");
+        assertFalse(CompilerCache.setBaseDir(envs, "/ws"));
+        assertEquals("/", envs.get(CompilerCache.CCACHE_BASEDIR));
+        assertNull(envs.get(CompilerCache.CCACHE_NOHASHDIR));
+    }
+
+    /**
+     * @param index the shard to build, <tt>-1</tt> for all targets
+     * @return the compile commands of the build in the workspace, as ccache hashes them
+     */
+    private static List<String> hashedCommands(String workspace, int index, boolean baseDir) {
+        Map<String, String> envs = new HashMap<String, String>();
+        if (baseDir) {
+            assertTrue(CompilerCache.setBaseDir(envs, workspace));
+        }
+        TargetGraph graph = graph(workspace);
+        List<String> pending = new ArrayList<String>();
+        if (index < 0) {
+            for (TargetGraph.Target target : graph.getTargets()) {
+                pending.add(target.getName());
+            }
+        } else {
+            pending.addAll(BuildShards.plan(graph, Collections.<String>emptyList(), 2).get(index).getTargets());
+        }
+        List<String> built = new ArrayList<String>();
+        List<String> commands = new ArrayList<String>();
+        while (!pending.isEmpty()) {
+            TargetGraph.Target target = graph.getTarget(pending.remove(0));
+            if (built.contains(target.getName())) {
+                continue;
+            }
+            built.add(target.getName());
+            pending.addAll(target.getDependencies());
+            for (String source : target.getSources()) {
+                // the Makefile and Ninja generators compile in the build root
+                List<String> args = Arrays.asList("c++", "-I", graph.getSourceRoot() + "/include", "-o",
+                        "CMakeFiles/" + target.getName() + ".dir/" + source + ".o", "-c",
+                        graph.getSourceRoot() + "/" + source);
+                commands.add(hash(args, graph.getBuildRoot(), envs));
+            }
+        }
+        return commands;
+    }
+
+    /**
+     * What ccache hashes of a command: absolute paths under
+     * <tt>CCACHE_BASEDIR</tt> relative to the working directory, and the
+     * working directory unless <tt>CCACHE_NOHASHDIR</tt> is set.
+     */
+    private static String hash(List<String> args, String cwd, Map<String, String> envs) {
+        String baseDir = envs.get(CompilerCache.CCACHE_BASEDIR);
+        StringBuilder hashed = new StringBuilder();
+        for (String arg : args) {
+            if (baseDir != null && arg.startsWith(baseDir + "/")) {
+                arg = relative(cwd, arg);
+            }
+            hashed.append(arg).append(' ');
+        }
+        if (envs.get(CompilerCache.CCACHE_NOHASHDIR) == null) {
+            hashed.append("cwd=").append(cwd);
+        }
+        return hashed.toString();
+    }
+
+    private static String relative(String from, String to) {
+        List<String> a = Arrays.asList(from.substring(1).split("/"));
+        List<String> b = Arrays.asList(to.substring(1).split("/"));
+        int common = 0;
+        while (common < a.size() && common < b.size() && a.get(common).equals(b.get(common))) {
+            common++;
+        }
+        StringBuilder path = new StringBuilder();
+        for (int i = common; i < a.size(); i++) {
+            path.append("../");
+        }
+        for (int i = common; i < b.size(); i++) {
+            path.append(b.get(i)).append(i < b.size() - 1 ? "/" : "");
+        }
+        return path.toString();
+    }
+}
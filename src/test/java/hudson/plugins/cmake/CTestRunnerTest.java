@@ -0,0 +1,82 @@
+package hudson.plugins.cmake;
+
+import java.io.File;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.List;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+import org.xml.sax.InputSource;
+
+import junit.framework.TestCase;
+
+public class CTestRunnerTest extends TestCase {
+
+    private File buildDir;
+
+    @Override
+    protected void setUp() throws Exception {
+        buildDir = Fixtures.createTempDir();
+        Fixtures.copy("ctest/TAG", buildDir, "Testing/TAG");
+        Fixtures.copy("ctest/Test.xml", buildDir, "Testing/20240501-1200/Test.xml");
+    }
+
+    @Override
+    protected void tearDown() {
+        Fixtures.delete(buildDir);
+    }
+
+    public void testTestXmlOfTag() throws Exception {
+        assertEquals(new File(buildDir, "Testing/20240501-1200/Test.xml"), CTestRunner.testXml(buildDir));
+        new File(buildDir, "Testing/TAG").delete();
+        assertNull(CTestRunner.testXml(buildDir));
+    }
+
+    public void testResults() throws Exception {
+        List<CTestResult> results = CTestRunner.convert(CTestRunner.testXml(buildDir), new StringWriter());
+        assertEquals(3, results.size());
+        assertResult(results.get(0), "unit_parser", CTestResult.PASSED, 0.125);
+        assertResult(results.get(1), "unit_io", CTestResult.FAILED, 2.5);
+        assertTrue(results.get(1).isFailed());
+        assertResult(results.get(2), "needs_network", CTestResult.NOT_RUN, 0);
+        assertFalse(results.get(2).isRun());
+    }
+
+    public void testJUnitReport() throws Exception {
+        StringWriter junit = new StringWriter();
+        CTestRunner.convert(CTestRunner.testXml(buildDir), junit);
+
+        Document report = DocumentBuilderFactory.newInstance().newDocumentBuilder()
+                .parse(new InputSource(new StringReader(junit.toString())));
+        NodeList cases = report.getElementsByTagName("testcase");
+        assertEquals(3, cases.getLength());
+
+        Element passed = (Element) cases.item(0);
+        assertEquals("unit_parser", passed.getAttribute("name"));
+        assertEquals("0.125", passed.getAttribute("time"));
+        assertEquals(0, passed.getChildNodes().getLength());
+
+        Element failed = (Element) cases.item(1);
+        assertEquals("2.500", failed.getAttribute("time"));
+        NodeList failures = failed.getElementsByTagName("failure");
+        assertEquals(1, failures.getLength());
+        assertEquals("expected <3> & got \"4\"[NON-XML-CHAR-0x1B][0m\n", failures.item(0).getTextContent());
+
+        Element notRun = (Element) cases.item(2);
+        assertEquals(1, notRun.getElementsByTagName("skipped").getLength());
+    }
+
+    public void testEscape() {
+        assertEquals("a&lt;b&gt;&amp;&quot;\n\tc", CTestRunner.escape("a<b>&\"\n\t\u001bc"));
+    }
+
+    private static void assertResult(CTestResult result, String name, String status, double seconds) {
+        assertEquals(name, result.getName());
+        assertEquals(status, result.getStatus());
+        assertEquals(seconds, result.getSeconds(), 0.0001);
+    }
+}
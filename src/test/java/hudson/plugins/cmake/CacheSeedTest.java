@@ -0,0 +1,39 @@
+package hudson.plugins.cmake;
+
+import java.io.File;
+import java.io.IOException;
+
+import junit.framework.TestCase;
+
+public class CacheSeedTest extends TestCase {
+
+    public void testEscapedValueRoundTrips() {
+        final String value = "C:\\Program Files\\\"x\"\\${y}";
+        assertEquals(value, CacheSeed.unescape(CacheSeed.escape(value)));
+    }
+
+    public void testExistingPathIsKept() throws IOException {
+        final File file = File.createTempFile("seed", ".h");
+        try {
+            assertFalse(CacheSeed.isStalePath(setLine("FOO_INCLUDE_DIR", "PATH", file.getParent())));
+            assertFalse(CacheSeed.isStalePath(setLine("FOO_LIBRARY", "FILEPATH", file.getPath())));
+        } finally {
+            file.delete();
+        }
+    }
+
+    public void testMissingPathIsStale() throws IOException {
+        final File file = File.createTempFile("seed", ".so");
+        file.delete();
+        assertTrue(CacheSeed.isStalePath(setLine("FOO_LIBRARY", "FILEPATH", file.getPath())));
+    }
+
+    public void testOtherEntriesAreNeverStale() {
+        assertFalse(CacheSeed.isStalePath(setLine("HAVE_FOO", "INTERNAL", "/no/such/file")));
+        assertFalse(CacheSeed.isStalePath(setLine("FOO_FOUND", "BOOL", "ON")));
+    }
+
+    private static String setLine(String name, String type, String value) {
+        return CacheSeed.entry(name, type, value).split("\n")[1];
+    }
+}
@@ -0,0 +1,64 @@
+package hudson.plugins.cmake;
+
+import java.io.File;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+public class CmakeFileApiTest extends TestCase {
+
+    private static final String[] REPLY = {
+        "index-2024-01-01T00-00-00-0000.json", "index-2024-05-01T12-00-00-0000.json", "codemodel-v2-abc.json",
+        "target-core-Debug.json", "target-core-Release.json", "target-app-Release.json",
+    };
+
+    private File replyDir;
+
+    @Override
+    protected void setUp() throws Exception {
+        replyDir = Fixtures.createTempDir();
+        for (String name : REPLY) {
+            Fixtures.copy("fileapi/" + name, replyDir, name);
+        }
+    }
+
+    @Override
+    protected void tearDown() {
+        Fixtures.delete(replyDir);
+    }
+
+    public void testCodemodelFileOfLatestIndex() throws Exception {
+        assertEquals("codemodel-v2-abc.json", CmakeFileApi.codemodelFile(replyDir));
+    }
+
+    public void testNoReply() throws Exception {
+        File empty = new File(replyDir, "empty");
+        empty.mkdir();
+        assertNull(CmakeFileApi.codemodelFile(empty));
+    }
+
+    public void testRequestedConfiguration() throws Exception {
+        TargetGraph graph = CmakeFileApi.parseCodemodel(replyDir, "codemodel-v2-abc.json", "release");
+        assertEquals("Release", graph.getConfiguration());
+        assertEquals("/src/proj\u00e9ct", graph.getSourceRoot());
+        assertEquals("C:\\build\\proj", graph.getBuildRoot());
+        assertEquals(2, graph.getTargetCount());
+
+        TargetGraph.Target core = graph.getTarget("core");
+        assertEquals("STATIC_LIBRARY", core.getType());
+        assertEquals(Arrays.asList("src/a.cpp", "src/b \"quoted\".cpp", "include/core.h"), core.getSources());
+        assertEquals(Arrays.asList("libcore.a"), core.getArtifacts());
+        assertTrue(core.getDependencies().isEmpty());
+
+        TargetGraph.Target app = graph.getTarget("app");
+        assertEquals("EXECUTABLE", app.getType());
+        assertEquals(Arrays.asList("core"), app.getDependencies());
+    }
+
+    public void testFirstConfigurationByDefault() throws Exception {
+        TargetGraph graph = CmakeFileApi.parseCodemodel(replyDir, "codemodel-v2-abc.json", null);
+        assertEquals("Debug", graph.getConfiguration());
+        assertEquals(1, graph.getTargetCount());
+        assertEquals(Arrays.asList("src/debug_only.cpp"), graph.getTarget("core").getSources());
+    }
+}
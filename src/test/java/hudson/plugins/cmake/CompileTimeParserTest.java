@@ -0,0 +1,82 @@
+package hudson.plugins.cmake;
+
+import java.io.File;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class CompileTimeParserTest extends TestCase {
+
+    private File dir;
+
+    @Override
+    protected void setUp() throws Exception {
+        dir = Fixtures.createTempDir();
+    }
+
+    @Override
+    protected void tearDown() {
+        Fixtures.delete(dir);
+    }
+
+    public void testNinjaLogKeepsTheLastRun() throws Exception {
+        File log = Fixtures.copy("compiletime/ninja_log", dir, CompileTimeParser.NINJA_LOG);
+        CompileTimeReport report = CompileTimeParser.parseNinjaLog(log, 0, 3);
+
+        assertEquals(CompileTimeParser.NINJA_LOG, report.getSource());
+        // the step of the earlier run, the second output of the archive step and the bad line are left out
+        assertEquals(5, report.getSteps());
+        assertEquals(1600, report.getWallMillis());
+        assertEquals(1600, report.getCriticalPathMillis());
+        assertItems(report.getSlowestTargets(), "core", 800, "app", 700, "libcore.a", 400);
+        assertItems(report.getSlowestUnits(), "CMakeFiles/app.dir/main.cpp.o", 600,
+                "CMakeFiles/core.dir/src/b.cpp.o", 500, "libcore.a", 400);
+    }
+
+    public void testNinjaLogFromOffset() throws Exception {
+        File log = Fixtures.copy("compiletime/ninja_log", dir, CompileTimeParser.NINJA_LOG);
+        String content = new String(Fixtures.read(log), "UTF-8");
+        long offset = content.indexOf("900\t1500");
+
+        CompileTimeReport report = CompileTimeParser.parseNinjaLog(log, offset, 10);
+        assertEquals(2, report.getSteps());
+        assertItems(report.getSlowestTargets(), "app", 700);
+    }
+
+    public void testNinjaLogRecompactedSinceTheMark() throws Exception {
+        File log = Fixtures.copy("compiletime/ninja_log", dir, CompileTimeParser.NINJA_LOG);
+        CompileTimeReport report = CompileTimeParser.parseNinjaLog(log, log.length() + 100, 3);
+        assertEquals(5, report.getSteps());
+    }
+
+    public void testTimeTrace() throws Exception {
+        File trace = Fixtures.copy("compiletime/main.cpp.json", dir, "CMakeFiles/app.dir/main.cpp.json");
+        assertEquals(250000, CompileTimeParser.readTotalCompileTime(trace));
+
+        CompileTimeReport report = CompileTimeParser.parseTimeTraces(dir, 0, 5);
+        assertEquals(1, report.getSteps());
+        assertEquals(-1, report.getCriticalPathMillis());
+        assertItems(report.getSlowestTargets(), "app", 250);
+        assertItems(report.getSlowestUnits(), "CMakeFiles/app.dir/main.cpp", 250);
+    }
+
+    public void testTimeTraceWithoutTotal() throws Exception {
+        File trace = Fixtures.write("{\"traceEvents\":[{\"name\":\"Source\",\"dur\":12}]}".getBytes("UTF-8"),
+                new File(dir, "CMakeFiles/app.dir/other.cpp.json"));
+        assertEquals(-1, CompileTimeParser.readTotalCompileTime(trace));
+    }
+
+    public void testTargetOf() {
+        assertEquals("core", CompileTimeParser.targetOf("CMakeFiles/core.dir/src/a.cpp.o"));
+        assertEquals("core", CompileTimeParser.targetOf("lib\\CMakeFiles\\core.dir\\src\\a.cpp.obj"));
+        assertEquals("app", CompileTimeParser.targetOf("app"));
+    }
+
+    private static void assertItems(List<CompileTimeReport.Item> items, Object... expected) {
+        assertEquals(expected.length / 2, items.size());
+        for (int i = 0; i < items.size(); i++) {
+            assertEquals(expected[2 * i], items.get(i).getName());
+            assertEquals(((Number) expected[2 * i + 1]).longValue(), items.get(i).getMillis());
+        }
+    }
+}
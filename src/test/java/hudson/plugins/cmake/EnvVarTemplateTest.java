@@ -0,0 +1,59 @@
+package hudson.plugins.cmake;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+public class EnvVarTemplateTest extends TestCase {
+
+    private Map<String, String> envs;
+
+    @Override
+    protected void setUp() {
+        envs = new HashMap<String, String>();
+        envs.put("FOO", "foo");
+        envs.put("FOOBAR", "foobar");
+        envs.put("WORKSPACE", "/ws");
+    }
+
+    public void testPlainReference() {
+        assertEquals("/ws/build", EnvVarReplacer.replace("$WORKSPACE/build", envs));
+    }
+
+    public void testBracedReference() {
+        assertEquals("/wsbuild", EnvVarReplacer.replace("${WORKSPACE}build", envs));
+    }
+
+    public void testLongestNameWins() {
+        assertEquals("foobar foo", EnvVarReplacer.replace("$FOOBAR $FOO", envs));
+        assertEquals("foo-BAR", EnvVarReplacer.replace("$FOO-BAR", envs));
+        assertEquals("$FOOBARBAZ", EnvVarReplacer.replace("$FOOBARBAZ", envs));
+    }
+
+    public void testUnknownReferencesAreKept() {
+        String template = "$NOPE ${NOPE} ${FOO $ ${} $1 ${1A} end$";
+        assertEquals(template, EnvVarReplacer.replace(template, envs));
+    }
+
+    public void testValuesAreInsertedLiterally() {
+        envs.put("DIR", "C:\\tools\\$FOO\\$1");
+        assertEquals("-DDIR=C:\\tools\\$FOO\\$1", EnvVarReplacer.replace("-DDIR=$DIR", envs));
+    }
+
+    public void testNullTemplate() {
+        assertNull(EnvVarReplacer.replace(null, envs));
+        assertNull(EnvVarTemplate.compile(null).expand(envs));
+        assertFalse(EnvVarTemplate.compile(null).hasReferences());
+    }
+
+    public void testTemplateWithoutReferences() {
+        EnvVarTemplate template = EnvVarTemplate.compile("-G \"Unix Makefiles\"");
+        assertFalse(template.hasReferences());
+        assertEquals("-G \"Unix Makefiles\"", template.expand(envs));
+    }
+
+    public void testCompiledTemplatesAreReused() {
+        assertSame(EnvVarReplacer.compile("$FOO/x"), EnvVarReplacer.compile("$FOO/x"));
+    }
+}
@@ -0,0 +1,93 @@
+package hudson.plugins.cmake;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Copies the fixture files below <tt>src/test/resources/hudson/plugins/cmake</tt>
+ * into scratch directories, for the parsers that read from a build tree.
+ */
+final class Fixtures {
+
+    private Fixtures() {
+    }
+
+    static File createTempDir() throws IOException {
+        File dir = File.createTempFile("cmakebuilder", "");
+        if (!dir.delete() || !dir.mkdir()) {
+            throw new IOException("Unable to create " + dir);
+        }
+        return dir;
+    }
+
+    /**
+     * Copies a fixture to <tt>path</tt> below <tt>dir</tt>, creating its parent directories.
+     */
+    static File copy(String fixture, File dir, String path) throws IOException {
+        InputStream in = Fixtures.class.getResourceAsStream(fixture);
+        if (in == null) {
+            throw new IOException("No fixture " + fixture);
+        }
+        try {
+            return write(in, new File(dir, path));
+        } finally {
+            in.close();
+        }
+    }
+
+    static File write(byte[] data, File file) throws IOException {
+        file.getParentFile().mkdirs();
+        OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(data);
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+    private static File write(InputStream in, File file) throws IOException {
+        file.getParentFile().mkdirs();
+        OutputStream out = new FileOutputStream(file);
+        try {
+            byte[] buffer = new byte[8192];
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                out.write(buffer, 0, n);
+            }
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+    static byte[] read(File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            ByteArrayOutputStream data = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                data.write(buffer, 0, n);
+            }
+            return data.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+    static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,100 @@
+package hudson.plugins.cmake;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+import junit.framework.TestCase;
+
+public class JsonPullParserTest extends TestCase {
+
+    private static JsonPullParser parser(String json) {
+        return new JsonPullParser(new StringReader(json));
+    }
+
+    public void testTokens() throws Exception {
+        JsonPullParser json = parser("{\"a\": [1, -2.5e3, true, false, null], \"b\": {}}");
+        json.beginObject();
+        assertEquals("a", json.nextName());
+        json.beginArray();
+        assertEquals(JsonPullParser.Token.NUMBER, json.next());
+        assertEquals("1", json.getValue());
+        assertEquals("-2.5e3", json.nextString());
+        assertEquals(JsonPullParser.Token.BOOLEAN, json.next());
+        assertEquals("true", json.getValue());
+        assertEquals("false", json.nextString());
+        assertNull(json.nextString());
+        assertFalse(json.hasNextElement());
+        assertEquals("b", json.nextName());
+        json.beginObject();
+        assertNull(json.nextName());
+        assertNull(json.nextName());
+        assertEquals(JsonPullParser.Token.END, json.next());
+    }
+
+    public void testStringEscapes() throws Exception {
+        JsonPullParser json = parser("[\"q\\\" b\\\\ s\\/ \\n\\t\\r\\b\\f \\u00e9\\u20AC\"]");
+        json.beginArray();
+        assertEquals("q\" b\\ s/ \n\t\r\b\f \u00e9\u20ac", json.nextString());
+    }
+
+    public void testSurrogatePairs() throws Exception {
+        JsonPullParser json = parser("{\"escaped\": \"\\ud83d\\ude00\", \"raw\": \"\ud83d\ude00\"}");
+        json.beginObject();
+        assertEquals("escaped", json.nextName());
+        String escaped = json.nextString();
+        assertEquals(2, escaped.length());
+        assertEquals(0x1F600, escaped.codePointAt(0));
+        assertEquals("raw", json.nextName());
+        assertEquals(escaped, json.nextString());
+    }
+
+    public void testNamesWithEscapes() throws Exception {
+        JsonPullParser json = parser("{\"a\\\"b\" : \"c\"}");
+        json.beginObject();
+        assertEquals("a\"b", json.nextName());
+        assertEquals("c", json.nextString());
+    }
+
+    public void testSkipValue() throws Exception {
+        JsonPullParser json = parser("{\"skip\": {\"x\": [1, {\"y\": \"]}\"}], \"z\": null}, \"keep\": \"k\"}");
+        json.beginObject();
+        assertEquals("skip", json.nextName());
+        json.skipValue();
+        assertEquals("keep", json.nextName());
+        assertEquals("k", json.nextString());
+        assertNull(json.nextName());
+    }
+
+    public void testLongString() throws Exception {
+        StringBuilder text = new StringBuilder();
+        while (text.length() < 20000) {
+            text.append("0123456789abcdef");
+        }
+        JsonPullParser json = parser("[\"" + text + "\", 12345]");
+        json.beginArray();
+        assertEquals(text.toString(), json.nextString());
+        assertEquals("12345", json.nextString());
+    }
+
+    public void testUnterminatedString() throws Exception {
+        JsonPullParser json = parser("[\"abc");
+        json.beginArray();
+        try {
+            json.nextString();
+            fail("unterminated string accepted");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    public void testInvalidUnicodeEscape() throws Exception {
+        JsonPullParser json = parser("[\"\\u12g4\"]");
+        json.beginArray();
+        try {
+            json.nextString();
+            fail("invalid escape accepted");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+}
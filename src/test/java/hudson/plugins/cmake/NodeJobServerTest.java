@@ -0,0 +1,22 @@
+package hudson.plugins.cmake;
+
+import junit.framework.TestCase;
+
+public class NodeJobServerTest extends TestCase {
+
+    public void testGnuMakeVersion() {
+        int[] version = NodeJobServer.parseMakeVersion("GNU Make 4.3\nBuilt for x86_64-pc-linux-gnu\n");
+        assertEquals(4, version[0]);
+        assertEquals(3, version[1]);
+    }
+
+    public void testOldGnuMakeVersion() {
+        int[] version = NodeJobServer.parseMakeVersion("GNU Make 3.81\nCopyright (C) 2006  Free Software Foundation");
+        assertEquals(3, version[0]);
+        assertEquals(81, version[1]);
+    }
+
+    public void testOtherMakeIsNotGnuMake() {
+        assertNull(NodeJobServer.parseMakeVersion("make: unknown option -- -\nusage: make [-BeikNnqrstWwX]"));
+    }
+}